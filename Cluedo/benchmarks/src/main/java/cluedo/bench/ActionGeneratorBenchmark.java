@@ -0,0 +1,97 @@
+package cluedo.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.board.Board;
+import cluedo.game.ActionGenerator;
+import cluedo.game.Dice;
+import cluedo.game.Game;
+import cluedo.game.GameState;
+import cluedo.game.Player;
+import cluedo.tokens.CharacterToken;
+
+/**
+ * Measures listing the legal actions of a player, with the board's own
+ * movement range search as the baseline. Run with the GC profiler, see
+ * {@link #main(String[])}, to check the generator allocates nothing: its
+ * gc.alloc.rate.norm should be 0 bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionGeneratorBenchmark {
+
+	// benchmark fields
+	private Board board;
+	private ActionGenerator generator;
+	private int[] buffer;
+	private GameState corridor;
+	private GameState room;
+	private int character;
+
+	@Setup
+	public void setup() {
+		Dice dice = new Dice(new SplittableRandom(1));
+		board = new Board(Game.WEAPONS, Game.ROOMS, dice,
+				new SplittableRandom(1));
+		CharacterToken missScarlett = board.getCharacterToken("Miss Scarlett");
+		character = missScarlett.getId();
+		board.setPlayer(new Player(missScarlett, missScarlett.getName(), 1));
+		do {
+			dice.roll();
+		} while (dice.getResult() < 7);
+		generator = new ActionGenerator(board.getTileGraph(),
+				Game.CHARACTERS.length, Game.WEAPONS.length);
+		buffer = new int[generator.getMaxActions()];
+
+		// after rolling in the corridor, then in a room
+		corridor = board.getState(new long[1], 0, 0, GameState.ROLLED);
+		board.warpForSuggest(missScarlett, board.getWeapons().get(0),
+				board.getRooms().iterator().next());
+		room = board.getState(new long[1], 0, 0, GameState.ROLLED);
+		board.undo(0);
+	}
+
+	@Benchmark
+	public int generateInCorridor() {
+		return generator.generate(corridor, character, buffer);
+	}
+
+	@Benchmark
+	public int generateInRoom() {
+		return generator.generate(room, character, buffer);
+	}
+
+	@Benchmark
+	public int boardValidTiles() {
+		board.setValidTiles();
+		return board.getValidTiles().size();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ActionGeneratorBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
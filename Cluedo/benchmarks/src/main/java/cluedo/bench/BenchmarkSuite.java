@@ -0,0 +1,38 @@
+package cluedo.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark of the package with the GC profiler and writes the
+ * results as JSON, one file per run, so runs of two versions of the game can
+ * be compared benchmark by benchmark.
+ */
+public class BenchmarkSuite {
+
+	// the results file when none is given
+	private static final String RESULTS = "jmh-results.json";
+
+	/**
+	 * Run the benchmarks.
+	 * 
+	 * @param args
+	 *            The results file, then optionally a pattern of the
+	 *            benchmarks to run, all of them if there is none.
+	 * @throws RunnerException
+	 *             If a benchmark fails.
+	 */
+	public static void main(String[] args) throws RunnerException {
+		String results = args.length > 0 ? args[0] : RESULTS;
+		String include = args.length > 1 ? args[1]
+				: BenchmarkSuite.class.getPackage().getName() + ".";
+		Options options = new OptionsBuilder().include(include)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON).result(results).build();
+		new Runner(options).run();
+	}
+}
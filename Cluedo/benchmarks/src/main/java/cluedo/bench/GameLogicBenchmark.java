@@ -0,0 +1,172 @@
+package cluedo.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.board.Board;
+import cluedo.board.Room;
+import cluedo.game.Deck;
+import cluedo.game.Game;
+import cluedo.game.Player;
+import cluedo.game.Registry;
+import cluedo.tiles.DoorTile;
+import cluedo.tiles.Tile;
+import cluedo.tokens.CharacterToken;
+
+/**
+ * Measures setting up the cards of a game, resolving suggestions and playing
+ * whole turns of a game with no window. Each player walks into a room in
+ * reach if there is one, and suggests a random character and weapon there.
+ * Everything is fixed by seeds, so every run plays the same turns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameLogicBenchmark {
+
+	// turns played before the tokens go back to where they started
+	private static final int TURNS = 120;
+
+	@Param({ "3", "6" })
+	public int players;
+
+	// benchmark fields
+	private Game game;
+	private Board board;
+	private Registry registry;
+	private Deck deck;
+	private SplittableRandom random;
+	private int mark;
+	private int turn;
+
+	@Setup
+	public void setup() {
+		game = new Game(1, players);
+		board = game.getBoard();
+		registry = board.getRegistry();
+		deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(1));
+		random = new SplittableRandom(1);
+		mark = board.getUndoDepth();
+	}
+
+	/**
+	 * Returns new players with no cards, taking the characters in order.
+	 */
+	private Player[] newPlayers() {
+		Player[] result = new Player[players];
+		for (int i = 0; i < players; i++) {
+			CharacterToken token = registry.getCharacter(i);
+			result[i] = new Player(token, token.getName(), i + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the card bitmask of a suggestion.
+	 */
+	private long suggestion(int character, int room, int weapon) {
+		return (1L << registry.getCardId(Registry.CHARACTER, character))
+				| (1L << registry.getCardId(Registry.ROOM, room))
+				| (1L << registry.getCardId(Registry.WEAPON, weapon));
+	}
+
+	@Benchmark
+	public Deck deckSetup() {
+		Deck result = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(1));
+		result.generateSolution();
+		result.dealCards(newPlayers(), players);
+		return result;
+	}
+
+	@Benchmark
+	public long deal() {
+		deck.generateSolution();
+		deck.dealCards(newPlayers(), players);
+		return deck.getSolutionMask();
+	}
+
+	@Benchmark
+	public int resolveSuggestion() {
+		turn = (turn + 1) % players;
+		Player player = game.getPlayers()[turn];
+		return game.resolveSuggestion(player, suggestion(
+				random.nextInt(registry.getNumberCharacters()),
+				random.nextInt(registry.getNumberRooms()),
+				random.nextInt(registry.getNumberWeapons())));
+	}
+
+	/**
+	 * Rolls the dice, moves the player straight to a tile in reach and makes a
+	 * suggestion if they are in a room, then moves on to the next player.
+	 */
+	@Benchmark
+	public int headlessTurn() {
+		turn++;
+		if (turn % TURNS == 0) {
+			board.undo(mark);
+		}
+		Player player = game.getPlayers()[turn % players];
+		CharacterToken token = player.getToken();
+		board.setPlayer(player);
+		game.getDice().roll();
+		board.setValidTiles();
+
+		// the first door in reach by tile index, otherwise the first tile
+		Tile target = null;
+		int best = Integer.MAX_VALUE;
+		for (Tile t : board.getValidTiles()) {
+			int tile = t.getLocation().getY() * board.getWidth()
+					+ t.getLocation().getX();
+			if (t instanceof DoorTile) {
+				tile -= board.getTileGraph().size();
+			}
+			if (tile < best) {
+				best = tile;
+				target = t;
+			}
+		}
+		if (target != null) {
+			board.movePlayer(token, target.getLocation());
+		}
+
+		if (!token.inRoom()) {
+			return -1;
+		}
+		Room room = token.getRoom();
+		int character = random.nextInt(registry.getNumberCharacters());
+		int weapon = random.nextInt(registry.getNumberWeapons());
+		board.warpForSuggest(registry.getCharacter(character),
+				registry.getWeapon(weapon), room);
+		return game.resolveSuggestion(player, suggestion(character,
+				room.getId(), weapon));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(GameLogicBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,103 @@
+package cluedo.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.board.Board;
+import cluedo.board.CompiledMap;
+import cluedo.board.DistanceField;
+import cluedo.board.HierarchicalPathFinder;
+import cluedo.board.MapGenerator;
+import cluedo.board.OccupancyGrid;
+import cluedo.board.TileGraph;
+import cluedo.game.Dice;
+import cluedo.game.Game;
+
+/**
+ * Measures one path query between two random walkable tiles of a generated
+ * map, searching the chunks of the board against a breadth first search of
+ * every tile. The search of the whole board the standard map uses, see
+ * {@link cluedo.board.Dijkstra}, is left out as it takes seconds on these
+ * maps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HierarchicalPathBenchmark {
+
+	// number of queries cycled through
+	private static final int QUERIES = 256;
+
+	@Param({ "128", "512", "2048" })
+	public int size;
+
+	// benchmark fields
+	private HierarchicalPathFinder finder;
+	private DistanceField field;
+	private int[] from;
+	private int[] to;
+	private int query;
+
+	@Setup
+	public void setup() {
+		CompiledMap map = new MapGenerator(size, size, 1).compile();
+		Board board = new Board(map, Game.WEAPONS, new Dice(),
+				new SplittableRandom(1));
+		TileGraph graph = board.getTileGraph();
+		finder = new HierarchicalPathFinder(graph, null);
+		field = new DistanceField(graph, new OccupancyGrid(size, size));
+		SplittableRandom random = new SplittableRandom(1);
+		from = new int[QUERIES];
+		to = new int[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			from[i] = walkable(graph, random);
+			to[i] = walkable(graph, random);
+		}
+	}
+
+	private static int walkable(TileGraph graph, SplittableRandom random) {
+		int tile;
+		do {
+			tile = random.nextInt(graph.size());
+		} while (!graph.isWalkable(tile));
+		return tile;
+	}
+
+	@Benchmark
+	public int hierarchical() {
+		query = (query + 1) % QUERIES;
+		return finder.getDistance(from[query], to[query]);
+	}
+
+	@Benchmark
+	public int flat() {
+		query = (query + 1) % QUERIES;
+		field.reset(new int[] { from[query] }, 1);
+		return field.getDistance(to[query]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(
+				HierarchicalPathBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
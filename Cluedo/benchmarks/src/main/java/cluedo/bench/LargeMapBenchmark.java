@@ -0,0 +1,129 @@
+package cluedo.bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.board.Board;
+import cluedo.board.CompiledMap;
+import cluedo.board.DistanceField;
+import cluedo.board.MapGenerator;
+import cluedo.board.Room;
+import cluedo.game.Dice;
+import cluedo.game.Game;
+import cluedo.game.Player;
+import cluedo.tiles.DoorTile;
+import cluedo.tiles.Tile;
+import cluedo.tokens.CharacterToken;
+
+/**
+ * Measures the board on a generated 500 by 500 map: a turn of finding the
+ * movement range and stepping a character, drawing a frame, and a path from
+ * a character to a room door. A turn and a frame together should stay well
+ * under a quarter of a second for the map to feel interactive.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LargeMapBenchmark {
+
+	// map size in tiles
+	private static final int SIZE = 500;
+
+	// benchmark fields
+	private Board board;
+	private Dice dice;
+	private BufferedImage image;
+	private int[] doors;
+	private int[] path;
+	private int turn;
+	private int door;
+
+	@Setup
+	public void setup() {
+		CompiledMap map = new MapGenerator(SIZE, SIZE, 7).compile();
+		dice = new Dice(new SplittableRandom(11));
+		board = new Board(map, Game.WEAPONS, dice, new SplittableRandom(11));
+		image = new BufferedImage(1280, 800, BufferedImage.TYPE_INT_RGB);
+		List<Integer> list = new ArrayList<Integer>();
+		for (Room room : board.getRooms()) {
+			for (DoorTile d : room.getEntrances()) {
+				list.add(board.getTileIndex(d.getLocation()));
+			}
+		}
+		doors = new int[list.size()];
+		for (int i = 0; i < doors.length; i++) {
+			doors[i] = list.get(i);
+		}
+		path = new int[SIZE * SIZE];
+		// build the field of every character and scale the map image
+		for (int i = 0; i < Game.CHARACTERS.length; i++) {
+			turn();
+			frame();
+		}
+	}
+
+	@Benchmark
+	public int turn() {
+		List<CharacterToken> characters = board.getCharacters();
+		CharacterToken c = characters.get(turn++ % characters.size());
+		board.setPlayer(new Player(c, c.getName(), 1));
+		dice.roll();
+		board.setValidTiles();
+		DistanceField field = board.getDistanceField(c);
+		// step onto a corridor tile, so the next field is searched again
+		Tile next = null;
+		for (Tile t : board.getValidTiles()) {
+			if (!(t instanceof DoorTile)) {
+				next = t;
+			}
+		}
+		if (next != null && !c.inRoom()) {
+			board.movePlayer(c, next.getLocation());
+		}
+		return field.getDistance(0);
+	}
+
+	@Benchmark
+	public BufferedImage frame() {
+		Graphics2D g = image.createGraphics();
+		board.draw(g, image.getWidth(), image.getHeight());
+		g.dispose();
+		return image;
+	}
+
+	@Benchmark
+	public int pathToDoor() {
+		door = (door + 1) % doors.length;
+		DistanceField field = board.getDistanceField(board.getCharacters()
+				.get(0));
+		return field.getPath(doors[door], path);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(
+				LargeMapBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,232 @@
+package cluedo.bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.actions.MoveSequence;
+import cluedo.board.Board;
+import cluedo.board.CompiledMap;
+import cluedo.board.Dijkstra;
+import cluedo.board.DistanceField;
+import cluedo.board.Location;
+import cluedo.board.MapGenerator;
+import cluedo.board.TileGraph;
+import cluedo.game.Dice;
+import cluedo.game.Game;
+import cluedo.game.Player;
+import cluedo.tiles.PathTile;
+import cluedo.tokens.CharacterToken;
+
+/**
+ * Measures the path searches of the board on the standard map and on a
+ * generated map, from the search of every tile to a whole move picked with
+ * the mouse. Queries go between walkable tiles picked with a fixed seed, so
+ * every run measures the same paths. Run with the GC profiler, see
+ * {@link #main(String[])}, for the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathfindingBenchmark {
+
+	// the generated map stays small enough for the board to use dijkstra
+	static final int GENERATED_SIZE = 48;
+	// the dice result of the moves made with the mouse
+	static final int ROLL = 7;
+	// number of queries cycled through
+	private static final int QUERIES = 64;
+
+	@Param({ "classic", "generated" })
+	public String map;
+
+	/**
+	 * The dice results to search the movement range for, measured apart from
+	 * the other searches, which do not depend on the dice.
+	 */
+	@State(Scope.Thread)
+	public static class Roll {
+		@Param({ "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12" })
+		public int roll;
+	}
+
+	/**
+	 * Dice that always show the same result, so a move can be made again
+	 * and again. Rolling loads the dice images, which is not measured here.
+	 */
+	static class FixedDice extends Dice {
+		private final int result;
+
+		FixedDice(int result) {
+			this.result = result;
+		}
+
+		@Override
+		public int getResult() {
+			return result;
+		}
+	}
+
+	// benchmark fields
+	private Board board;
+	private CharacterToken token;
+	private Location[] from;
+	private Location[] to;
+	private int query;
+	private int[] mouseX;
+	private int[] mouseY;
+	private int move;
+
+	/**
+	 * Create a board with the standard map or a generated one, with the
+	 * token positions fixed by the seed.
+	 * 
+	 * @param map
+	 *            "classic" or "generated".
+	 * @param dice
+	 *            The dice of the board.
+	 * @return The board.
+	 */
+	static Board createBoard(String map, Dice dice) {
+		if (map.equals("classic")) {
+			return new Board(Game.WEAPONS, Game.ROOMS, dice,
+					new SplittableRandom(1));
+		}
+		CompiledMap generated = new MapGenerator(GENERATED_SIZE,
+				GENERATED_SIZE, 1).compile();
+		return new Board(generated, Game.WEAPONS, dice,
+				new SplittableRandom(1));
+	}
+
+	@Setup
+	public void setup() {
+		board = createBoard(map, new FixedDice(ROLL));
+		token = board.getCharacters().get(0);
+		board.setPlayer(new Player(token, token.getName(), 1));
+		TileGraph graph = board.getTileGraph();
+		SplittableRandom random = new SplittableRandom(1);
+		from = new Location[QUERIES];
+		to = new Location[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			from[i] = walkable(graph, random);
+			to[i] = walkable(graph, random);
+		}
+
+		// a move back and forth between the start and a path tile in reach
+		Location start = token.getLocation();
+		DistanceField field = board.getDistanceField(token);
+		Location end = null;
+		for (int tile = 0; tile < graph.size() && end == null; tile++) {
+			Location loc = new Location(tile % board.getWidth(), tile
+					/ board.getWidth());
+			if (field.getDistance(tile) == ROLL - 1
+					&& board.getTile(loc) instanceof PathTile
+					&& !board.hasTokenOn(loc)) {
+				end = loc;
+			}
+		}
+		// drawn at a scale of one the mouse is over the middle of a tile, the
+		// first move is to the end
+		int width = board.getLayoutWidth();
+		int height = board.getLayoutHeight();
+		Graphics2D g = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB).createGraphics();
+		board.draw(g, width, height);
+		g.dispose();
+		Location[] moves = { start, end };
+		mouseX = new int[moves.length];
+		mouseY = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			mouseX[i] = Board.GRID_X_OFFSET + moves[i].getX()
+					* Board.SQUARE_SIZE + Board.SQUARE_SIZE / 2;
+			mouseY[i] = Board.GRID_Y_OFFSET + moves[i].getY()
+					* Board.SQUARE_SIZE + Board.SQUARE_SIZE / 2;
+		}
+	}
+
+	private static Location walkable(TileGraph graph, SplittableRandom random) {
+		int tile;
+		do {
+			tile = random.nextInt(graph.size());
+		} while (!graph.isWalkable(tile));
+		return new Location(tile % graph.getWidth(), tile / graph.getWidth());
+	}
+
+	/**
+	 * Returns the search of every tile, which the board uses on maps this
+	 * size. It can only search once.
+	 */
+	private Dijkstra dijkstra() {
+		return (Dijkstra) board.getPathFinder();
+	}
+
+	@Benchmark
+	public int dijkstraFindPath() {
+		query = (query + 1) % QUERIES;
+		return dijkstra().findPath(from[query], to[query]);
+	}
+
+	@Benchmark
+	public int dijkstraValidTiles(Roll roll) {
+		query = (query + 1) % QUERIES;
+		return dijkstra().getValidTiles(from[query], roll.roll).size();
+	}
+
+	@Benchmark
+	public int dijkstraPath() {
+		query = (query + 1) % QUERIES;
+		return dijkstra().getDijsktraPath(from[query], to[query]).size();
+	}
+
+	@Benchmark
+	public int calculatePathLength() {
+		query = (query + 1) % QUERIES;
+		return board.calculatePathLength(token, to[query]);
+	}
+
+	/**
+	 * Picks a move with the mouse and plays its animation to the end, then
+	 * moves back the next time.
+	 */
+	@Benchmark
+	public int triggerMove() {
+		move = 1 - move;
+		MoveSequence sequence = board.triggerMove(mouseX[move], mouseY[move]);
+		int ticks = 0;
+		while (!sequence.isFinished()) {
+			board.tick();
+			ticks++;
+		}
+		// the finished move is let go of on the next tick
+		board.tick();
+		return ticks;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(PathfindingBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,151 @@
+package cluedo.bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.actions.MoveSequence;
+import cluedo.actions.WarpAction;
+import cluedo.board.Board;
+import cluedo.game.Game;
+import cluedo.game.Player;
+import cluedo.tokens.Token;
+
+/**
+ * Measures drawing a frame of a game into an offscreen image at several
+ * window sizes, and animating many moves at once. The game has no window and
+ * is fixed by its seed, with the dice rolled and the movement range shown.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+	// ticks for a warp to finish and be let go of, see WarpAction
+	private static final int WARP_TICKS = 16;
+
+	/**
+	 * The window drawn into, measured apart from the rest, which does not
+	 * depend on its size. The standard board layout is 1477x985.
+	 */
+	@State(Scope.Thread)
+	public static class Window {
+		@Param({ "800x600", "1477x985", "2560x1440" })
+		public String window;
+
+		private BufferedImage image;
+		private Graphics2D g;
+
+		@Setup
+		public void setup() {
+			int split = window.indexOf('x');
+			image = new BufferedImage(Integer.parseInt(window.substring(0,
+					split)), Integer.parseInt(window.substring(split + 1)),
+					BufferedImage.TYPE_INT_RGB);
+			g = image.createGraphics();
+		}
+
+		@TearDown
+		public void tearDown() {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * The number of moves animated at once, measured apart from drawing.
+	 */
+	@State(Scope.Thread)
+	public static class Moves {
+		@Param({ "1", "12", "120" })
+		public int moves;
+	}
+
+	// benchmark fields
+	private Board board;
+	private Player player;
+	private List<Token> tokens;
+	private Window hand;
+
+	@Setup
+	public void setup() {
+		Game game = new Game(1, 3);
+		board = game.getBoard();
+		player = game.getPlayers()[0];
+		board.setPlayer(player);
+		game.getDice().roll();
+		board.setValidTiles();
+		tokens = new ArrayList<Token>();
+		tokens.addAll(board.getCharacters());
+		tokens.addAll(board.getWeapons());
+
+		// the player draws their hand at the scale of the board layout
+		hand = new Window();
+		hand.window = "1477x985";
+		hand.setup();
+	}
+
+	@TearDown
+	public void tearDown() {
+		hand.tearDown();
+	}
+
+	@Benchmark
+	public BufferedImage boardDraw(Window window) {
+		board.draw(window.g, window.image.getWidth(),
+				window.image.getHeight());
+		return window.image;
+	}
+
+	@Benchmark
+	public BufferedImage playerDraw() {
+		player.draw(hand.g);
+		return hand.image;
+	}
+
+	/**
+	 * Warps tokens onto the tiles they are on, so the board is the same after
+	 * each operation, and ticks the board until the warps are done.
+	 */
+	@Benchmark
+	public int boardTick(Moves moves) {
+		for (int i = 0; i < moves.moves; i++) {
+			Token token = tokens.get(i % tokens.size());
+			board.addMove(new MoveSequence(new WarpAction(token.getLocation()),
+					token));
+		}
+		for (int i = 0; i < WARP_TICKS; i++) {
+			board.tick();
+		}
+		return moves.moves;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(RenderBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,86 @@
+package cluedo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cluedo.board.Board;
+import cluedo.board.Room;
+import cluedo.game.Player;
+import cluedo.tokens.CharacterToken;
+import cluedo.tokens.WeaponToken;
+
+/**
+ * Measures finding the tiles a player can move to from inside each room of
+ * the standard map and of a generated map, see
+ * {@link PathfindingBenchmark}. Each operation warps the player into the
+ * room, so the search from its doors is not cached, and undoes the warp.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomMovesBenchmark {
+
+	@Param({ "classic", "generated" })
+	public String map;
+
+	// the room id, both maps have nine rooms
+	@Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8" })
+	public int room;
+
+	// benchmark fields
+	private Board board;
+	private CharacterToken token;
+	private WeaponToken weapon;
+	private Room target;
+	private int mark;
+
+	@Setup
+	public void setup() {
+		board = PathfindingBenchmark.createBoard(map,
+				new PathfindingBenchmark.FixedDice(PathfindingBenchmark.ROLL));
+		token = board.getCharacters().get(0);
+		weapon = board.getWeapons().get(0);
+		board.setPlayer(new Player(token, token.getName(), 1));
+		for (Room r : board.getRooms()) {
+			if (r.getId() == room) {
+				target = r;
+			}
+		}
+		mark = board.getUndoDepth();
+	}
+
+	@Benchmark
+	public int setValidTiles() {
+		board.warpForSuggest(token, weapon, target);
+		board.setValidTiles();
+		int count = board.getValidTiles().size();
+		board.undo(mark);
+		return count;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(RoomMovesBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -44,4 +44,13 @@ public class AccusationAction implements Action {
 	public WeaponCard getWeapon() {
 		return weapon;
 	}
+
+	/**
+	 * Returns the cards of this accusation as a card bitmask.
+	 * 
+	 * @return The bitmask of the character, room and weapon cards.
+	 */
+	public long getMask() {
+		return character.getMask() | room.getMask() | weapon.getMask();
+	}
 }
@@ -43,4 +43,13 @@ public class SuggestionAction implements Action {
 	public WeaponCard getWeapon() {
 		return weapon;
 	}
+
+	/**
+	 * Returns the cards of this suggestion as a card bitmask.
+	 * 
+	 * @return The bitmask of the character, room and weapon cards.
+	 */
+	public long getMask() {
+		return character.getMask() | room.getMask() | weapon.getMask();
+	}
 }
@@ -0,0 +1,109 @@
+package cluedo.ai;
+
+/**
+ * What the bot decided to do on its turn, with the search statistics behind
+ * the decision.
+ */
+public class BotDecision {
+
+	// kinds of decision
+	public static final int PASS = 0;
+	public static final int SUGGEST = 1;
+	public static final int ACCUSE = 2;
+
+	// decision fields
+	private int type;
+	private long cards;
+	private int room;
+	private int tile;
+	private int visits;
+	private double value;
+	private long iterations;
+	private long elapsed;
+
+	/**
+	 * Setup a new decision.
+	 * 
+	 * @param type
+	 *            The kind of decision.
+	 * @param cards
+	 *            The card bitmask of the suggestion or accusation, 0 to pass.
+	 * @param room
+	 *            The room id to suggest in, or to head for when passing, -1
+	 *            for none.
+	 * @param tile
+	 *            The tile index to move to this turn, -1 to stay or take the
+	 *            secret passage to the room.
+	 * @param visits
+	 *            The number of search iterations that chose this decision.
+	 * @param value
+	 *            The estimated chance of winning after this decision.
+	 * @param iterations
+	 *            The number of search iterations in total.
+	 * @param elapsed
+	 *            The time the search took in nanoseconds.
+	 */
+	public BotDecision(int type, long cards, int room, int tile, int visits,
+			double value, long iterations, long elapsed) {
+		this.type = type;
+		this.cards = cards;
+		this.room = room;
+		this.tile = tile;
+		this.visits = visits;
+		this.value = value;
+		this.iterations = iterations;
+		this.elapsed = elapsed;
+	}
+
+	// get methods below to return the decision and its statistics
+
+	public int getType() {
+		return type;
+	}
+
+	public long getCards() {
+		return cards;
+	}
+
+	public int getRoom() {
+		return room;
+	}
+
+	public int getTile() {
+		return tile;
+	}
+
+	public int getVisits() {
+		return visits;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	public long getIterations() {
+		return iterations;
+	}
+
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Returns how many search iterations were run per second.
+	 * 
+	 * @return The search speed.
+	 */
+	public double getIterationsPerSecond() {
+		return elapsed == 0 ? 0 : iterations * 1e9 / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		String[] names = { "pass", "suggest", "accuse" };
+		return String.format(
+				"%s %x in room %d via tile %d (%d visits, %.3f, %.0f iterations/s)",
+				names[type], cards, room, tile, visits, value,
+				getIterationsPerSecond());
+	}
+}
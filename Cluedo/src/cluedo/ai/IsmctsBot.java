@@ -0,0 +1,547 @@
+package cluedo.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import cluedo.board.RoomReach;
+import cluedo.board.RoutePlanner;
+import cluedo.game.Dice;
+import cluedo.inference.DealCounter;
+import cluedo.inference.Estimate;
+import cluedo.inference.Knowledge;
+import cluedo.inference.Sampler;
+
+/**
+ * A computer player using single observer information set Monte Carlo tree
+ * search. The tree is over the bot's own decisions only: on each of its turns
+ * the bot can accuse, make a suggestion from one of the rooms it can reach or
+ * pass, and after a suggestion it branches on what it was shown. Every
+ * iteration draws a deal that agrees with the bot's knowledge (a
+ * determinization), walks the tree choosing decisions by UCB over the
+ * decisions available in that deal, plays the other players with the
+ * {@link Simulation} default policy and finishes the game with a rollout. A
+ * win scores less the more turns it takes, so the bot does not put off an
+ * accusation it can win with now.
+ * 
+ * The rooms the bot can reach on later turns come from a roll of the dice and
+ * the {@link RoomReach} table of the map, from the room it last suggested in,
+ * so like on the board the suggestions available below the root depend on
+ * the roll. Until it is in a room the bot heads for the room the
+ * {@link RoutePlanner} says it can reach soonest out of those that could still
+ * be the solution, and gets there after the expected number of turns. The
+ * decision names the room and the tile to move to this turn, picked from the
+ * moves the board allows.
+ * 
+ * Every decision has a fixed slot: passing, accusing, then each suggestion by
+ * room, character and weapon rank. A node keeps its edges in an array indexed
+ * by slot and an edge keeps its children in an array indexed by what the bot
+ * was shown, so walking the tree does not box any keys.
+ * 
+ * Search is root parallel: every worker of the fork join pool grows its own
+ * tree with its own random number generator and the root statistics are
+ * summed at the end, so no locks are needed. Search stops at a wall clock
+ * budget or an iteration budget, whichever comes first.
+ */
+public class IsmctsBot {
+
+	// decision slots in the tree, suggestions follow
+	private static final int PASS = 0;
+	private static final int ACCUSE = 1;
+	private static final int SUGGESTIONS = 2;
+
+	// turns after which a rollout is scored as a draw
+	private static final int MAX_ROLLOUT_TURNS = 300;
+
+	// a win is worth less for every turn it takes
+	private static final double DISCOUNT = 0.99;
+
+	// bot fields
+	private int particles;
+	private double exploration;
+	private RoomReach reach;
+	private RoutePlanner routes;
+	private ForkJoinPool pool;
+
+	/**
+	 * Setup a bot that searches on the common fork join pool.
+	 * 
+	 * @param particles
+	 *            The number of deals to draw determinizations from.
+	 * @param exploration
+	 *            The UCB exploration constant.
+	 * @param reach
+	 *            The rooms in reach of every tile of the map.
+	 * @param routes
+	 *            The expected turns to every room of the map.
+	 */
+	public IsmctsBot(int particles, double exploration, RoomReach reach,
+			RoutePlanner routes) {
+		this(particles, exploration, reach, routes, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Setup a bot.
+	 * 
+	 * @param particles
+	 *            The number of deals to draw determinizations from.
+	 * @param exploration
+	 *            The UCB exploration constant.
+	 * @param reach
+	 *            The rooms in reach of every tile of the map.
+	 * @param routes
+	 *            The expected turns to every room of the map.
+	 * @param pool
+	 *            The fork join pool to search on.
+	 */
+	public IsmctsBot(int particles, double exploration, RoomReach reach,
+			RoutePlanner routes, ForkJoinPool pool) {
+		this.particles = particles;
+		this.exploration = exploration;
+		this.reach = reach;
+		this.routes = routes;
+		this.pool = pool;
+	}
+
+	/**
+	 * Decide what to do on a turn.
+	 * 
+	 * @param knowledge
+	 *            The knowledge of the bot.
+	 * @param tile
+	 *            The tile index the bot stands on, a door or room tile if it
+	 *            is in a room.
+	 * @param moves
+	 *            The tile indices the bot can move to this turn.
+	 * @param reachableRooms
+	 *            The card bitmask of the rooms the bot can make a suggestion
+	 *            in this turn.
+	 * @param maxMillis
+	 *            The wall clock budget in milliseconds, 0 for none.
+	 * @param maxIterations
+	 *            The iteration budget, 0 for none. With no wall clock budget
+	 *            the decision only depends on the seed.
+	 * @param seed
+	 *            The seed of the search.
+	 * @return The decision.
+	 * @throws IllegalArgumentException
+	 *             If there is neither a wall clock nor an iteration budget.
+	 */
+	public BotDecision decide(Knowledge knowledge, int tile, int[] moves,
+			long reachableRooms, long maxMillis, long maxIterations, long seed) {
+		if (maxMillis <= 0 && maxIterations <= 0) {
+			throw new IllegalArgumentException("The search needs a budget");
+		}
+		long start = System.nanoTime();
+		long deadline = maxMillis > 0 ? start + maxMillis * 1000000L
+				: Long.MAX_VALUE;
+		Knowledge self = new Knowledge(knowledge);
+		self.propagate();
+
+		// the cards of every suggestion slot
+		int[] characters = DealCounter.cardsOf(self.getTypeMask(0));
+		int[] rooms = DealCounter.cardsOf(self.getTypeMask(1));
+		int[] weapons = DealCounter.cardsOf(self.getTypeMask(2));
+		long[] slots = new long[SUGGESTIONS + rooms.length * characters.length
+				* weapons.length];
+		int slot = SUGGESTIONS;
+		for (int room : rooms) {
+			for (int character : characters) {
+				for (int weapon : weapons) {
+					slots[slot++] = (1L << room) | (1L << character)
+							| (1L << weapon);
+				}
+			}
+		}
+		int perRoom = characters.length * weapons.length;
+
+		// draw the deals with a slice of the budget
+		Estimate deals = new Sampler(self, pool).sample(seed, particles,
+				maxMillis / 4, particles);
+		if (deals.getParticleCount() == 0) {
+			int heading = heading(self, tile);
+			return new BotDecision(BotDecision.PASS, 0, heading,
+					moveToward(moves, heading), 0, 0, 0,
+					System.nanoTime() - start);
+		}
+		long accusation = mostLikely(deals, self.getEnvelope());
+
+		// split the iterations and random streams between the workers
+		int workers = pool.getParallelism();
+		SplittableRandom random = new SplittableRandom(seed);
+		List<Worker> tasks = new ArrayList<Worker>();
+		for (int i = 0; i < workers; i++) {
+			long iterations = maxIterations <= 0 ? Long.MAX_VALUE
+					: maxIterations / workers
+							+ (i < maxIterations % workers ? 1 : 0);
+			tasks.add(new Worker(self, deals, slots, perRoom, tile,
+					reachableRooms, accusation, random.split(), iterations,
+					deadline));
+		}
+		for (Worker task : tasks) {
+			pool.execute(task);
+		}
+
+		// sum up the root statistics of every tree
+		int[] visits = new int[slots.length];
+		double[] rewards = new double[slots.length];
+		long iterations = 0;
+		for (Worker task : tasks) {
+			Edge[] edges = task.join().edges;
+			for (int s = 0; s < edges.length; s++) {
+				if (edges[s] != null) {
+					visits[s] += edges[s].visits;
+					rewards[s] += edges[s].reward;
+				}
+			}
+			iterations += task.iterations;
+		}
+
+		// the most visited decision is the most trusted
+		int best = -1;
+		for (int s = 0; s < slots.length; s++) {
+			if (visits[s] > 0
+					&& (best < 0 || visits[s] > visits[best]
+							|| (visits[s] == visits[best]
+									&& rewards[s] > rewards[best]))) {
+				best = s;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (best < 0 || best == PASS) {
+			int heading = heading(self, tile);
+			return new BotDecision(BotDecision.PASS, 0, heading, moveToward(
+					moves, heading), best < 0 ? 0 : visits[best],
+					best < 0 ? 0 : rewards[best] / visits[best], iterations,
+					elapsed);
+		}
+		double value = rewards[best] / visits[best];
+		if (best == ACCUSE) {
+			return new BotDecision(BotDecision.ACCUSE, accusation, -1, -1,
+					visits[best], value, iterations, elapsed);
+		}
+
+		// walk onto a door of the room, or take the secret passage to it
+		int room = (best - SUGGESTIONS) / perRoom;
+		int target = moveToward(moves, room);
+		if (target >= 0 && routes.getExpectedTurns(target, room) > 0) {
+			target = -1;
+		}
+		return new BotDecision(BotDecision.SUGGEST, slots[best], room, target,
+				visits[best], value, iterations, elapsed);
+	}
+
+	/**
+	 * Returns the room id of the room the bot can reach soonest out of those
+	 * that could still be the solution, -1 if none can be reached.
+	 */
+	private int heading(Knowledge self, int tile) {
+		long roomMask = self.getTypeMask(1);
+		int firstRoom = Long.numberOfTrailingZeros(roomMask);
+		long wanted = self.getEnvelopePossible() & roomMask;
+		return routes.getNearestRoom(tile, (int) ((wanted != 0 ? wanted
+				: roomMask) >>> firstRoom));
+	}
+
+	/**
+	 * Returns the move that leaves the fewest expected turns to a room, -1 if
+	 * there is no move or no room.
+	 */
+	private int moveToward(int[] moves, int room) {
+		int best = -1;
+		double turns = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < moves.length && room >= 0; i++) {
+			double t = routes.getExpectedTurns(moves[i], room);
+			if (t < turns) {
+				best = moves[i];
+				turns = t;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the solution that turns up most often in a set of deals.
+	 */
+	private static long mostLikely(Estimate deals, int envelope) {
+		int[] counts = new int[deals.getTripleCount()];
+		long best = 0;
+		int bestCount = 0;
+		for (int i = 0; i < deals.getParticleCount(); i++) {
+			long solution = deals.getParticle(i, envelope);
+			int count = ++counts[deals.tripleIndex(solution)];
+			if (count > bestCount) {
+				best = solution;
+				bestCount = count;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A point in the tree where the bot decides, reached by the same
+	 * decisions and observations in every deal.
+	 */
+	private static class Node {
+		private Edge[] edges;
+
+		public Node(int slots) {
+			edges = new Edge[slots];
+		}
+	}
+
+	/**
+	 * A decision from a node, with its statistics and the nodes reached
+	 * after each observation.
+	 */
+	private static class Edge {
+		private int slot;
+		private int visits;
+		private int availability;
+		private double reward;
+		private Node[] children;
+
+		public Edge(int slot) {
+			this.slot = slot;
+		}
+
+		public double mean() {
+			return visits == 0 ? 0 : reward / visits;
+		}
+	}
+
+	/**
+	 * One worker growing a tree.
+	 */
+	@SuppressWarnings("serial")
+	private class Worker extends RecursiveTask<Node> {
+		private Knowledge self;
+		private Estimate deals;
+		private long[] slots;
+		private int perRoom;
+		private int tile;
+		private long reachableRooms;
+		private int firstRoom;
+		private long accusation;
+		private SplittableRandom random;
+		private long maxIterations;
+		private long deadline;
+		private long iterations;
+
+		// where the bot is in the current iteration
+		private int room;
+		private int target;
+		private int walk;
+
+		public Worker(Knowledge self, Estimate deals, long[] slots,
+				int perRoom, int tile, long reachableRooms, long accusation,
+				SplittableRandom random, long maxIterations, long deadline) {
+			this.self = self;
+			this.deals = deals;
+			this.slots = slots;
+			this.perRoom = perRoom;
+			this.tile = tile;
+			this.reachableRooms = reachableRooms;
+			// room cards are numbered in room id order
+			this.firstRoom = Long.numberOfTrailingZeros(self.getTypeMask(1));
+			this.accusation = accusation;
+			this.random = random;
+			this.maxIterations = maxIterations;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected Node compute() {
+			Node root = new Node(slots.length);
+			int[] actions = new int[slots.length];
+			long[] hands = new long[self.getNumberPlayers() + 1];
+			List<Edge> path = new ArrayList<Edge>();
+			// only look at the clock every few iterations
+			while (iterations < maxIterations
+					&& ((iterations & 0xF) != 0 || System.nanoTime() < deadline)) {
+				iterate(root, actions, hands, path);
+				iterations++;
+			}
+			return root;
+		}
+
+		/**
+		 * Run one iteration: determinize, select and expand, roll out and
+		 * back up the result.
+		 */
+		private void iterate(Node root, int[] actions, long[] hands,
+				List<Edge> path) {
+			int me = self.getSelf();
+			int particle = random.nextInt(deals.getParticleCount());
+			for (int o = 0; o < hands.length; o++) {
+				hands[o] = deals.getParticle(particle, o);
+			}
+			Simulation sim = new Simulation(hands, self.getTypeMask(0),
+					self.getTypeMask(1), self.getTypeMask(2), me, self, me);
+
+			path.clear();
+			Node node = root;
+			boolean expanded = false;
+			room = -1;
+			walk = -1;
+			while (!expanded && !sim.isOver() && !sim.isEliminated(me)) {
+				// the decisions available in this deal and roll
+				long rooms = node == root ? reachableRooms : roomsInReach(sim);
+				int count = listActions(rooms, actions);
+
+				// expand an untried decision, otherwise pick by UCB
+				Edge edge = null;
+				int untried = 0;
+				for (int i = 0; i < count; i++) {
+					Edge e = node.edges[actions[i]];
+					if (e == null) {
+						untried++;
+					} else {
+						e.availability++;
+					}
+				}
+				if (untried > 0) {
+					int pick = random.nextInt(untried);
+					for (int i = 0; i < count && edge == null; i++) {
+						if (node.edges[actions[i]] == null && pick-- == 0) {
+							edge = new Edge(actions[i]);
+							edge.availability = 1;
+							node.edges[actions[i]] = edge;
+						}
+					}
+					expanded = true;
+				} else {
+					edge = select(node, actions, count);
+				}
+				path.add(edge);
+
+				// a suggestion leaves the bot in its room
+				if (edge.slot >= SUGGESTIONS) {
+					room = (edge.slot - SUGGESTIONS) / perRoom;
+				}
+
+				// play the decision and the other players until our turn
+				int outcome = play(sim, edge.slot, node == root);
+				while (!sim.isOver() && !sim.isEliminated(me)
+						&& sim.getCurrent() != me) {
+					sim.playTurn(random);
+				}
+				if (!expanded) {
+					if (edge.children == null) {
+						// nothing shown, or a player showing one of 3 cards
+						edge.children = new Node[1 + 3 * sim
+								.getNumberPlayers()];
+					}
+					Node child = edge.children[outcome];
+					if (child == null) {
+						child = new Node(slots.length);
+						edge.children[outcome] = child;
+					}
+					node = child;
+				}
+			}
+
+			// finish the game and back up the result
+			int winner = sim.isOver() ? sim.getWinner() : sim.isEliminated(me)
+					? -2 : sim.rollout(random, MAX_ROLLOUT_TURNS);
+			double reward = winner == me ? Math.pow(DISCOUNT, sim.getTurns())
+					: winner == -1 ? 1.0 / sim.getNumberPlayers() : 0;
+			for (Edge edge : path) {
+				edge.visits++;
+				edge.reward += reward;
+			}
+		}
+
+		private Edge select(Node node, int[] actions, int count) {
+			Edge best = null;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				Edge edge = node.edges[actions[i]];
+				double score = edge.mean() + exploration
+						* Math.sqrt(Math.log(edge.availability) / edge.visits);
+				if (score > bestScore) {
+					best = edge;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Play a decision for the bot and move on to the next player.
+		 * 
+		 * @return What the bot observed: 0 for nothing shown, otherwise one
+		 *         plus three times the refuter plus the rank of the shown
+		 *         card in the suggestion.
+		 */
+		private int play(Simulation sim, int slot, boolean atRoot) {
+			int outcome = 0;
+			if (slot == ACCUSE) {
+				long guess = atRoot ? accusation : sim.guess(
+						sim.getKnowledge(sim.getCurrent()), random);
+				outcome = sim.accuse(guess) ? 1 : 0;
+			} else if (slot != PASS) {
+				int observation = sim.suggest(slots[slot], random);
+				if (observation != 0) {
+					int refuter = (observation >>> 6) - 1;
+					int shown = observation & 0x3F;
+					outcome = 1 + 3 * refuter
+							+ Long.bitCount(slots[slot] & ((1L << shown) - 1));
+				}
+			}
+			if (!sim.isOver()) {
+				sim.nextTurn();
+			}
+			return outcome;
+		}
+
+		/**
+		 * Returns the card bitmask of the rooms the bot can enter on a later
+		 * turn. From a room the dice are rolled, otherwise the bot walks to
+		 * the nearest room that could still be the solution, counting the
+		 * turn it started walking on.
+		 */
+		private long roomsInReach(Simulation sim) {
+			if (room >= 0) {
+				int roll = Dice.MIN_RESULT + random.nextInt(6)
+						+ random.nextInt(6);
+				return (long) reach.getRoomsFromRoom(room, roll) << firstRoom;
+			}
+			if (walk < 0) {
+				target = heading(sim.getKnowledge(self.getSelf()), tile);
+				walk = Integer.MAX_VALUE;
+				if (target >= 0) {
+					double turns = routes.getExpectedTurns(tile, target);
+					walk = Math.max(1, (int) Math.ceil(turns) - 1);
+				}
+			}
+			if (--walk > 0) {
+				return 0;
+			}
+			room = target;
+			return 1L << (firstRoom + target);
+		}
+
+		/**
+		 * Write the slots of the decisions available from the given rooms
+		 * into an array.
+		 * 
+		 * @return The number of decisions.
+		 */
+		private int listActions(long rooms, int[] actions) {
+			int count = 0;
+			actions[count++] = PASS;
+			actions[count++] = ACCUSE;
+			for (long r = rooms & self.getTypeMask(1); r != 0; r &= r - 1) {
+				int first = SUGGESTIONS
+						+ (Long.numberOfTrailingZeros(r) - firstRoom) * perRoom;
+				for (int i = 0; i < perRoom; i++) {
+					actions[count++] = first + i;
+				}
+			}
+			return count;
+		}
+	}
+}
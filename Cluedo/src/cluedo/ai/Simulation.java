@@ -0,0 +1,277 @@
+package cluedo.ai;
+
+import java.util.SplittableRandom;
+
+import cluedo.cards.Card;
+import cluedo.inference.Knowledge;
+
+/**
+ * A fast model of the card side of a game used for search. Each simulation
+ * is one determinization: every hand and the solution are known to the
+ * simulation, while every player only acts on their own knowledge table.
+ * Movement is abstracted away, a player who reaches a room on their turn
+ * makes a suggestion there and is otherwise passed over.
+ * 
+ * Suggestions are refuted clockwise from the suggester like
+ * {@link cluedo.game.Game} does, and every player records the result in
+ * their knowledge table. A player whose knowledge is solved accuses and wins.
+ */
+public class Simulation {
+
+	// chance a player following the default policy reaches a room
+	private static final double ENTER_ROOM = 0.5;
+
+	// simulation fields
+	private int numberPlayers;
+	private long[] hands;
+	private long solution;
+	private long[] types;
+	private Knowledge[] knowledge;
+	private int eliminated;
+	private int current;
+	private int winner;
+	private int turns;
+
+	/**
+	 * Setup a simulation of a deal.
+	 * 
+	 * @param hands
+	 *            The card bitmask of every player hand, the solution last.
+	 * @param characterMask
+	 *            The card bitmask of all character cards.
+	 * @param roomMask
+	 *            The card bitmask of all room cards.
+	 * @param weaponMask
+	 *            The card bitmask of all weapon cards.
+	 * @param self
+	 *            The index of the player whose knowledge is given.
+	 * @param selfKnowledge
+	 *            The knowledge of that player, copied. The other players only
+	 *            know their own hands.
+	 * @param current
+	 *            The index of the player whose turn it is.
+	 */
+	public Simulation(long[] hands, long characterMask, long roomMask,
+			long weaponMask, int self, Knowledge selfKnowledge, int current) {
+		numberPlayers = hands.length - 1;
+		this.hands = hands.clone();
+		this.solution = hands[numberPlayers];
+		this.types = new long[] { characterMask, roomMask, weaponMask };
+		knowledge = new Knowledge[numberPlayers];
+		for (int p = 0; p < numberPlayers; p++) {
+			if (p == self) {
+				knowledge[p] = new Knowledge(selfKnowledge);
+			} else {
+				knowledge[p] = new Knowledge(numberPlayers, p, characterMask,
+						roomMask, weaponMask);
+				knowledge[p].addHas(p, hands[p]);
+				knowledge[p].propagate();
+			}
+		}
+		this.current = current;
+		this.winner = -1;
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 *            The simulation to copy.
+	 */
+	public Simulation(Simulation other) {
+		numberPlayers = other.numberPlayers;
+		hands = other.hands;
+		solution = other.solution;
+		types = other.types;
+		knowledge = new Knowledge[numberPlayers];
+		for (int p = 0; p < numberPlayers; p++) {
+			knowledge[p] = new Knowledge(other.knowledge[p]);
+		}
+		eliminated = other.eliminated;
+		current = other.current;
+		winner = other.winner;
+		turns = other.turns;
+	}
+
+	/**
+	 * Make a suggestion for the current player. Every player records the
+	 * result, only the suggester sees the shown card.
+	 * 
+	 * @param suggestion
+	 *            The card bitmask of the suggestion.
+	 * @param random
+	 *            The random number generator a refuter with several matching
+	 *            cards picks one with.
+	 * @return What the suggester saw, see {@link #observation(int, int)}.
+	 */
+	public int suggest(long suggestion, SplittableRandom random) {
+		int refuter = -1;
+		int shown = -1;
+		for (int k = 1; k < numberPlayers; k++) {
+			int p = (current + k) % numberPlayers;
+			long matches = hands[p] & suggestion;
+			if (matches != 0) {
+				refuter = p;
+				shown = pick(matches, random);
+				break;
+			}
+		}
+		for (int p = 0; p < numberPlayers; p++) {
+			boolean saw = p == current || p == refuter;
+			knowledge[p].recordSuggestion(current, suggestion, refuter,
+					saw ? shown : -1);
+		}
+		return observation(refuter, shown);
+	}
+
+	/**
+	 * Make an accusation for the current player. The player wins if it is
+	 * right and is eliminated if it is wrong.
+	 * 
+	 * @param accusation
+	 *            The card bitmask of the accusation.
+	 * @return True if the accusation was right.
+	 */
+	public boolean accuse(long accusation) {
+		if (accusation == solution) {
+			winner = current;
+			return true;
+		}
+		eliminated |= 1 << current;
+		if (Integer.bitCount(eliminated) == numberPlayers - 1) {
+			// the last player left wins
+			winner = Integer.numberOfTrailingZeros(~eliminated);
+		}
+		return false;
+	}
+
+	/**
+	 * Move on to the next player who has not been eliminated.
+	 */
+	public void nextTurn() {
+		turns++;
+		do {
+			current = (current + 1) % numberPlayers;
+		} while ((eliminated & (1 << current)) != 0);
+	}
+
+	/**
+	 * Play the turn of the current player with the default policy and move
+	 * on to the next player. A player who knows the solution accuses, a
+	 * player who reaches a room suggests cards that could still be the
+	 * solution.
+	 * 
+	 * @param random
+	 *            The random number generator for the policy.
+	 */
+	public void playTurn(SplittableRandom random) {
+		Knowledge k = knowledge[current];
+		if (k.isSolved()) {
+			accuse(k.getHas(k.getEnvelope()));
+		} else if (random.nextDouble() < ENTER_ROOM) {
+			int room = pick(types[1], random);
+			suggest(guess(k, random) & ~types[1] | (1L << room), random);
+		}
+		if (winner < 0) {
+			nextTurn();
+		}
+	}
+
+	/**
+	 * Play default turns until someone wins or the turn limit is reached.
+	 * 
+	 * @param random
+	 *            The random number generator for the policy.
+	 * @param maxTurns
+	 *            The most turns to play.
+	 * @return The index of the winner, -1 if the turn limit was reached.
+	 */
+	public int rollout(SplittableRandom random, int maxTurns) {
+		for (int i = 0; i < maxTurns && winner < 0; i++) {
+			playTurn(random);
+		}
+		return winner;
+	}
+
+	/**
+	 * Returns a guess at the solution from a knowledge table: the known
+	 * solution card of each type, or else a random card of the type that
+	 * could still be the solution.
+	 * 
+	 * @param k
+	 *            The knowledge to guess from.
+	 * @param random
+	 *            The random number generator to pick with.
+	 * @return The card bitmask of the guess.
+	 */
+	public long guess(Knowledge k, SplittableRandom random) {
+		long guess = 0;
+		long known = k.getHas(k.getEnvelope());
+		long possible = k.getEnvelopePossible();
+		for (int t = 0; t < types.length; t++) {
+			if ((known & types[t]) != 0) {
+				guess |= known & types[t];
+			} else if ((possible & types[t]) != 0) {
+				guess |= 1L << pick(possible & types[t], random);
+			} else {
+				guess |= 1L << pick(types[t], random);
+			}
+		}
+		return guess;
+	}
+
+	/**
+	 * Returns what a suggester sees of a refutation packed into an int.
+	 * 
+	 * @param refuter
+	 *            The index of the refuting player, -1 for none.
+	 * @param shown
+	 *            The id of the shown card, -1 for none.
+	 * @return The observation, 0 if no one refuted.
+	 */
+	public static int observation(int refuter, int shown) {
+		return refuter < 0 ? 0 : ((refuter + 1) << 6) | shown;
+	}
+
+	private static int pick(long mask, SplittableRandom random) {
+		return Card.pick(mask, random.nextDouble());
+	}
+
+	// get methods below to return the simulation state
+
+	public int getCurrent() {
+		return current;
+	}
+
+	public int getTurns() {
+		return turns;
+	}
+
+	public int getWinner() {
+		return winner;
+	}
+
+	public boolean isEliminated(int player) {
+		return (eliminated & (1 << player)) != 0;
+	}
+
+	public boolean isOver() {
+		return winner >= 0;
+	}
+
+	public Knowledge getKnowledge(int player) {
+		return knowledge[player];
+	}
+
+	public long getSolution() {
+		return solution;
+	}
+
+	public long getTypeMask(int type) {
+		return types[type];
+	}
+
+	public int getNumberPlayers() {
+		return numberPlayers;
+	}
+}
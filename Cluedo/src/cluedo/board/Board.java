@@ -5,7 +5,11 @@ import cluedo.actions.MoveSequence;
 import cluedo.actions.SuggestionAction;
 import cluedo.actions.WarpAction;
 import cluedo.game.Dice;
+import cluedo.game.Game;
+import cluedo.game.GameState;
+import cluedo.game.Zobrist;
 import cluedo.game.Player;
+import cluedo.game.Registry;
 import cluedo.tiles.*;
 import cluedo.tokens.*;
 import cluedo.view.Canvas;
@@ -18,10 +22,15 @@ import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Board {
 	Map<Location, Tile> tiles;
@@ -32,6 +41,10 @@ public class Board {
 	List<WeaponToken> weapons;
 	double scaleTest;
 	private Image boardImage;
+	private BufferedImage scaledImage;
+	private double imageScale;
+	private double layoutWidth;
+	private double layoutHeight;
 	int clkCnt = 0;
 	int mouseX;
 	int mouseY;
@@ -44,6 +57,35 @@ public class Board {
 	boolean tokenMoving = false;
 	List<MoveSequence> moves;
 
+	// tokens and rooms by id
+	private Registry registry;
+
+	// undo records of token moves, see place
+	private long[] undoStack;
+	private int undoSize;
+
+	// running hash of the token positions
+	private Zobrist zobrist;
+
+	// the board compiled for fast searches
+	private TileGraph graph;
+
+	// the map the board was built from, and its size in tiles
+	private CompiledMap map;
+	private int width;
+	private int height;
+
+	// tiles with tokens on them, and the distances from each character
+	private OccupancyGrid occupancy;
+	private DistanceField[] fields;
+	private int[] fieldSources;
+
+	// path finder of large maps, built when first asked for
+	private HierarchicalPathFinder pathFinder;
+
+	// size of the standard board, other maps have their own
+	public static final int WIDTH = 24;
+	public static final int HEIGHT = 25;
 	public static final int SQUARE_SIZE = 36;
 	public static final int GRID_X_OFFSET = 318 + 61;
 	public static final int GRID_Y_OFFSET = 41;
@@ -51,6 +93,9 @@ public class Board {
 	public static final int BOARD_WIDTH = 1477;
 	private static final double BOARD_HEIGHT = 985;
 
+	// maps with more tiles than this search chunks of the board for paths
+	public static final int LARGE_MAP = 64 * 64;
+
 	/**
 	 * Creates the game board. The underlying board for the game logic is a Map
 	 * of Locations(x,y) to Tile objects, while an array of Strings is used to
@@ -64,19 +109,103 @@ public class Board {
 	 * @author Kelly
 	 */
 	public Board(String[] weapons, String[] rooms, Dice dice) {
+		this(weapons, rooms, dice, new SplittableRandom());
+	}
+
+	/**
+	 * Creates the game board, placing the weapons with the given random number
+	 * generator so the board setup can be reproduced from a seed.
+	 * 
+	 * @param weapons
+	 *            An array of the names of the weapons on the board.
+	 * @param rooms
+	 *            An array of the names of the rooms on the board, which must
+	 *            be the rooms of the standard map in order.
+	 * @param random
+	 *            The random number generator for weapon placement.
+	 * @throws IllegalArgumentException
+	 *             If the rooms are not the rooms of the standard map.
+	 */
+	public Board(String[] weapons, String[] rooms, Dice dice,
+			SplittableRandom random) {
+		this(standardMap(rooms), weapons, dice, random);
+	}
+
+	/**
+	 * Returns the standard map, checking it has the given rooms.
+	 */
+	private static CompiledMap standardMap(String[] rooms) {
+		CompiledMap map = CompiledMap.getDefault();
+		if (!Arrays.equals(rooms, map.getRoomNames())) {
+			throw new IllegalArgumentException("The standard map has the rooms "
+					+ Arrays.toString(map.getRoomNames()));
+		}
+		return map;
+	}
+
+	/**
+	 * Creates a game board from any map, with the rooms the map defines. The
+	 * board image is only drawn under the standard map, other maps are drawn
+	 * from their tiles. Every room gets a weapon before any room gets a
+	 * second one, so a map can have fewer rooms than weapons.
+	 * 
+	 * @param map
+	 *            The compiled map.
+	 * @param weapons
+	 *            An array of the names of the weapons on the board.
+	 * @param random
+	 *            The random number generator for weapon placement.
+	 * @throws IllegalArgumentException
+	 *             If the map has no rooms, or more rooms than fit in a card
+	 *             bitmask with the characters and weapons, or does not start
+	 *             each of {@link Game#CHARACTERS} exactly once.
+	 */
+	public Board(CompiledMap map, String[] weapons, Dice dice,
+			SplittableRandom random) {
+		String[] rooms = map.getRoomNames();
+		int cards = Game.CHARACTERS.length + rooms.length + weapons.length;
+		if (rooms.length == 0 || cards > Integer.SIZE) {
+			throw new IllegalArgumentException("Map " + map.getName()
+					+ " has " + rooms.length + " rooms, it needs 1 to "
+					+ (Integer.SIZE - Game.CHARACTERS.length - weapons.length));
+		}
 		moves = new ArrayList<MoveSequence>();
 		validTiles = new HashSet<Tile>();
 		this.dice = dice;
-		this.boardImage = Canvas.loadImage("board.jpg");
+		this.map = map;
+		width = map.getWidth();
+		height = map.getHeight();
+		if (map == CompiledMap.getDefault()) {
+			this.boardImage = Canvas.loadImage("board.jpg");
+		} else {
+			this.boardImage = drawMap(map);
+		}
+		// big maps make the board bigger than the image
+		layoutWidth = Math.max(BOARD_WIDTH, GRID_X_OFFSET + width * SQUARE_SIZE);
+		layoutHeight = Math.max(BOARD_HEIGHT, GRID_Y_OFFSET + height
+				* SQUARE_SIZE);
 		scaleTest = 1;
 
 		// Construct string version of the board
-		boardStrings = BoardParser.parseStringBoard();
+		boardStrings = BoardParser.parseStringBoard(map);
 		// Construct the tile based version of the board
-		roomMap = BoardParser.constructRoomSet();
+		roomMap = BoardParser.constructRoomSet(map);
 
-		tiles = BoardParser.parseTileBoard(roomMap);
-		characters = BoardParser.parseCharacters();
+		tiles = BoardParser.parseTileBoard(map, roomMap);
+		registry = new Registry(Game.CHARACTERS, rooms, weapons);
+		// every character starts on the map, once
+		boolean known = map.getNumberStarts() == registry
+				.getNumberCharacters();
+		for (int i = 0; i < map.getNumberStarts() && known; i++) {
+			String name = map.getStartName(i);
+			known = registry.getId(Registry.CHARACTER, name) >= 0;
+		}
+		if (!known) {
+			throw new IllegalArgumentException("Map " + map.getName()
+					+ " must start each of " + Arrays.toString(Game.CHARACTERS)
+					+ " once");
+		}
+		characters = BoardParser.parseCharacters(map, registry);
 		for (CharacterToken t : characters) {
 			t.setX(t.getLocation().getX() * SQUARE_SIZE + GRID_X_OFFSET);
 			t.setY(t.getLocation().getY() * SQUARE_SIZE + GRID_Y_OFFSET);
@@ -85,16 +214,19 @@ public class Board {
 
 		// init weapontokens
 		ArrayList<String> roomsList = new ArrayList<String>();
-		roomsList.addAll(Arrays.asList(rooms));
 		for (int i = 0; i < weapons.length; i++) {
-			int randomIndex = (int) (Math.random() * roomsList.size());
-			WeaponToken tokenToAdd = new WeaponToken(weapons[i],
+			if (roomsList.isEmpty()) {
+				roomsList.addAll(Arrays.asList(rooms));
+			}
+			int randomIndex = random.nextInt(roomsList.size());
+			int id = registry.getId(Registry.WEAPON, weapons[i]);
+			WeaponToken tokenToAdd = new WeaponToken(weapons[i], id,
+					registry.getNumberCharacters() + id,
 					roomMap.get(roomsList.get(randomIndex)));
 			this.weapons.add(tokenToAdd);
-			Set<RoomTile> tiles = roomMap.get(roomsList.get(randomIndex))
-					.getRoomTiles();
-			tokenToAdd.setRoom(roomMap.get(roomsList.get(randomIndex)));
-			tokenToAdd.setLocation(tiles.iterator().next().getLocation());
+			Room room = roomMap.get(roomsList.get(randomIndex));
+			tokenToAdd.setRoom(room);
+			tokenToAdd.setLocation(room.getTile(tokenToAdd));
 			roomsList.remove(randomIndex);
 		}
 
@@ -103,11 +235,45 @@ public class Board {
 			t.setY(t.getLocation().getY() * SQUARE_SIZE + GRID_Y_OFFSET);
 		}
 
+		// index the tokens and rooms by id
+		for (CharacterToken c : characters) {
+			registry.register(c);
+		}
+		for (WeaponToken w : this.weapons) {
+			registry.register(w);
+		}
+		for (Room r : roomMap.values()) {
+			registry.register(r);
+		}
+		undoStack = new long[64];
+
+		// every token keeps the position hash up to date from now on
+		zobrist = new Zobrist();
+		for (CharacterToken c : characters) {
+			c.setZobrist(zobrist);
+		}
+		for (WeaponToken w : this.weapons) {
+			w.setZobrist(zobrist);
+		}
+		graph = new TileGraph(this.tiles, roomMap.values(), map);
+
+		// every token marks its tile from now on
+		occupancy = new OccupancyGrid(width, height);
+		for (CharacterToken c : characters) {
+			c.setOccupancy(occupancy);
+		}
+		for (WeaponToken w : this.weapons) {
+			w.setOccupancy(occupancy);
+		}
+		// by character id
+		fields = new DistanceField[registry.getNumberCharacters()];
+		fieldSources = new int[registry.getNumberCharacters()];
 	}
 
 	/**
-	 * Uses Dijkstra's algorithm to calculate the shortest possible path to a
-	 * location on the board.
+	 * Calculates the length of the shortest possible path to a location on
+	 * the board, with the path finder of the board, see
+	 * {@link #getPathFinder()}.
 	 * 
 	 * @param token
 	 *            CharacterToken to move
@@ -119,7 +285,7 @@ public class Board {
 	public int calculatePathLength(CharacterToken token, Location loc) {
 		if (!token.inRoom()) {
 			Location charLoc = token.getLocation();
-			Dijkstra d = new Dijkstra(tiles);
+			PathFinder d = getPathFinder();
 			int pathLength = d.findPath(charLoc, loc);
 			// System.out.printf("Path length %d\n", pathLength);
 			return (pathLength);
@@ -127,7 +293,7 @@ public class Board {
 			Room currentRoom = token.getRoom();
 			int pathLength = Integer.MAX_VALUE;
 			for (DoorTile door : currentRoom.getEntrances()) {
-				Dijkstra d = new Dijkstra(tiles);
+				PathFinder d = getPathFinder();
 				int pathFromDoor = d.findPath(door.getLocation(), loc);
 				if (pathFromDoor < pathLength)
 					pathLength = pathFromDoor;
@@ -136,29 +302,130 @@ public class Board {
 		}
 	}
 
+	/**
+	 * Returns a path finder for the board: a new search of every tile on
+	 * boards up to {@link #LARGE_MAP} tiles, and on larger boards a search of
+	 * chunks of the board, which is built once and can be a few steps longer
+	 * than the shortest path.
+	 * 
+	 * @return The path finder.
+	 */
+	public PathFinder getPathFinder() {
+		if (graph.size() <= LARGE_MAP) {
+			return new Dijkstra(tiles, map);
+		}
+		if (pathFinder == null) {
+			pathFinder = new HierarchicalPathFinder(graph, tiles);
+		}
+		return pathFinder;
+	}
+
+	/**
+	 * Starts building the tables of the map on the common fork join pool and
+	 * returns at once, so they are built while the rest of the game loads:
+	 * the rooms in reach of every tile and, on boards up to
+	 * {@link #LARGE_MAP} tiles, the board file with the distance between
+	 * every two tiles.
+	 * 
+	 * @param progress
+	 *            The progress of building the board file, finished at once
+	 *            on larger boards.
+	 * @return The task building the tables, with the board file, or null on
+	 *         larger boards.
+	 */
+	public ForkJoinTask<BoardFile> precompute(final Progress progress) {
+		return ForkJoinPool.commonPool().submit(new Callable<BoardFile>() {
+			@Override
+			public BoardFile call() {
+				RoomReach.forGraph(graph);
+				if (graph.size() > LARGE_MAP) {
+					progress.start(0);
+					progress.finish();
+					return null;
+				}
+				return BoardFile.forMap(map, graph, progress);
+			}
+		});
+	}
+
+	/**
+	 * Finds the tiles the current player can move to with the dice result.
+	 * Tiles with tokens on them block the way.
+	 */
 	public void setValidTiles() {
-		if (dice.getResult() > 0) {
-			if (currentPlayer.getToken().inRoom()) {
-				Room room = currentPlayer.getToken().getRoom();
-				Set<DoorTile> doors = room.getEntrances();
-				validTiles.clear();
-				for (DoorTile door : doors) {
-					Dijkstra d = new Dijkstra(tiles);
-					validTiles.addAll(d.getValidTiles(door.getLocation(),
-							dice.getResult()));
+		validTiles.clear();
+		int roll = dice.getResult();
+		if (roll > 0) {
+			DistanceField field = getDistanceField(currentPlayer.getToken());
+			// by index, so only the tiles in reach are looked up
+			for (int tile = 0; tile < graph.size(); tile++) {
+				int distance = field.getDistance(tile);
+				// leaving a room the player cannot stop on its doors
+				if (distance > 0 && distance <= roll
+						&& !occupancy.isOccupied(tile)) {
+					validTiles.add(tiles.get(new Location(tile % width, tile
+							/ width)));
 				}
-				validTiles.removeAll(doors);
+			}
+		}
+	}
 
-			} else {
-				Location charLoc = currentPlayer.getToken().getLocation();
-				Dijkstra d = new Dijkstra(tiles);
-				validTiles = d.getValidTiles(charLoc, dice.getResult());
+	/**
+	 * Returns the walking distances from where a character is, out of their
+	 * room by its doors if they are in one. The field is kept up to date as
+	 * other tokens move and only searched again when the character moves.
+	 * 
+	 * @param token
+	 *            The character.
+	 * @return The distance field.
+	 */
+	public DistanceField getDistanceField(CharacterToken token) {
+		int id = token.getId();
+		int source = token.inRoom() ? -1 - token.getRoom().getId()
+				: index(token.getLocation());
+		if (fields[id] == null) {
+			fields[id] = new DistanceField(graph, occupancy);
+			occupancy.addListener(fields[id]);
+		} else if (fieldSources[id] == source) {
+			return fields[id];
+		}
+		fieldSources[id] = source;
+		if (source >= 0) {
+			fields[id].reset(new int[] { source }, 1);
+		} else {
+			// the doors of the room, blocked while a token is on them
+			Room room = token.getRoom();
+			int[] doors = new int[room.getEntrances().size()];
+			int count = 0;
+			for (DoorTile door : room.getEntrances()) {
+				doors[count++] = index(door.getLocation());
 			}
-			for (CharacterToken c : characters) {
-				validTiles.remove(tiles.get(c.getLocation()));
+			fields[id].reset(doors, count, true);
+		}
+		return fields[id];
+	}
+
+	/**
+	 * Returns the rooms the current player can make a suggestion in this
+	 * turn, by walking to a door or by taking a secret passage. Call after
+	 * {@link #setValidTiles()}.
+	 * 
+	 * @return The card bitmask of the reachable rooms.
+	 */
+	public long getReachableRooms() {
+		// room cards come after the character cards
+		int offset = registry.getCardId(Registry.ROOM, 0);
+		long rooms = 0;
+		for (Tile t : validTiles) {
+			if (t instanceof DoorTile) {
+				rooms |= 1L << (offset + ((DoorTile) t).getRoom().getId());
 			}
-		} else
-			validTiles.clear();
+		}
+		CharacterToken token = currentPlayer.getToken();
+		if (token.inRoom() && token.getRoom().hasPassage()) {
+			rooms |= 1L << (offset + token.getRoom().getPassage().getId());
+		}
+		return rooms;
 	}
 
 	/**
@@ -169,20 +436,13 @@ public class Board {
 	 * @return True if there is a CharacterToken, false if not.
 	 */
 	public boolean hasTokenOn(Location loc) {
-		for (CharacterToken c : characters) {
-			if (c.getLocation().equals(loc))
-				return true;
-		}
-		for (WeaponToken w : weapons) {
-			if (w.getLocation().equals(loc))
-				return true;
-		}
-		return false;
+		return occupancy.isOccupied(loc);
 	}
 
 	/**
 	 * Moves the player token to the set location on the board, if the
-	 * characterToken is on a door tile it moves the token into the room.
+	 * characterToken is on a door tile it moves the token into the room. Only
+	 * path and door tiles can be moved to. Can be undone.
 	 * 
 	 * @param token
 	 *            CharacterToken to move.
@@ -192,16 +452,135 @@ public class Board {
 	public void movePlayer(CharacterToken token, Location loc) {
 		Tile t = getTile(loc);
 		if (!(t instanceof WallTile) && !hasTokenOn(loc)) {
-			if (token.inRoom()) {
-				token.leaveRoom();
-			}
 			if (t instanceof PathTile) {
-				token.setLocation(loc);
+				place(token, loc, null);
+			} else if (t instanceof DoorTile) {
+				place(token, loc, ((DoorTile) t).getRoom());
 			}
-			if (t instanceof DoorTile) {
-				DoorTile door = (DoorTile) t;
-				token.setLocation(loc);
-				token.setRoom(door.getRoom());
+		}
+	}
+
+	/**
+	 * Moves the suggested character and weapon into a room straight away,
+	 * without animation, the same way a suggestion does. Can be undone.
+	 * 
+	 * @param character
+	 *            The suggested character.
+	 * @param weapon
+	 *            The suggested weapon.
+	 * @param room
+	 *            The room the suggestion is made in.
+	 */
+	public void warpForSuggest(CharacterToken character, WeaponToken weapon,
+			Room room) {
+		if (character.getRoom() != room) {
+			Location loc = room.getFreeTile();
+			if (loc != null) {
+				place(character, loc, room);
+			}
+		}
+		if (weapon.getRoom() != room) {
+			Location loc = room.getFreeTile();
+			if (loc != null) {
+				place(weapon, loc, room);
+			}
+		}
+	}
+
+	/**
+	 * Moves a character through the secret passage of the room they are in
+	 * straight away, without animation. Can be undone.
+	 * 
+	 * @param token
+	 *            The character to move.
+	 * @return True if the character moved.
+	 */
+	public boolean warpViaPassage(CharacterToken token) {
+		if (!token.inRoom() || !token.getRoom().hasPassage()) {
+			return false;
+		}
+		Room destination = token.getRoom().getPassage();
+		Location loc = destination.getFreeTile();
+		if (loc == null) {
+			return false;
+		}
+		place(token, loc, destination);
+		return true;
+	}
+
+	/**
+	 * Puts a token on a location and in a room, pushing an undo record with
+	 * where it was before. Each record packs the old tile index into the top
+	 * 32 bits, then the old room id plus one and the token key (characters
+	 * then weapons) into 16 bits each.
+	 * 
+	 * @param token
+	 *            The token to move.
+	 * @param loc
+	 *            The location to put it on.
+	 * @param room
+	 *            The room to put it in, null for none.
+	 */
+	private void place(Token token, Location loc, Room room) {
+		int key = token.getKey();
+		int oldRoom = token.getRoom() == null ? 0 : token.getRoom().getId() + 1;
+		if (undoSize == undoStack.length) {
+			undoStack = Arrays.copyOf(undoStack, undoSize * 2);
+		}
+		long tile = index(token.getLocation());
+		undoStack[undoSize++] = (tile << Integer.SIZE)
+				| (oldRoom << Short.SIZE) | key;
+		// standing on the tile first makes the room give the token that slot
+		token.leaveRoom();
+		token.setLocation(loc);
+		if (room != null) {
+			token.setRoom(room);
+		}
+	}
+
+	/**
+	 * Returns the Zobrist hash of the token tiles and rooms, kept up to date
+	 * as tokens move.
+	 * 
+	 * @return The position hash.
+	 */
+	public long getHash() {
+		return zobrist.getHash();
+	}
+
+	/**
+	 * Returns the number of token moves that can be undone. Used as a mark to
+	 * undo back to.
+	 * 
+	 * @return The undo stack depth.
+	 */
+	public int getUndoDepth() {
+		return undoSize;
+	}
+
+	/**
+	 * Undo token moves until the undo stack is back to the given depth. Only
+	 * the token tiles and rooms, and so the occupancy and position hash, are
+	 * put back; the player, dice, movement range and moves in progress are
+	 * left as they are.
+	 * 
+	 * @param mark
+	 *            The depth returned by {@link #getUndoDepth()} before the
+	 *            moves were made.
+	 */
+	public void undo(int mark) {
+		while (undoSize > mark) {
+			long record = undoStack[--undoSize];
+			int key = (int) (record & 0xFFFF);
+			int room = (int) ((record >>> Short.SIZE) & 0xFFFF) - 1;
+			int tile = (int) (record >>> Integer.SIZE);
+			int first = registry.getNumberCharacters();
+			Token token = key < first ? registry.getCharacter(key) : registry
+					.getWeapon(key - first);
+			token.leaveRoom();
+			token.setLocation(new Location(tile % width, tile / width));
+			if (room >= 0) {
+				token.setRoom(registry.getRoom(room));
 			}
 		}
 	}
@@ -241,41 +620,38 @@ public class Board {
 		double newSquareSize = SQUARE_SIZE * boardScale;
 		int X = (int) ((mouseX - boardXOffset - newGridX) / newSquareSize);
 		int Y = (int) ((mouseY - boardYOffset - newGridY) / newSquareSize);
-		if (X >= 0 && X <= 23 && Y >= 0 && Y <= 24) {
+		if (X >= 0 && X < width && Y >= 0 && Y < height) {
 			return tiles.get(new Location(X, Y));
 		} else
 			return null;
 	}
 
 	public void draw(Graphics2D g, int width, int height) {
-		double boardXScale = (double) width / BOARD_WIDTH;
-		double boardYScale = (double) height / BOARD_HEIGHT; // Scalar of the
+		double boardXScale = (double) width / layoutWidth;
+		double boardYScale = (double) height / layoutHeight; // Scalar of the
 																// image
 		if (boardXScale < boardYScale) {
 			boardScale = boardXScale; // Scalar of the image
 			boardXOffset = 0;
-			boardYOffset = (int) (height - BOARD_HEIGHT * boardScale) / 2;
+			boardYOffset = (int) (height - layoutHeight * boardScale) / 2;
 		} else {
 			boardScale = boardYScale; // Scalar of the image
-			boardXOffset = (int) (width - BOARD_WIDTH * boardScale) / 2;
+			boardXOffset = (int) (width - layoutWidth * boardScale) / 2;
 			boardYOffset = 0;
 		}
 		AffineTransform transform = new AffineTransform();
 		transform.translate(boardXOffset, boardYOffset);
 		g.setTransform(transform);
-		AffineTransform scaleTransform = AffineTransform.getScaleInstance(
-				boardScale, boardScale);
-
-		AffineTransformOp bilinearScaleOp = new AffineTransformOp(
-				scaleTransform, AffineTransformOp.TYPE_BILINEAR);
 		g.setColor(Color.GRAY);
-		g.fillRect(0, 0, (int) (BOARD_WIDTH * boardScale),
-				(int) (BOARD_HEIGHT * boardScale));
-		g.drawImage(bilinearScaleOp.filter((BufferedImage) boardImage,
-				new BufferedImage(
-						(int) (boardImage.getWidth(null) * boardScale), (int) (boardImage.getHeight(null) * boardScale),
-						((BufferedImage) boardImage).getType())),
-				(int) (BOARD_OFFSET * boardScale), 0, null);
+		g.fillRect(0, 0, (int) (layoutWidth * boardScale),
+				(int) (layoutHeight * boardScale));
+		if (map == CompiledMap.getDefault()) {
+			g.drawImage(getScaledImage(), (int) (BOARD_OFFSET * boardScale), 0,
+					null);
+		} else {
+			g.drawImage(getScaledImage(), (int) (GRID_X_OFFSET * boardScale),
+					(int) (GRID_Y_OFFSET * boardScale), null);
+		}
 
 		g.drawString(mouseX + " " + mouseY, 10, 10);
 		transform.scale(boardScale, boardScale);
@@ -354,6 +730,74 @@ public class Board {
 
 	}
 
+	/**
+	 * Returns the board image at the current scale. Scaling the image is
+	 * slow, so it is only done again when the scale changes.
+	 * 
+	 * @return The scaled image.
+	 */
+	private BufferedImage getScaledImage() {
+		if (scaledImage == null || imageScale != boardScale) {
+			BufferedImage image = (BufferedImage) boardImage;
+			double scale = boardScale;
+			int type = AffineTransformOp.TYPE_BILINEAR;
+			if (map != CompiledMap.getDefault()) {
+				// one pixel per tile, kept sharp
+				scale *= SQUARE_SIZE;
+				type = AffineTransformOp.TYPE_NEAREST_NEIGHBOR;
+			}
+			AffineTransformOp scaleOp = new AffineTransformOp(
+					AffineTransform.getScaleInstance(scale, scale), type);
+			scaledImage = scaleOp.filter(image, new BufferedImage(Math.max(1,
+					(int) (image.getWidth() * scale)), Math.max(1,
+					(int) (image.getHeight() * scale)), image.getType()));
+			imageScale = boardScale;
+		}
+		return scaledImage;
+	}
+
+	/**
+	 * Draws a map with one pixel per tile, for maps without a board image.
+	 * 
+	 * @param map
+	 *            The compiled map.
+	 * @return The map image.
+	 */
+	private static BufferedImage drawMap(CompiledMap map) {
+		BufferedImage image = new BufferedImage(map.getWidth(),
+				map.getHeight(), BufferedImage.TYPE_INT_RGB);
+		for (int tile = 0; tile < map.getWidth() * map.getHeight(); tile++) {
+			int rgb;
+			switch (map.getKind(tile)) {
+			case CompiledMap.PATH:
+				rgb = 0xE6D2A0;
+				break;
+			case CompiledMap.DOOR:
+				rgb = 0x8B5A2B;
+				break;
+			case CompiledMap.ROOM:
+				rgb = 0xB4B48C;
+				break;
+			default:
+				rgb = 0x3C3C3C;
+				break;
+			}
+			image.setRGB(tile % map.getWidth(), tile / map.getWidth(), rgb);
+		}
+		return image;
+	}
+
+	/**
+	 * Queue a move to be animated on the ticks of the clock thread, along
+	 * with the moves already being animated.
+	 * 
+	 * @param move
+	 *            The move.
+	 */
+	public void addMove(MoveSequence move) {
+		moves.add(move);
+	}
+
 	public void tick() {
 		if (!moves.isEmpty()) {
 			for (int i = 0; i < moves.size(); i++) {
@@ -377,26 +821,175 @@ public class Board {
 	 * @return CharacterToken of the requested character.
 	 */
 	public CharacterToken getCharacterToken(String name) {
-		for (CharacterToken c : characters) {
-			if (c.getName().equals(name))
-				return c;
-		}
-		return null;
+		int card = registry.getCardId(name);
+		if (card < 0 || registry.getKind(card) != Registry.CHARACTER)
+			return null;
+		return registry.getCharacter(registry.getId(card));
 	}
 
 	public WeaponToken getWeaponToken(String name) {
-		for (WeaponToken w : weapons) {
-			if (w.getName().equals(name))
-				return w;
-		}
+		int card = registry.getCardId(name);
+		if (card < 0 || registry.getKind(card) != Registry.WEAPON)
+			return null;
+		return registry.getWeapon(registry.getId(card));
+	}
 
-		return null;
+	/**
+	 * Returns the tokens, rooms and cards of this board by id.
+	 * 
+	 * @return The registry.
+	 */
+	public Registry getRegistry() {
+		return registry;
 	}
 
 	public Tile getTile(Location loc) {
 		return tiles.get(loc);
 	}
 
+	/**
+	 * Returns the index of a location in a row major array of the tiles of
+	 * the standard board.
+	 * 
+	 * @param loc
+	 *            Location on the board.
+	 * @return The tile index.
+	 */
+	public static int tileIndex(Location loc) {
+		return loc.getY() * WIDTH + loc.getX();
+	}
+
+	/**
+	 * Returns the index of a location in a row major array of the tiles of
+	 * this board, the index the tile graph uses.
+	 * 
+	 * @param loc
+	 *            Location on the board.
+	 * @return The tile index.
+	 */
+	public int getTileIndex(Location loc) {
+		return index(loc);
+	}
+
+	private int index(Location loc) {
+		return loc.getY() * width + loc.getX();
+	}
+
+	public CompiledMap getMap() {
+		return map;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the width of everything the board draws at a scale of one,
+	 * wider than the standard board on large maps.
+	 * 
+	 * @return The width in pixels.
+	 */
+	public int getLayoutWidth() {
+		return (int) layoutWidth;
+	}
+
+	/**
+	 * Returns the height of everything the board draws at a scale of one.
+	 * 
+	 * @return The height in pixels.
+	 */
+	public int getLayoutHeight() {
+		return (int) layoutHeight;
+	}
+
+	/**
+	 * Takes a snapshot of the token positions and dice on the board together
+	 * with the given player state.
+	 * 
+	 * @param hands
+	 *            The card bitmask of every player hand, the solution last.
+	 * @param eliminated
+	 *            The bitmask of eliminated player indices.
+	 * @param currentPlayer
+	 *            The index of the player whose turn it is.
+	 * @param phase
+	 *            The turn phase flags.
+	 * @return The game state.
+	 */
+	public GameState getState(long[] hands, int eliminated, int currentPlayer,
+			int phase) {
+		int[] characterTiles = new int[registry.getNumberCharacters()];
+		int[] characterRooms = new int[registry.getNumberCharacters()];
+		for (CharacterToken c : characters) {
+			characterTiles[c.getId()] = index(c.getLocation());
+			characterRooms[c.getId()] = c.inRoom() ? c.getRoom().getId() : -1;
+		}
+		int[] weaponTiles = new int[registry.getNumberWeapons()];
+		int[] weaponRooms = new int[registry.getNumberWeapons()];
+		for (WeaponToken w : weapons) {
+			weaponTiles[w.getId()] = index(w.getLocation());
+			weaponRooms[w.getId()] = w.getRoom() != null ? w.getRoom().getId()
+					: -1;
+		}
+		return new GameState(width, characterTiles, characterRooms,
+				weaponTiles, weaponRooms, hands, eliminated, currentPlayer,
+				phase, dice.getResult());
+	}
+
+	public TileGraph getTileGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the board file of the map, with the distances between every two
+	 * tiles and rooms worked out. The file is built the first time a map is
+	 * used and read from then on. Maps with more than
+	 * {@link BoardFile#MAX_WALKABLE} walkable tiles have none.
+	 * 
+	 * @return The board file, null if the map is too large for one.
+	 */
+	public BoardFile getBoardFile() {
+		if (!BoardFile.supports(graph)) {
+			return null;
+		}
+		return BoardFile.forMap(map, graph);
+	}
+
+	/**
+	 * Returns the tiles the current player can move to. Call after
+	 * {@link #setValidTiles()}.
+	 * 
+	 * @return The tile indices of the movement range.
+	 */
+	public int[] getValidMoves() {
+		int[] moves = new int[validTiles.size()];
+		int count = 0;
+		for (Tile t : validTiles) {
+			moves[count++] = index(t.getLocation());
+		}
+		return moves;
+	}
+
+	public Set<Tile> getValidTiles() {
+		return validTiles;
+	}
+
+	public Collection<Room> getRooms() {
+		return roomMap.values();
+	}
+
+	public List<CharacterToken> getCharacters() {
+		return characters;
+	}
+
+	public List<WeaponToken> getWeapons() {
+		return weapons;
+	}
+
 	public void setPlayer(Player player) {
 		currentPlayer = player;
 	}
@@ -407,85 +1000,83 @@ public class Board {
 	}
 
 	public void moveTokensForSuggest(SuggestionAction s) {
-		WeaponToken weapon = getWeaponToken(s.getWeapon().toString());
-		CharacterToken character = getCharacterToken(s.getCharacter()
-				.toString());
+		WeaponToken weapon = registry.getWeapon(registry.getId(s.getWeapon()
+				.getId()));
+		CharacterToken character = registry.getCharacter(registry.getId(s
+				.getCharacter().getId()));
 		Room thisRoom = currentPlayer.getToken().getRoom();
-		Location collisionDetect = new Location(0, 0);
 		// If tokens are not already in the room, move them.
 		if (!character.inRoom() || !character.getRoom().equals(thisRoom)) {
-			Set<RoomTile> roomTiles = thisRoom.getRoomTiles();
-			for (RoomTile roomTile : roomTiles) {
-				if (!hasTokenOn(roomTile.getLocation())) {
-					collisionDetect = roomTile.getLocation();
-					moves.add(new MoveSequence(new WarpAction(roomTile
-							.getLocation()), character));
-					character.leaveRoom();
-					character.setRoom(thisRoom);
-					break;
-				}
+			if (thisRoom.getFreeTile() != null) {
+				character.leaveRoom();
+				character.setRoom(thisRoom);
+				moves.add(new MoveSequence(new WarpAction(thisRoom
+						.getTile(character)), character));
 			}
 		}
 		if (!weapon.getRoom().equals(thisRoom)) {
-			Set<RoomTile> roomTiles = thisRoom.getRoomTiles();
-			for (RoomTile roomTile : roomTiles) {
-				if (!hasTokenOn(roomTile.getLocation())
-						&& !roomTile.getLocation().equals(collisionDetect)) {
-					moves.add(new MoveSequence(new WarpAction(roomTile
-							.getLocation()), weapon));
-					weapon.leaveRoom();
-					weapon.setRoom(thisRoom);
-				}
+			if (thisRoom.getFreeTile() != null) {
+				weapon.leaveRoom();
+				weapon.setRoom(thisRoom);
+				moves.add(new MoveSequence(new WarpAction(thisRoom
+						.getTile(weapon)), weapon));
 			}
 		}
 
 	}
 
 	public MoveSequence triggerMove(int x, int y) {
-		MoveSequence move = null;
 		mouseX = x;
 		mouseY = y;
 		// updateValid tiles
 		setValidTiles();
 		Tile selected = getSelectedTile();
+		if (selected == null)
+			return null;
+		return moveTo(index(selected.getLocation()));
+	}
+
+	/**
+	 * Moves the current player to a tile in their movement range, walking the
+	 * shortest path around the other tokens and into the room if the tile is
+	 * a door. Call after {@link #setValidTiles()}.
+	 * 
+	 * @param tile
+	 *            The tile index to move to.
+	 * @return The move, null if the tile is out of range.
+	 */
+	public MoveSequence moveTo(int tile) {
+		MoveSequence move = null;
+		Tile selected = tiles.get(new Location(tile % width, tile / width));
 		if (selected == null || !validTiles.contains(selected))
 			return null; // can't move here, can't move yet
-		if (!currentPlayer.getToken().inRoom()) {
-			Dijkstra d = new Dijkstra(tiles);
-			List<Tile> path = d.getDijsktraPath(currentPlayer.getToken()
-					.getLocation(), selected.getLocation());
+		// walk the shortest path around the other tokens
+		CharacterToken token = currentPlayer.getToken();
+		DistanceField field = getDistanceField(token);
+		int[] steps = new int[graph.size()];
+		int length = field.getPath(tile, steps);
+		List<Tile> path = new ArrayList<Tile>();
+		for (int i = 0; i < length; i++) {
+			path.add(tiles.get(new Location(steps[i] % width, steps[i]
+					/ width)));
+		}
+		if (!token.inRoom()) {
 			move = new MoveSequence(
-					new MoveAction(selected.getLocation(), path),
-					currentPlayer.getToken());
+					new MoveAction(selected.getLocation(), path), token);
 		} else {
-			Room room = currentPlayer.getToken().getRoom();
-			currentPlayer.getToken().leaveRoom();
-			Set<DoorTile> doors = room.getEntrances();
-			for (DoorTile door : doors) {
-				Dijkstra d = new Dijkstra(tiles);
-				Set<Tile> tilesToCheck = d.getValidTiles(door.getLocation(),
-						dice.getResult());
-				if (tilesToCheck.contains(selected)) {
-					List<Tile> path = d.getDijsktraPath(door.getLocation(),
-							selected.getLocation());
-					move = new MoveSequence(new WarpAction(door.getLocation()),
-							currentPlayer.getToken());
-					move.addAction(new MoveAction(selected.getLocation(), path));
-					break;
-				}
-			}
+			// leave the room by the door the path starts at
+			token.leaveRoom();
+			move = new MoveSequence(new WarpAction(path.get(0).getLocation()),
+					token);
+			move.addAction(new MoveAction(selected.getLocation(), path));
 		}
 		if (selected instanceof DoorTile) {
-			currentPlayer.getToken().setRoom(((DoorTile) selected).getRoom());
-			HashSet<RoomTile> roomTiles = ((DoorTile) selected).getRoom()
-					.getRoomTiles();
-			for (RoomTile t : roomTiles) {
-				if (move != null && !hasTokenOn(t.getLocation())) {
-					move.addAction(new WarpAction(t.getLocation()));
-					break;
-				}
+			Room room = ((DoorTile) selected).getRoom();
+			token.setRoom(room);
+			Location loc = room.getTile(token);
+			if (loc != null) {
+				move.addAction(new WarpAction(loc));
 			}
-
 		}
 		moves.add(move);
 		dice.resetValues();
@@ -494,15 +1085,11 @@ public class Board {
 	}
 
 	public void moveViaPassage(CharacterToken token, Room destination) {
-		token.leaveRoom();
-		Set<RoomTile> roomTiles = destination.getRoomTiles();
-		for (RoomTile roomTile : roomTiles) {
-			if (!hasTokenOn(roomTile.getLocation())) {
-				moves.add(new MoveSequence(new WarpAction(roomTile
-						.getLocation()), token));
-				token.setRoom(destination);
-				break;
-			}
+		if (destination.getFreeTile() != null) {
+			token.leaveRoom();
+			token.setRoom(destination);
+			moves.add(new MoveSequence(new WarpAction(
+					destination.getTile(token)), token));
 		}
 	}
 }
@@ -0,0 +1,646 @@
+package cluedo.board;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A compiled board saved in a binary file: the tile kinds and rooms, the
+ * steps between tiles, the edges blocked by walls between two walkable
+ * tiles, the doors and passages of each room, the walking distance between
+ * every two walkable tiles and the distance between every two rooms, door to
+ * door. The file starts with a version and a hash of the map file it was
+ * built from, and is built again whenever either does not match.
+ * 
+ * The file is memory mapped and read in place, so a large map whose distance
+ * tables take seconds to work out loads in the time it takes to check the
+ * header. Files are kept in the directory named by the cluedo.cache system
+ * property, by default a cluedo directory in the temporary directory, see
+ * {@link #forMap(CompiledMap, TileGraph)}.
+ * 
+ * Building the distance table is a breadth first search from every walkable
+ * tile, split between the threads of the common fork join pool. Each search
+ * writes its own row of the table, so the threads share it without locks.
+ * 
+ * The distance table takes two bytes for every pair of walkable tiles and
+ * the file is read with int offsets, so it has to stay under 2 GB: a map can
+ * have at most {@link #MAX_WALKABLE} walkable tiles, about a 180 by 180 map
+ * of open floor. Larger maps have no board file, see
+ * {@link #supports(TileGraph)}.
+ * 
+ * Layout, all numbers big endian: a 64 byte header of the magic number,
+ * version, map hash, width, height and the number of rooms, walkable tiles,
+ * steps, blocked edges and doors, then the kinds and rooms as a byte per
+ * tile, then as ints the step offsets and steps, the blocked edges as pairs
+ * of tiles, the door offsets and doors of each room, the passages and the
+ * walkable index of every tile, then the tile and room distances as unsigned
+ * shorts.
+ */
+public class BoardFile {
+
+	// file header
+	private static final int MAGIC = 0x434C4246;
+	public static final int VERSION = 1;
+	private static final int HEADER = 64;
+
+	// most walkable tiles, leaving room for the other sections under 2 GB
+	public static final int MAX_WALKABLE = 32000;
+
+	// rows of the distance table a fork join task fills before it splits
+	private static final int THRESHOLD = 16;
+
+	// distance of a tile or room that cannot be reached, in the file
+	private static final char UNREACHABLE = Character.MAX_VALUE;
+
+	// files already opened, by map
+	private static final Map<TileGraph, BoardFile> CACHE =
+			new HashMap<TileGraph, BoardFile>();
+
+	// file fields
+	private final ByteBuffer buffer;
+	private final boolean rebuilt;
+	private final int width;
+	private final int height;
+	private final int rooms;
+	private final int walkable;
+	private final int blocked;
+
+	// section positions
+	private final int kindsAt;
+	private final int roomsAt;
+	private final int offsetsAt;
+	private final int stepsAt;
+	private final int blockedAt;
+	private final int doorOffsetsAt;
+	private final int doorsAt;
+	private final int passagesAt;
+	private final int walkIndexAt;
+	private final int distancesAt;
+	private final int roomDistancesAt;
+
+	/**
+	 * Returns the board file of a map, opening it or building it the first
+	 * time the map is asked for. If the cache directory cannot be written the
+	 * board is built in memory instead.
+	 * 
+	 * @param map
+	 *            The map.
+	 * @param graph
+	 *            The compiled board of the map.
+	 * @return The board file.
+	 * @throws IllegalArgumentException
+	 *             If the map has more than {@link #MAX_WALKABLE} walkable
+	 *             tiles.
+	 */
+	public static BoardFile forMap(CompiledMap map, TileGraph graph) {
+		return forMap(map, graph, new Progress());
+	}
+
+	/**
+	 * Returns the board file of a map, reporting the progress of building
+	 * it, see {@link #forMap(CompiledMap, TileGraph)}.
+	 * 
+	 * @param map
+	 *            The map.
+	 * @param graph
+	 *            The compiled board of the map.
+	 * @param progress
+	 *            The progress of the build, in rows of the distance table.
+	 * @return The board file.
+	 * @throws IllegalArgumentException
+	 *             If the map has more than {@link #MAX_WALKABLE} walkable
+	 *             tiles.
+	 */
+	public static BoardFile forMap(CompiledMap map, TileGraph graph,
+			Progress progress) {
+		if (!supports(graph)) {
+			throw new IllegalArgumentException("The map has too many "
+					+ "walkable tiles for a board file");
+		}
+		synchronized (CACHE) {
+			BoardFile file = CACHE.get(graph);
+			if (file == null) {
+				File directory = new File(System.getProperty("cluedo.cache",
+						new File(System.getProperty("java.io.tmpdir"),
+								"cluedo").getPath()));
+				String name = map.getName();
+				name = name.substring(name.lastIndexOf('/') + 1);
+				if (name.indexOf('.') > 0) {
+					name = name.substring(0, name.indexOf('.'));
+				}
+				try {
+					directory.mkdirs();
+					file = open(new File(directory, name + ".board"),
+							map.getHash(), graph, progress);
+				} catch (IOException e) {
+					file = new BoardFile(build(map.getHash(), graph, progress),
+							true);
+				}
+				CACHE.put(graph, file);
+			}
+			return file;
+		}
+	}
+
+	/**
+	 * Checks if a map is small enough to have a board file.
+	 * 
+	 * @param graph
+	 *            The compiled board of the map.
+	 * @return True if the map has at most {@link #MAX_WALKABLE} walkable
+	 *         tiles.
+	 */
+	public static boolean supports(TileGraph graph) {
+		int walkable = 0;
+		for (int t = 0; t < graph.size(); t++) {
+			if (graph.isWalkable(t) && ++walkable > MAX_WALKABLE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Open a board file, building it again if it is missing, of another
+	 * version or of another map.
+	 * 
+	 * @param file
+	 *            The board file.
+	 * @param hash
+	 *            The hash of the map file, see {@link CompiledMap#getHash()}.
+	 * @param graph
+	 *            The compiled board, to build the file from.
+	 * @return The board file.
+	 * @throws IOException
+	 *             If the file cannot be read or written.
+	 * @throws IllegalArgumentException
+	 *             If the board has to be built and has more than
+	 *             {@link #MAX_WALKABLE} walkable tiles.
+	 */
+	public static BoardFile open(File file, long hash, TileGraph graph)
+			throws IOException {
+		return open(file, hash, graph, new Progress());
+	}
+
+	/**
+	 * Open a board file, reporting the progress of building it, see
+	 * {@link #open(File, long, TileGraph)}.
+	 * 
+	 * @param file
+	 *            The board file.
+	 * @param hash
+	 *            The hash of the map file.
+	 * @param graph
+	 *            The compiled board, to build the file from.
+	 * @param progress
+	 *            The progress of the build, in rows of the distance table.
+	 * @return The board file.
+	 * @throws IOException
+	 *             If the file cannot be read or written.
+	 * @throws IllegalArgumentException
+	 *             If the board has to be built and has more than
+	 *             {@link #MAX_WALKABLE} walkable tiles.
+	 */
+	public static BoardFile open(File file, long hash, TileGraph graph,
+			Progress progress) throws IOException {
+		if (file.length() >= HEADER) {
+			ByteBuffer buffer = map(file);
+			if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+					&& buffer.getLong(8) == hash
+					&& buffer.getInt(16) == graph.getWidth()
+					&& buffer.getInt(20) == graph.getHeight()) {
+				// a file cut short is built again too
+				BoardFile read = new BoardFile(buffer, false);
+				int end = read.roomDistancesAt + 2 * read.rooms * read.rooms;
+				if (end == buffer.capacity()) {
+					return read;
+				}
+			}
+		}
+
+		// write next to the file then move it over, so a reader never sees
+		// half a file
+		File temporary = new File(file.getPath() + ".tmp");
+		ByteBuffer built = build(hash, graph, progress);
+		RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			while (built.hasRemaining()) {
+				channel.write(built);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		return new BoardFile(map(file), true);
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			// the mapping stays valid after the file is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Build the contents of a board file.
+	 * 
+	 * @param hash
+	 *            The hash of the map file.
+	 * @param graph
+	 *            The compiled board.
+	 * @param progress
+	 *            The progress of the build, in rows of the distance table.
+	 * @return The contents, ready to be written.
+	 */
+	static ByteBuffer build(long hash, TileGraph graph, Progress progress) {
+		int width = graph.getWidth();
+		int height = graph.getHeight();
+		int size = graph.size();
+		int rooms = graph.getNumberRooms();
+
+		// number the walkable tiles, and find the walls between two of them
+		int[] walkIndex = new int[size];
+		int[] walkTiles = new int[size];
+		int walkable = 0;
+		int[] blocked = new int[16];
+		int blockedCount = 0;
+		for (int t = 0; t < size; t++) {
+			walkIndex[t] = -1;
+			if (!graph.isWalkable(t)) {
+				continue;
+			}
+			walkIndex[t] = walkable;
+			walkTiles[walkable++] = t;
+			// right then down, so each edge is only seen from one side
+			for (int d = 0; d < 2; d++) {
+				int x = t % width + (d == 0 ? 1 : 0);
+				int y = t / width + (d == 1 ? 1 : 0);
+				int next = y * width + x;
+				if (x < width && y < height && graph.isWalkable(next)
+						&& !isStep(graph, t, next)) {
+					if (blockedCount + 2 > blocked.length) {
+						blocked = Arrays.copyOf(blocked, 2 * blocked.length);
+					}
+					blocked[blockedCount++] = t;
+					blocked[blockedCount++] = next;
+				}
+			}
+		}
+		int doorCount = 0;
+		for (int r = 0; r < rooms; r++) {
+			doorCount += graph.getNumberDoors(r);
+		}
+
+		// distances between every two walkable tiles, a row per tile
+		if (walkable > MAX_WALKABLE) {
+			throw new IllegalArgumentException("The map has too many "
+					+ "walkable tiles for a board file");
+		}
+		char[] distances = new char[walkable * walkable];
+		Arrays.fill(distances, UNREACHABLE);
+		progress.start(walkable);
+		ForkJoinPool.commonPool().invoke(
+				new Rows(graph, walkIndex, walkTiles, walkable, distances,
+						progress, 0, walkable));
+		progress.finish();
+
+		// distances between every two rooms, door to door
+		char[] roomDistances = new char[rooms * rooms];
+		for (int a = 0; a < rooms; a++) {
+			for (int b = 0; b < rooms; b++) {
+				char best = a == b ? 0 : UNREACHABLE;
+				for (int i = 0; i < graph.getNumberDoors(a); i++) {
+					int from = walkIndex[graph.getDoor(a, i)] * walkable;
+					for (int j = 0; j < graph.getNumberDoors(b); j++) {
+						char d = distances[from
+								+ walkIndex[graph.getDoor(b, j)]];
+						if (d < best) {
+							best = d;
+						}
+					}
+				}
+				roomDistances[a * rooms + b] = best;
+			}
+		}
+
+		int steps = graph.getNeighbourStart(size);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + 2 * align(size)
+				+ 4 * (size + 1 + steps + blockedCount + rooms + 1 + doorCount
+						+ rooms + size) + 2 * distances.length + 2
+				* roomDistances.length);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(hash).putInt(width)
+				.putInt(height).putInt(rooms).putInt(walkable).putInt(steps)
+				.putInt(blockedCount / 2).putInt(doorCount);
+		buffer.position(HEADER);
+		for (int t = 0; t < size; t++) {
+			buffer.put(graph.getKind(t));
+		}
+		buffer.position(HEADER + align(size));
+		for (int t = 0; t < size; t++) {
+			buffer.put((byte) graph.getRoom(t));
+		}
+		buffer.position(HEADER + 2 * align(size));
+		for (int t = 0; t <= size; t++) {
+			buffer.putInt(graph.getNeighbourStart(t));
+		}
+		for (int n = 0; n < steps; n++) {
+			buffer.putInt(graph.getNeighbour(n));
+		}
+		for (int i = 0; i < blockedCount; i++) {
+			buffer.putInt(blocked[i]);
+		}
+		int offset = 0;
+		for (int r = 0; r < rooms; r++) {
+			buffer.putInt(offset);
+			offset += graph.getNumberDoors(r);
+		}
+		buffer.putInt(offset);
+		for (int r = 0; r < rooms; r++) {
+			for (int i = 0; i < graph.getNumberDoors(r); i++) {
+				buffer.putInt(graph.getDoor(r, i));
+			}
+		}
+		for (int r = 0; r < rooms; r++) {
+			buffer.putInt(graph.getPassage(r));
+		}
+		for (int t = 0; t < size; t++) {
+			buffer.putInt(walkIndex[t]);
+		}
+		for (char d : distances) {
+			buffer.putChar(d);
+		}
+		for (char d : roomDistances) {
+			buffer.putChar(d);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Fills in the rows of the distance table for a range of walkable tiles,
+	 * splitting the range in half until it is small.
+	 */
+	@SuppressWarnings("serial")
+	private static class Rows extends RecursiveAction {
+		private final TileGraph graph;
+		private final int[] walkIndex;
+		private final int[] walkTiles;
+		private final int walkable;
+		private final char[] distances;
+		private final Progress progress;
+		private final int from;
+		private final int to;
+
+		public Rows(TileGraph graph, int[] walkIndex, int[] walkTiles,
+				int walkable, char[] distances, Progress progress, int from,
+				int to) {
+			this.graph = graph;
+			this.walkIndex = walkIndex;
+			this.walkTiles = walkTiles;
+			this.walkable = walkable;
+			this.distances = distances;
+			this.progress = progress;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Rows(graph, walkIndex, walkTiles, walkable,
+						distances, progress, from, middle), new Rows(graph,
+						walkIndex, walkTiles, walkable, distances, progress,
+						middle, to));
+				return;
+			}
+			int[] queue = new int[walkable];
+			for (int i = from; i < to; i++) {
+				int base = i * walkable;
+				distances[base + i] = 0;
+				queue[0] = walkTiles[i];
+				int head = 0;
+				int tail = 1;
+				while (head < tail) {
+					int u = queue[head++];
+					int d = distances[base + walkIndex[u]];
+					int end = graph.getNeighbourStart(u + 1);
+					for (int n = graph.getNeighbourStart(u); n < end; n++) {
+						int v = walkIndex[graph.getNeighbour(n)];
+						if (distances[base + v] == UNREACHABLE) {
+							distances[base + v] = (char) Math.min(d + 1,
+									UNREACHABLE - 1);
+							queue[tail++] = graph.getNeighbour(n);
+						}
+					}
+				}
+			}
+			progress.advance(to - from);
+		}
+	}
+
+	private static boolean isStep(TileGraph graph, int from, int to) {
+		int end = graph.getNeighbourStart(from + 1);
+		for (int n = graph.getNeighbourStart(from); n < end; n++) {
+			if (graph.getNeighbour(n) == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rounds a section of bytes up to a whole number of ints.
+	 */
+	private static int align(int bytes) {
+		return (bytes + 3) & ~3;
+	}
+
+	/**
+	 * Read the header of a board file and find its sections.
+	 */
+	private BoardFile(ByteBuffer buffer, boolean rebuilt) {
+		this.buffer = buffer;
+		this.rebuilt = rebuilt;
+		width = buffer.getInt(16);
+		height = buffer.getInt(20);
+		rooms = buffer.getInt(24);
+		walkable = buffer.getInt(28);
+		int steps = buffer.getInt(32);
+		blocked = buffer.getInt(36);
+		int doors = buffer.getInt(40);
+		int size = width * height;
+		kindsAt = HEADER;
+		roomsAt = kindsAt + align(size);
+		offsetsAt = roomsAt + align(size);
+		stepsAt = offsetsAt + 4 * (size + 1);
+		blockedAt = stepsAt + 4 * steps;
+		doorOffsetsAt = blockedAt + 8 * blocked;
+		doorsAt = doorOffsetsAt + 4 * (rooms + 1);
+		passagesAt = doorsAt + 4 * doors;
+		walkIndexAt = passagesAt + 4 * rooms;
+		distancesAt = walkIndexAt + 4 * size;
+		roomDistancesAt = distancesAt + 2 * walkable * walkable;
+	}
+
+	/**
+	 * Checks if the file was built when it was opened, rather than read from
+	 * an earlier run.
+	 * 
+	 * @return True if the file was built.
+	 */
+	public boolean isRebuilt() {
+		return rebuilt;
+	}
+
+	public long getHash() {
+		return buffer.getLong(8);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getNumberRooms() {
+		return rooms;
+	}
+
+	public int getNumberWalkable() {
+		return walkable;
+	}
+
+	/**
+	 * Returns the kind of a tile, see {@link TileGraph#getKind(int)}.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The tile kind.
+	 */
+	public byte getKind(int tile) {
+		return buffer.get(kindsAt + tile);
+	}
+
+	/**
+	 * Returns the room of a door or room tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The room id, -1 if the tile is not part of a room.
+	 */
+	public int getRoom(int tile) {
+		return buffer.get(roomsAt + tile);
+	}
+
+	/**
+	 * Returns the position of the first step from a tile, see
+	 * {@link TileGraph#getNeighbourStart(int)}.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The position in the steps.
+	 */
+	public int getNeighbourStart(int tile) {
+		return buffer.getInt(offsetsAt + 4 * tile);
+	}
+
+	public int getNeighbour(int position) {
+		return buffer.getInt(stepsAt + 4 * position);
+	}
+
+	/**
+	 * Returns the number of edges between two walkable tiles next to each
+	 * other that a wall blocks.
+	 * 
+	 * @return The number of blocked edges.
+	 */
+	public int getNumberBlocked() {
+		return blocked;
+	}
+
+	/**
+	 * Returns one end of a blocked edge.
+	 * 
+	 * @param edge
+	 *            The blocked edge.
+	 * @param end
+	 *            0 for the tile above or to the left, 1 for the other.
+	 * @return The tile index.
+	 */
+	public int getBlocked(int edge, int end) {
+		return buffer.getInt(blockedAt + 8 * edge + 4 * end);
+	}
+
+	public int getNumberDoors(int room) {
+		return buffer.getInt(doorOffsetsAt + 4 * (room + 1))
+				- buffer.getInt(doorOffsetsAt + 4 * room);
+	}
+
+	public int getDoor(int room, int i) {
+		return buffer.getInt(doorsAt + 4
+				* (buffer.getInt(doorOffsetsAt + 4 * room) + i));
+	}
+
+	public int getPassage(int room) {
+		return buffer.getInt(passagesAt + 4 * room);
+	}
+
+	/**
+	 * Returns the walking distance between two tiles, with nothing in the way.
+	 * 
+	 * @param from
+	 *            The tile index to start at.
+	 * @param to
+	 *            The tile index to reach.
+	 * @return The number of steps, {@link DistanceField#UNREACHABLE} if either
+	 *         tile cannot be walked on or there is no way between them.
+	 */
+	public int getDistance(int from, int to) {
+		int i = buffer.getInt(walkIndexAt + 4 * from);
+		int j = buffer.getInt(walkIndexAt + 4 * to);
+		if (i < 0 || j < 0) {
+			return DistanceField.UNREACHABLE;
+		}
+		return distance(buffer.getChar(distancesAt + 2 * (i * walkable + j)));
+	}
+
+	/**
+	 * Returns the walking distance between two rooms, from the nearest door
+	 * of one to the nearest door of the other, not counting passages.
+	 * 
+	 * @param from
+	 *            The room id to start in.
+	 * @param to
+	 *            The room id to reach.
+	 * @return The number of steps, {@link DistanceField#UNREACHABLE} if there
+	 *         is no way between them.
+	 */
+	public int getRoomDistance(int from, int to) {
+		return distance(buffer.getChar(roomDistancesAt + 2
+				* (from * rooms + to)));
+	}
+
+	private static int distance(char d) {
+		return d == UNREACHABLE ? DistanceField.UNREACHABLE : d;
+	}
+}
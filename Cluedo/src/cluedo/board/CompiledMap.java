@@ -0,0 +1,433 @@
+package cluedo.board;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A map file read in a single pass into the tile kinds, rooms, doors and
+ * character start positions of every tile, along with the rows of the grid
+ * for display. Maps are loaded from the classpath, so they are found the same
+ * way from a jar as from the source tree, and each map is only read once and
+ * then shared by every board, see {@link #load(String)}. A compiled map is
+ * never changed after it is read.
+ * 
+ * A map file starts with a header, one definition per line:
+ * 
+ * <pre>
+ * size &lt;width&gt; &lt;height&gt;
+ * room &lt;door symbol&gt; &lt;room tile symbol&gt; &lt;name&gt;
+ * passage &lt;door symbol&gt; &lt;door symbol&gt;
+ * start &lt;symbol&gt; &lt;token letter&gt; &lt;character name&gt;
+ * blocked &lt;x&gt; &lt;y&gt; &lt;x&gt; &lt;y&gt;
+ * grid
+ * </pre>
+ * 
+ * Rooms get their ids in the order they are defined. A passage joins two
+ * rooms both ways, a start symbol is a path tile a character starts on and a
+ * blocked line puts a wall between two tiles next to each other that the grid
+ * cannot show. The rows of the grid follow, where a space is a path and any
+ * symbol not defined in the header is a wall, as is anything past the end of
+ * a row.
+ */
+public class CompiledMap {
+
+	// the map of the standard game
+	public static final String DEFAULT = "/maps/parsemap.txt";
+
+	// tile kinds, the same as the compiled board
+	public static final byte WALL = TileGraph.WALL;
+	public static final byte PATH = TileGraph.PATH;
+	public static final byte DOOR = TileGraph.DOOR;
+	public static final byte ROOM = TileGraph.ROOM;
+
+	// a start symbol, in the symbol table
+	private static final int START = 4;
+
+	// maps already read, by resource name
+	private static final Map<String, CompiledMap> CACHE =
+			new HashMap<String, CompiledMap>();
+
+	// map fields
+	private final String name;
+	private final long hash;
+	private final String[] lines;
+	private final int width;
+	private final int height;
+	private final byte[] kinds;
+	private final byte[] rooms;
+	private final String[] roomNames;
+	private final int[] passages;
+	private final long[] blocked;
+	private final int[] startTiles;
+	private final String[] startNames;
+	private final char[] startLetters;
+
+	/**
+	 * Returns a map, reading it the first time it is asked for.
+	 * 
+	 * @param resource
+	 *            The classpath resource name of the map file.
+	 * @return The compiled map.
+	 */
+	public static CompiledMap load(String resource) {
+		synchronized (CACHE) {
+			CompiledMap map = CACHE.get(resource);
+			if (map == null) {
+				map = read(resource);
+				CACHE.put(resource, map);
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * Returns the map of the standard game.
+	 * 
+	 * @return The compiled map.
+	 */
+	public static CompiledMap getDefault() {
+		return load(DEFAULT);
+	}
+
+	private static CompiledMap read(String resource) {
+		InputStream in = CompiledMap.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new RuntimeException("Unable to find map: " + resource);
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, StandardCharsets.UTF_8));
+			try {
+				return new CompiledMap(resource, reader);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to load map: " + resource, e);
+		}
+	}
+
+	/**
+	 * Compile a map, reading it line by line.
+	 * 
+	 * @param name
+	 *            The name of the map, its resource name if it has one.
+	 * @param reader
+	 *            The map file.
+	 * @throws IOException
+	 *             If the map cannot be read.
+	 * @throws IllegalArgumentException
+	 *             If the map is not well formed.
+	 */
+	public CompiledMap(String name, BufferedReader reader) throws IOException {
+		this.name = name;
+		// 64 bit FNV-1a hash of the lines, to tell when the map has changed
+		long hash = 0xcbf29ce484222325L;
+
+		// the header, with the kind and index of each symbol in a table
+		int[] symbols = new int[128];
+		List<String> roomList = new ArrayList<String>();
+		List<Integer> passageList = new ArrayList<Integer>();
+		List<String> startList = new ArrayList<String>();
+		StringBuilder letters = new StringBuilder();
+		List<Integer> blockedList = new ArrayList<Integer>();
+		int width = 0;
+		int height = 0;
+		int number = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			hash = hash(hash, line);
+			number++;
+			String[] words = line.trim().split(" +", 4);
+			if (words[0].equals("grid")) {
+				break;
+			}
+			try {
+				if (words[0].isEmpty()) {
+					continue;
+				} else if (words[0].equals("size")) {
+					width = Integer.parseInt(words[1]);
+					height = Integer.parseInt(words[2]);
+				} else if (words[0].equals("room")) {
+					if (roomList.size() == Byte.MAX_VALUE) {
+						throw new IllegalArgumentException("Too many rooms");
+					}
+					define(symbols, words[1], (DOOR << 8) | roomList.size());
+					define(symbols, words[2], (ROOM << 8) | roomList.size());
+					roomList.add(words[3]);
+				} else if (words[0].equals("passage")) {
+					passageList.add(door(symbols, words[1]));
+					passageList.add(door(symbols, words[2]));
+				} else if (words[0].equals("start")) {
+					if (startList.contains(words[3])) {
+						throw new IllegalArgumentException(words[3]
+								+ " starts twice");
+					}
+					define(symbols, words[1], (START << 8) | startList.size());
+					letters.append(words[2].charAt(0));
+					startList.add(words[3]);
+				} else if (words[0].equals("blocked")) {
+					words = line.trim().split(" +");
+					for (int i = 1; i <= 4; i++) {
+						blockedList.add(Integer.parseInt(words[i]));
+					}
+				} else {
+					throw new IllegalArgumentException(words[0]);
+				}
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Bad map " + name
+						+ " line " + number + ": " + line, e);
+			}
+		}
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Map " + name + " has no size");
+		}
+		this.width = width;
+		this.height = height;
+
+		// one pass over the grid, everything not on a row is wall
+		lines = new String[height];
+		Arrays.fill(lines, "");
+		kinds = new byte[width * height];
+		rooms = new byte[width * height];
+		Arrays.fill(rooms, (byte) -1);
+		int[] starts = new int[startList.size()];
+		Arrays.fill(starts, -1);
+		for (int y = 0; y < height && (line = reader.readLine()) != null; y++) {
+			hash = hash(hash, line);
+			lines[y] = line;
+			int row = y * width;
+			for (int x = 0; x < Math.min(line.length(), width); x++) {
+				char c = line.charAt(x);
+				int symbol = c < symbols.length ? symbols[c] : 0;
+				if (c == ' ') {
+					kinds[row + x] = PATH;
+				} else if ((symbol >> 8) == START) {
+					if (starts[symbol & 0xFF] >= 0) {
+						throw new IllegalArgumentException("Map " + name
+								+ " starts " + c + " twice");
+					}
+					kinds[row + x] = PATH;
+					starts[symbol & 0xFF] = row + x;
+				} else if (symbol != 0) {
+					kinds[row + x] = (byte) (symbol >> 8);
+					rooms[row + x] = (byte) symbol;
+				}
+			}
+		}
+		this.hash = hash;
+		roomNames = roomList.toArray(new String[roomList.size()]);
+
+		// starts in the order they appear on the map, every one placed
+		for (int i = 0; i < starts.length; i++) {
+			if (starts[i] < 0) {
+				throw new IllegalArgumentException("Map " + name
+						+ " does not place the start of " + startList.get(i));
+			}
+		}
+		startTiles = new int[starts.length];
+		startNames = new String[starts.length];
+		startLetters = new char[starts.length];
+		int[] order = starts.clone();
+		Arrays.sort(order);
+		for (int n = 0; n < order.length; n++) {
+			int start = indexOf(starts, order[n]);
+			startTiles[n] = order[n];
+			startNames[n] = startList.get(start);
+			startLetters[n] = letters.charAt(start);
+		}
+
+		passages = new int[roomNames.length];
+		Arrays.fill(passages, -1);
+		for (int i = 0; i < passageList.size(); i += 2) {
+			passages[passageList.get(i)] = passageList.get(i + 1);
+			passages[passageList.get(i + 1)] = passageList.get(i);
+		}
+		// blocked steps sorted by their lower tile, for a binary search
+		blocked = new long[blockedList.size() / 4];
+		for (int i = 0; i < blocked.length; i++) {
+			int from = blockedList.get(4 * i + 1) * width
+					+ blockedList.get(4 * i);
+			int to = blockedList.get(4 * i + 3) * width
+					+ blockedList.get(4 * i + 2);
+			blocked[i] = step(from, to);
+		}
+		Arrays.sort(blocked);
+	}
+
+	private static long step(int from, int to) {
+		return ((long) Math.min(from, to) << Integer.SIZE) | Math.max(from, to);
+	}
+
+	private static long hash(long hash, String line) {
+		for (int i = 0; i <= line.length(); i++) {
+			char c = i < line.length() ? line.charAt(i) : '\n';
+			hash = (hash ^ c) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Put a symbol in the symbol table, once.
+	 */
+	private static void define(int[] symbols, String word, int symbol) {
+		char c = word.charAt(0);
+		if (word.length() != 1 || c >= symbols.length || c == ' '
+				|| symbols[c] != 0) {
+			throw new IllegalArgumentException("Bad symbol " + word);
+		}
+		symbols[c] = symbol;
+	}
+
+	/**
+	 * Returns the room id of a door symbol.
+	 */
+	private static int door(int[] symbols, String word) {
+		char c = word.charAt(0);
+		if (c >= symbols.length || (symbols[c] >> 8) != DOOR) {
+			throw new IllegalArgumentException("Not a door " + word);
+		}
+		return symbols[c] & 0xFF;
+	}
+
+	private static int indexOf(int[] values, int value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns a hash of the contents of the map file.
+	 * 
+	 * @return The 64 bit FNV-1a hash of the lines, each ending in a newline.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the rows of the grid, for display.
+	 * 
+	 * @return A copy of the rows.
+	 */
+	public String[] getLines() {
+		return lines.clone();
+	}
+
+	/**
+	 * Returns the kind of a tile.
+	 * 
+	 * @param tile
+	 *            The tile index, y * width + x.
+	 * @return {@link #WALL}, {@link #PATH}, {@link #DOOR} or {@link #ROOM}.
+	 */
+	public byte getKind(int tile) {
+		return kinds[tile];
+	}
+
+	/**
+	 * Returns the room a door or room tile belongs to.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The room id, -1 for wall and path tiles.
+	 */
+	public int getRoom(int tile) {
+		return rooms[tile];
+	}
+
+	/**
+	 * Returns the name of the room a door or room tile belongs to.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The room name, null for wall and path tiles.
+	 */
+	public String getRoomName(int tile) {
+		return rooms[tile] < 0 ? null : roomNames[rooms[tile]];
+	}
+
+	public int getNumberRooms() {
+		return roomNames.length;
+	}
+
+	/**
+	 * Returns the room names in id order.
+	 * 
+	 * @return A copy of the room names.
+	 */
+	public String[] getRoomNames() {
+		return roomNames.clone();
+	}
+
+	/**
+	 * Returns the room the secret passage of a room leads to.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @return The destination room id, -1 if the room has no passage.
+	 */
+	public int getPassage(int room) {
+		return passages[room];
+	}
+
+	/**
+	 * Checks if a wall the grid cannot show stands between two tiles next to
+	 * each other.
+	 * 
+	 * @param from
+	 *            One tile index.
+	 * @param to
+	 *            The other tile index.
+	 * @return True if the step between them is blocked.
+	 */
+	public boolean isBlocked(int from, int to) {
+		return blocked.length > 0
+				&& Arrays.binarySearch(blocked, step(from, to)) >= 0;
+	}
+
+	/**
+	 * Returns the number of characters with a start position, in the order
+	 * they appear on the map.
+	 * 
+	 * @return The number of start positions.
+	 */
+	public int getNumberStarts() {
+		return startTiles.length;
+	}
+
+	public int getStartTile(int start) {
+		return startTiles[start];
+	}
+
+	public String getStartName(int start) {
+		return startNames[start];
+	}
+
+	public char getStartLetter(int start) {
+		return startLetters[start];
+	}
+}
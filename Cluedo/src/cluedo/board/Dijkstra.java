@@ -12,17 +12,28 @@ import cluedo.tiles.RoomTile;
 import cluedo.tiles.Tile;
 import cluedo.tiles.WallTile;
 
-public class Dijkstra {
+public class Dijkstra implements PathFinder {
 	Map<Tile, DijkstraNode> nodeMap;
 	Map<Location, Tile> tileMap;
 	Set<DijkstraNode> unvisitedNodes;
 	Set<DijkstraNode> visitedNodes;
+	CompiledMap map;
 
 	/**
 	 * Initialises the necessary maps for performing the Dijkstra pathfinding check.
 	 * @param tiles A map of Locations to tiles.
 	 */
 	public Dijkstra(Map<Location, Tile> tiles) {
+		this(tiles, CompiledMap.getDefault());
+	}
+
+	/**
+	 * Initialises the necessary maps for performing the Dijkstra pathfinding check.
+	 * @param tiles A map of Locations to tiles.
+	 * @param map The compiled map the tiles were built from.
+	 */
+	public Dijkstra(Map<Location, Tile> tiles, CompiledMap map) {
+		this.map = map;
 		nodeMap = new HashMap<Tile, DijkstraNode>();
 		unvisitedNodes = new HashSet<DijkstraNode>();
 		visitedNodes = new HashSet<DijkstraNode>();
@@ -138,34 +149,12 @@ public class Dijkstra {
 		if (inYRange(start.getY() + 1))
 			validLocations.add(new Location(start.getX(), start.getY() + 1)); // down
 		
-		//SPECIAL CASES! Removing two neighbouring nodes from the algorithm to preserve walls on corner cases.
-		if (start.equals(new Location(16,5))){
-			validLocations.remove(new Location(17,5));
+		//SPECIAL CASES! Removing neighbouring nodes to preserve walls on corner cases.
+		for (int i = validLocations.size() - 1; i >= 0; i--) {
+			if (isBlocked(start, validLocations.get(i)))
+				validLocations.remove(i);
 		}
 		
-		if (start.equals(new Location(17,5))){
-			validLocations.remove(new Location(16,5));
-		}
-		
-		if (start.equals(new Location(6,3))){
-			validLocations.remove(new Location(7,3));
-		}
-		
-		if (start.equals(new Location(7,3))){
-			validLocations.remove(new Location(6,3));
-
-		}
-		
-		if (start.equals(new Location(4,18))){
-			validLocations.remove(new Location(4,19));
-
-		}
-		if (start.equals(new Location(4,19))){
-			validLocations.remove(new Location(4,18));
-
-		}
-		
-		
 		for (Location loc : validLocations) {
 			Tile t = tileMap.get(loc); //if a neighbouring tile has not been visited and is not a wall, add it to the list.
 			if (!(t instanceof WallTile || t instanceof RoomTile)
@@ -175,16 +164,28 @@ public class Dijkstra {
 		return neighbours;
 	}
 
+	/**
+	 * Checks if there is a wall between two adjacent tiles that the tiles
+	 * themselves do not show, on the corners of rooms.
+	 * @param from One location.
+	 * @param to The adjacent location.
+	 * @return True if the step between them is blocked.
+	 */
+	public boolean isBlocked(Location from, Location to) {
+		return map.isBlocked(from.getY() * map.getWidth() + from.getX(),
+				to.getY() * map.getWidth() + to.getX());
+	}
+
 	/**
 	 * Makes sure the location is within bounds of the board.
 	 * @param check Integer to check.
 	 * @return True if in bounds of the board, false if not.
 	 */
 	public boolean inXRange(int check) {
-		return (check >= 0 && check <= 23);
+		return (check >= 0 && check < map.getWidth());
 	}
 	public boolean inYRange(int check) {
-		return (check >= 0 && check <= 24);
+		return (check >= 0 && check < map.getHeight());
 	}
 
 	/**
@@ -0,0 +1,350 @@
+package cluedo.board;
+
+import java.util.Arrays;
+
+/**
+ * The walking distance from a set of source tiles to every tile of the board,
+ * where tiles with a token on them block the way. The sources are never
+ * blocked, so a character's own tile does not block their search. Doors out
+ * of a room can be given as sources that a token does block: a taken door
+ * stops being a source until the token leaves it again.
+ * 
+ * The distances are kept up to date as tokens move instead of being searched
+ * again. When a tile is freed the shorter distances through it are spread
+ * out from it. When a tile is blocked the tiles whose every shortest path ran
+ * through it are found level by level, and only those are searched again
+ * from the unaffected tiles around them.
+ */
+public class DistanceField {
+
+	// distance of a tile that cannot be reached
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	// field fields
+	private final TileGraph graph;
+	private final OccupancyGrid occupancy;
+	private final int[] distances;
+	private final boolean[] sources;
+	private int[] sourceList;
+	private int sourceCount;
+	private boolean blockable;
+
+	// repair arrays, reused between repairs
+	private final int[] queue;
+	private final boolean[] affected;
+	private final int[] affectedList;
+	private long[] seeds;
+
+	/**
+	 * Setup a field with no sources.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 * @param occupancy
+	 *            The tiles with tokens on them.
+	 */
+	public DistanceField(TileGraph graph, OccupancyGrid occupancy) {
+		this.graph = graph;
+		this.occupancy = occupancy;
+		int size = graph.size();
+		distances = new int[size];
+		sources = new boolean[size];
+		sourceList = new int[0];
+		// a tile can be queued once from each neighbour while repairing
+		queue = new int[4 * size];
+		affected = new boolean[size];
+		affectedList = new int[size];
+		seeds = new long[16];
+		Arrays.fill(distances, UNREACHABLE);
+	}
+
+	/**
+	 * Search from new sources, from scratch.
+	 * 
+	 * @param tiles
+	 *            The source tile indices.
+	 * @param count
+	 *            The number of sources.
+	 */
+	public void reset(int[] tiles, int count) {
+		reset(tiles, count, false);
+	}
+
+	/**
+	 * Search from new sources, from scratch.
+	 * 
+	 * @param tiles
+	 *            The source tile indices.
+	 * @param count
+	 *            The number of sources.
+	 * @param blockable
+	 *            True if a token on a source blocks it, like on the doors of
+	 *            a room.
+	 */
+	public void reset(int[] tiles, int count, boolean blockable) {
+		for (int i = 0; i < sourceCount; i++) {
+			sources[sourceList[i]] = false;
+		}
+		sourceList = Arrays.copyOf(tiles, count);
+		sourceCount = count;
+		this.blockable = blockable;
+		Arrays.fill(distances, UNREACHABLE);
+		int tail = 0;
+		for (int i = 0; i < count; i++) {
+			if (blockable && occupancy.isOccupied(tiles[i])) {
+				continue;
+			}
+			sources[tiles[i]] = true;
+			if (distances[tiles[i]] != 0) {
+				distances[tiles[i]] = 0;
+				queue[tail++] = tiles[i];
+			}
+		}
+		spread(0, tail);
+	}
+
+	/**
+	 * Repair the distances after a token is put on a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 */
+	public void block(int tile) {
+		if (sources[tile]) {
+			if (!blockable) {
+				return;
+			}
+			// a taken door is no way out, repair as for any other tile
+			sources[tile] = false;
+		}
+		if (distances[tile] == UNREACHABLE) {
+			return;
+		}
+
+		// find the tiles left with no shortest path, level by level
+		int count = 0;
+		affected[tile] = true;
+		affectedList[count++] = tile;
+		int head = 0;
+		int tail = children(tile, 0);
+		while (head < tail) {
+			int u = queue[head++];
+			if (affected[u] || hasParent(u)) {
+				continue;
+			}
+			affected[u] = true;
+			affectedList[count++] = u;
+			tail = children(u, tail);
+		}
+
+		// search them again from the unaffected tiles around them
+		int seedCount = 0;
+		for (int i = 0; i < count; i++) {
+			int u = affectedList[i];
+			distances[u] = UNREACHABLE;
+		}
+		for (int i = 0; i < count; i++) {
+			int u = affectedList[i];
+			if (!isOpen(u)) {
+				continue;
+			}
+			int best = UNREACHABLE;
+			int end = graph.getNeighbourStart(u + 1);
+			for (int n = graph.getNeighbourStart(u); n < end; n++) {
+				int v = graph.getNeighbour(n);
+				if (!affected[v] && isOpen(v) && distances[v] != UNREACHABLE) {
+					best = Math.min(best, distances[v] + 1);
+				}
+			}
+			if (best != UNREACHABLE) {
+				if (seedCount == seeds.length) {
+					seeds = Arrays.copyOf(seeds, 2 * seedCount);
+				}
+				seeds[seedCount++] = ((long) best << Integer.SIZE) | u;
+			}
+		}
+		Arrays.sort(seeds, 0, seedCount);
+		merge(seedCount);
+		for (int i = 0; i < count; i++) {
+			affected[affectedList[i]] = false;
+		}
+	}
+
+	/**
+	 * Repair the distances after a token leaves a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 */
+	public void unblock(int tile) {
+		if (blockable && !sources[tile] && isSource(tile)) {
+			// a freed door is a way out again
+			sources[tile] = true;
+			distances[tile] = 0;
+			queue[0] = tile;
+			spread(0, 1);
+			return;
+		}
+		if (sources[tile] || !isOpen(tile)) {
+			return;
+		}
+		int best = distances[tile];
+		int end = graph.getNeighbourStart(tile + 1);
+		for (int n = graph.getNeighbourStart(tile); n < end; n++) {
+			int v = graph.getNeighbour(n);
+			if (isOpen(v) && distances[v] != UNREACHABLE) {
+				best = Math.min(best, distances[v] + 1);
+			}
+		}
+		if (best < distances[tile]) {
+			distances[tile] = best;
+			queue[0] = tile;
+			spread(0, 1);
+		}
+	}
+
+	/**
+	 * Returns the distance to a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The number of steps from the nearest source,
+	 *         {@link #UNREACHABLE} if the tile cannot be reached.
+	 */
+	public int getDistance(int tile) {
+		return distances[tile];
+	}
+
+	/**
+	 * Write a shortest path from a source to a tile into an array.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @param path
+	 *            The array to write the tile indices into, source first.
+	 * @return The number of tiles in the path, 0 if the tile cannot be
+	 *         reached.
+	 */
+	public int getPath(int tile, int[] path) {
+		if (distances[tile] == UNREACHABLE) {
+			return 0;
+		}
+		int length = distances[tile] + 1;
+		path[length - 1] = tile;
+		for (int k = length - 2; k >= 0; k--) {
+			int end = graph.getNeighbourStart(tile + 1);
+			for (int n = graph.getNeighbourStart(tile); n < end; n++) {
+				int v = graph.getNeighbour(n);
+				if (distances[v] == k) {
+					tile = v;
+					break;
+				}
+			}
+			path[k] = tile;
+		}
+		return length;
+	}
+
+	/**
+	 * Checks if a tile can be walked on: a path or door tile with no token
+	 * on it, or a source.
+	 */
+	private boolean isOpen(int tile) {
+		return sources[tile] || graph.isWalkable(tile)
+				&& !occupancy.isOccupied(tile);
+	}
+
+	/**
+	 * Checks if a tile is one of the sources given, blocked or not.
+	 */
+	private boolean isSource(int tile) {
+		for (int i = 0; i < sourceCount; i++) {
+			if (sourceList[i] == tile) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a tile is still one step on from a tile that is not affected.
+	 */
+	private boolean hasParent(int tile) {
+		int end = graph.getNeighbourStart(tile + 1);
+		for (int n = graph.getNeighbourStart(tile); n < end; n++) {
+			int v = graph.getNeighbour(n);
+			if (!affected[v] && distances[v] == distances[tile] - 1
+					&& isOpen(v)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queue the tiles one step on from a tile along shortest paths.
+	 * 
+	 * @return The new end of the queue.
+	 */
+	private int children(int tile, int tail) {
+		int end = graph.getNeighbourStart(tile + 1);
+		for (int n = graph.getNeighbourStart(tile); n < end; n++) {
+			int v = graph.getNeighbour(n);
+			if (!affected[v] && distances[v] == distances[tile] + 1) {
+				queue[tail++] = v;
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Breadth first search from the queued tiles, lowering distances.
+	 */
+	private void spread(int head, int tail) {
+		while (head < tail) {
+			int u = queue[head++];
+			int end = graph.getNeighbourStart(u + 1);
+			for (int n = graph.getNeighbourStart(u); n < end; n++) {
+				int v = graph.getNeighbour(n);
+				if (distances[u] + 1 < distances[v] && isOpen(v)) {
+					distances[v] = distances[u] + 1;
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Search the affected tiles from sorted seeds, taking the nearer of the
+	 * next seed and the next queued tile so tiles are settled in order of
+	 * distance.
+	 */
+	private void merge(int seedCount) {
+		int next = 0;
+		int head = 0;
+		int tail = 0;
+		while (next < seedCount || head < tail) {
+			if (next < seedCount
+					&& (head == tail || (int) (seeds[next] >>> Integer.SIZE)
+							<= distances[queue[head]])) {
+				int u = (int) seeds[next];
+				int d = (int) (seeds[next++] >>> Integer.SIZE);
+				if (d < distances[u]) {
+					distances[u] = d;
+					queue[tail++] = u;
+				}
+				continue;
+			}
+			int u = queue[head++];
+			int end = graph.getNeighbourStart(u + 1);
+			for (int n = graph.getNeighbourStart(u); n < end; n++) {
+				int v = graph.getNeighbour(n);
+				if (affected[v] && distances[u] + 1 < distances[v]
+						&& isOpen(v)) {
+					distances[v] = distances[u] + 1;
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+}
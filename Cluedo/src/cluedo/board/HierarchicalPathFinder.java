@@ -0,0 +1,502 @@
+package cluedo.board;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import cluedo.tiles.Tile;
+
+/**
+ * Finds paths on large maps by searching a small graph of chunks of the
+ * board instead of every tile. The board is cut into square clusters, and
+ * wherever two clusters can be walked between along their border an entrance
+ * tile is picked on each side, in the middle of short stretches and at both
+ * ends of long ones. The walking distances between the entrances of each
+ * cluster, staying inside it, are worked out once when the finder is built.
+ * 
+ * A search joins the start and end tiles to the entrances of their clusters,
+ * runs A* over the entrances and then fills in the tiles of each step with a
+ * search inside one cluster. The paths found are always walkable but can be a
+ * few steps longer than the shortest, as they pass through entrance tiles.
+ * Everything the finder keeps grows in step with the number of tiles, unlike
+ * a table of the distances between every two tiles.
+ * 
+ * The entrance graph is never changed after it is built, but a finder reuses
+ * its search arrays, so it is only used by one thread at a time.
+ */
+public class HierarchicalPathFinder implements PathFinder {
+
+	// side of a cluster in tiles
+	public static final int CLUSTER_SIZE = 16;
+
+	// stretches of border at least this long get an entrance at each end
+	private static final int LONG_BORDER = 6;
+
+	// finder fields
+	private final TileGraph graph;
+	private final Map<Location, Tile> tiles;
+	private final int width;
+	private final int clusterSize;
+	private final int columns;
+	private final int numberNodes;
+	private final int[] nodeTiles;
+	private final int[] clusterNodes;
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+	private final int[] edgeLengths;
+
+	// search arrays, reused between searches, with the start and end nodes
+	// after the entrances
+	private final int[] scores;
+	private final int[] parents;
+	private final int[] seen;
+	private final int[] closed;
+	private int mark;
+	private long[] heap;
+	private final int[] queue;
+	private final int[] startDistances;
+	private final int[] endDistances;
+	private final int[] localDistances;
+	private final int[] localParents;
+
+	/**
+	 * Build the entrance graph of a board with clusters of the default size.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 * @param tiles
+	 *            The board tiles by location, for the tiles of a path.
+	 */
+	public HierarchicalPathFinder(TileGraph graph, Map<Location, Tile> tiles) {
+		this(graph, tiles, CLUSTER_SIZE);
+	}
+
+	/**
+	 * Build the entrance graph of a board.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 * @param tiles
+	 *            The board tiles by location, for the tiles of a path.
+	 * @param clusterSize
+	 *            The side of a cluster in tiles.
+	 */
+	public HierarchicalPathFinder(TileGraph graph, Map<Location, Tile> tiles,
+			int clusterSize) {
+		this.graph = graph;
+		this.tiles = tiles;
+		this.width = graph.getWidth();
+		this.clusterSize = clusterSize;
+		int height = graph.getHeight();
+		columns = (width + clusterSize - 1) / clusterSize;
+		int rows = (height + clusterSize - 1) / clusterSize;
+		int area = clusterSize * clusterSize;
+		queue = new int[area];
+		startDistances = new int[area];
+		endDistances = new int[area];
+		localDistances = new int[area];
+		localParents = new int[area];
+
+		// entrances in pairs across the borders between clusters
+		List<Integer> pairs = new ArrayList<Integer>();
+		for (int x = clusterSize; x < width; x += clusterSize) {
+			scanBorder(x - 1, 1, width, height, pairs);
+		}
+		for (int y = clusterSize; y < height; y += clusterSize) {
+			scanBorder((y - 1) * width, width, 1, width, pairs);
+		}
+		boolean[] entrance = new boolean[graph.size()];
+		for (int tile : pairs) {
+			entrance[tile] = true;
+		}
+
+		// number the entrances cluster by cluster
+		clusterNodes = new int[columns * rows + 1];
+		int[] nodeOfTile = new int[graph.size()];
+		Arrays.fill(nodeOfTile, -1);
+		int nodes = 0;
+		for (int c = 0; c < columns * rows; c++) {
+			clusterNodes[c] = nodes;
+			int left = c % columns * clusterSize;
+			int top = c / columns * clusterSize;
+			for (int y = top; y < Math.min(top + clusterSize, height); y++) {
+				for (int x = left; x < Math.min(left + clusterSize, width); x++) {
+					if (entrance[y * width + x]) {
+						nodeOfTile[y * width + x] = nodes++;
+					}
+				}
+			}
+		}
+		clusterNodes[columns * rows] = nodes;
+		numberNodes = nodes;
+		nodeTiles = new int[nodes];
+		for (int t = 0; t < graph.size(); t++) {
+			if (nodeOfTile[t] >= 0) {
+				nodeTiles[nodeOfTile[t]] = t;
+			}
+		}
+
+		// edges as triples of from, to and length, one step across borders
+		// and the walking distance between entrances of the same cluster
+		int[] edges = new int[3 * pairs.size() + 3];
+		int edgeCount = 0;
+		for (int i = 0; i < pairs.size(); i += 2) {
+			edges[edgeCount++] = nodeOfTile[pairs.get(i)];
+			edges[edgeCount++] = nodeOfTile[pairs.get(i + 1)];
+			edges[edgeCount++] = 1;
+			edges[edgeCount++] = nodeOfTile[pairs.get(i + 1)];
+			edges[edgeCount++] = nodeOfTile[pairs.get(i)];
+			edges[edgeCount++] = 1;
+		}
+		for (int c = 0; c < columns * rows; c++) {
+			for (int u = clusterNodes[c]; u < clusterNodes[c + 1]; u++) {
+				searchCluster(nodeTiles[u], localDistances, null);
+				for (int v = clusterNodes[c]; v < clusterNodes[c + 1]; v++) {
+					int d = localDistances[local(nodeTiles[v])];
+					if (v != u && d != DistanceField.UNREACHABLE) {
+						if (edgeCount + 3 > edges.length) {
+							edges = Arrays.copyOf(edges, 2 * edges.length);
+						}
+						edges[edgeCount++] = u;
+						edges[edgeCount++] = v;
+						edges[edgeCount++] = d;
+					}
+				}
+			}
+		}
+		edgeOffsets = new int[nodes + 1];
+		for (int i = 0; i < edgeCount; i += 3) {
+			edgeOffsets[edges[i] + 1]++;
+		}
+		for (int u = 0; u < nodes; u++) {
+			edgeOffsets[u + 1] += edgeOffsets[u];
+		}
+		edgeTargets = new int[edgeCount / 3];
+		edgeLengths = new int[edgeCount / 3];
+		int[] next = Arrays.copyOf(edgeOffsets, nodes);
+		for (int i = 0; i < edgeCount; i += 3) {
+			int position = next[edges[i]]++;
+			edgeTargets[position] = edges[i + 1];
+			edgeLengths[position] = edges[i + 2];
+		}
+
+		scores = new int[nodes + 2];
+		parents = new int[nodes + 2];
+		seen = new int[nodes + 2];
+		closed = new int[nodes + 2];
+		heap = new long[64];
+	}
+
+	/**
+	 * Finds the stretches of a border that can be walked across and adds
+	 * their entrances. Tile i along the border is first + i * along on one
+	 * side and that plus across on the other, and the entrances are added as
+	 * pairs of the tiles on either side.
+	 */
+	private void scanBorder(int first, int across, int along, int length,
+			List<Integer> pairs) {
+		int start = -1;
+		for (int i = 0; i <= length; i++) {
+			int a = first + i * along;
+			boolean open = i < length && isStep(a, a + across);
+			// a stretch ends at a cluster corner or a wall along it
+			if (start >= 0
+					&& (!open || i % clusterSize == 0
+							|| !isStep(a - along, a) || !isStep(a - along
+							+ across, a + across))) {
+				int run = i - start;
+				if (run < LONG_BORDER) {
+					int middle = first + (start + run / 2) * along;
+					pairs.add(middle);
+					pairs.add(middle + across);
+				} else {
+					int low = first + start * along;
+					int high = first + (i - 1) * along;
+					pairs.add(low);
+					pairs.add(low + across);
+					pairs.add(high);
+					pairs.add(high + across);
+				}
+				start = -1;
+			}
+			if (open && start < 0) {
+				start = i;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a character can step from one tile to another.
+	 */
+	private boolean isStep(int from, int to) {
+		int end = graph.getNeighbourStart(from + 1);
+		for (int n = graph.getNeighbourStart(from); n < end; n++) {
+			if (graph.getNeighbour(n) == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int cluster(int tile) {
+		return tile / width / clusterSize * columns + tile % width
+				/ clusterSize;
+	}
+
+	/**
+	 * Returns the index of a tile within its cluster.
+	 */
+	private int local(int tile) {
+		return tile / width % clusterSize * clusterSize + tile % width
+				% clusterSize;
+	}
+
+	/**
+	 * Breadth first search from a tile without leaving its cluster.
+	 * 
+	 * @param source
+	 *            The tile index.
+	 * @param distances
+	 *            The distances by index within the cluster.
+	 * @param from
+	 *            The tile each tile was reached from, null if not needed.
+	 */
+	private void searchCluster(int source, int[] distances, int[] from) {
+		Arrays.fill(distances, DistanceField.UNREACHABLE);
+		int cluster = cluster(source);
+		distances[local(source)] = 0;
+		queue[0] = source;
+		int head = 0;
+		int tail = 1;
+		while (head < tail) {
+			int u = queue[head++];
+			int d = distances[local(u)] + 1;
+			int end = graph.getNeighbourStart(u + 1);
+			for (int n = graph.getNeighbourStart(u); n < end; n++) {
+				int v = graph.getNeighbour(n);
+				if (cluster(v) == cluster
+						&& distances[local(v)] == DistanceField.UNREACHABLE) {
+					distances[local(v)] = d;
+					if (from != null) {
+						from[local(v)] = u;
+					}
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entrances in the graph.
+	 * 
+	 * @return The number of entrance tiles.
+	 */
+	public int getNumberNodes() {
+		return numberNodes;
+	}
+
+	/**
+	 * Returns the length of a path between two tiles.
+	 * 
+	 * @param from
+	 *            The start tile index.
+	 * @param to
+	 *            The end tile index.
+	 * @return The number of steps, -1 if there is no path.
+	 */
+	public int getDistance(int from, int to) {
+		return search(from, to);
+	}
+
+	/**
+	 * Returns a path between two tiles.
+	 * 
+	 * @param from
+	 *            The start tile index.
+	 * @param to
+	 *            The end tile index.
+	 * @return The tile indices of the path, the start first, empty if there
+	 *         is no path.
+	 */
+	public int[] getPath(int from, int to) {
+		int length = search(from, to);
+		if (length < 0) {
+			return new int[0];
+		}
+		int[] path = new int[length + 1];
+		path[length] = to;
+		// walk the nodes back from the end, filling in each step
+		int start = numberNodes;
+		int end = numberNodes + 1;
+		int position = length;
+		int node = end;
+		while (node != start) {
+			int parent = parents[node];
+			int tile = node == end ? to : nodeTiles[node];
+			int previous = parent == start ? from : nodeTiles[parent];
+			if (cluster(tile) != cluster(previous)) {
+				path[--position] = previous;
+			} else {
+				searchCluster(previous, localDistances, localParents);
+				while (tile != previous) {
+					tile = localParents[local(tile)];
+					path[--position] = tile;
+				}
+			}
+			node = parent;
+		}
+		return path;
+	}
+
+	@Override
+	public int findPath(Location start, Location end) {
+		if (!inBounds(start) || !inBounds(end)) {
+			return -1;
+		}
+		return search(graph.index(start), graph.index(end));
+	}
+
+	/**
+	 * Returns the tiles of a path between two locations.
+	 * 
+	 * @param start
+	 *            Starting location.
+	 * @param destination
+	 *            Ending location.
+	 * @return The tiles of the path, the start first, empty if there is no
+	 *         path.
+	 */
+	@Override
+	public List<Tile> getDijsktraPath(Location start, Location destination) {
+		List<Tile> path = new ArrayList<Tile>();
+		if (!inBounds(start) || !inBounds(destination)) {
+			return path;
+		}
+		for (int tile : getPath(graph.index(start), graph.index(destination))) {
+			path.add(tiles.get(new Location(tile % width, tile / width)));
+		}
+		return path;
+	}
+
+	private boolean inBounds(Location loc) {
+		return loc.getX() >= 0 && loc.getX() < width && loc.getY() >= 0
+				&& loc.getY() < graph.getHeight();
+	}
+
+	/**
+	 * A* over the entrances from a start node joined to the entrances of the
+	 * start cluster to an end node joined to those of the end cluster, with
+	 * the straight line walking distance as the estimate.
+	 * 
+	 * @return The length of the path found, -1 if there is none.
+	 */
+	private int search(int from, int to) {
+		if (!graph.isWalkable(from) || !graph.isWalkable(to)) {
+			return -1;
+		} else if (from == to) {
+			return 0;
+		}
+		int start = numberNodes;
+		int end = numberNodes + 1;
+		int startCluster = cluster(from);
+		int endCluster = cluster(to);
+		searchCluster(from, startDistances, null);
+		searchCluster(to, endDistances, null);
+		mark++;
+		int size = 0;
+		seen[start] = mark;
+		scores[start] = 0;
+		heap[size++] = start;
+		while (size > 0) {
+			long top = heap[0];
+			heap[0] = heap[--size];
+			siftDown(size);
+			int u = (int) top;
+			if (closed[u] == mark) {
+				continue;
+			} else if (u == end) {
+				return scores[end];
+			}
+			closed[u] = mark;
+			if (u == start) {
+				int last = clusterNodes[startCluster + 1];
+				for (int v = clusterNodes[startCluster]; v < last; v++) {
+					size = relax(u, v, startDistances[local(nodeTiles[v])],
+							to, size);
+				}
+				if (startCluster == endCluster) {
+					size = relax(u, end, startDistances[local(to)], to, size);
+				}
+				continue;
+			}
+			for (int n = edgeOffsets[u]; n < edgeOffsets[u + 1]; n++) {
+				size = relax(u, edgeTargets[n], edgeLengths[n], to, size);
+			}
+			if (cluster(nodeTiles[u]) == endCluster) {
+				size = relax(u, end, endDistances[local(nodeTiles[u])], to,
+						size);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lowers the score of a node through another and queues it.
+	 * 
+	 * @return The new size of the heap.
+	 */
+	private int relax(int u, int v, int length, int to, int size) {
+		if (length == DistanceField.UNREACHABLE || closed[v] == mark) {
+			return size;
+		}
+		int score = scores[u] + length;
+		if (seen[v] == mark && scores[v] <= score) {
+			return size;
+		}
+		seen[v] = mark;
+		scores[v] = score;
+		parents[v] = u;
+		int estimate = score;
+		if (v < numberNodes) {
+			int tile = nodeTiles[v];
+			estimate += Math.abs(tile % width - to % width)
+					+ Math.abs(tile / width - to / width);
+		}
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, 2 * size);
+		}
+		heap[size] = ((long) estimate << Integer.SIZE) | v;
+		siftUp(size);
+		return size + 1;
+	}
+
+	private void siftUp(int i) {
+		long key = heap[i];
+		while (i > 0 && heap[(i - 1) / 2] > key) {
+			heap[i] = heap[(i - 1) / 2];
+			i = (i - 1) / 2;
+		}
+		heap[i] = key;
+	}
+
+	private void siftDown(int size) {
+		if (size == 0) {
+			return;
+		}
+		long key = heap[0];
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (heap[child] >= key) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = key;
+	}
+}
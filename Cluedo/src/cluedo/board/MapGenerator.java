@@ -0,0 +1,508 @@
+package cluedo.board;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import cluedo.game.Game;
+
+/**
+ * Generates maps in the map file format, see {@link CompiledMap}, for
+ * benchmarks and stress tests on boards other than the standard one. The
+ * rooms are laid out in a grid of cells, each with a ring of corridor around
+ * it, and the corridors are scattered with walls. Doors, thin walls between
+ * corridor tiles, secret passages and the character starts are placed at
+ * random.
+ * 
+ * The same settings and seed always give the same map. Every generated map
+ * is connected: after the walls are placed the walkable tiles are put in
+ * sets with a union-find pass, and walls are knocked through until they are
+ * all in one set, see {@link #isConnected(CompiledMap)}.
+ */
+public class MapGenerator {
+
+	// symbols of walls and paths
+	private static final char WALL = '|';
+	private static final char PATH = ' ';
+
+	// smallest cell that fits a room and its corridors
+	private static final int MIN_CELL = 7;
+
+	// generator fields
+	private final int width;
+	private final int height;
+	private final int numberRooms;
+	private final double doorDensity;
+	private final double wallDensity;
+	private final int numberThinWalls;
+	private final int numberPassages;
+	private final long seed;
+
+	/**
+	 * Setup a generator.
+	 * 
+	 * @param width
+	 *            The map width in tiles.
+	 * @param height
+	 *            The map height in tiles.
+	 * @param rooms
+	 *            The number of rooms.
+	 * @param doors
+	 *            The share of the sides of each room that are doors, every
+	 *            room having at least one.
+	 * @param walls
+	 *            The share of corridor tiles that are walls.
+	 * @param thinWalls
+	 *            The number of walls between two corridor tiles.
+	 * @param passages
+	 *            The number of secret passages.
+	 * @param seed
+	 *            The random seed.
+	 */
+	public MapGenerator(int width, int height, int rooms, double doors,
+			double walls, int thinWalls, int passages, long seed) {
+		if (rooms < 1 || rooms > getMaxRooms()) {
+			throw new IllegalArgumentException("Bad number of rooms " + rooms);
+		}
+		int columns = getColumns(width, height, rooms);
+		if (width / columns < MIN_CELL
+				|| height / ((rooms + columns - 1) / columns) < MIN_CELL) {
+			throw new IllegalArgumentException("Map " + width + "x" + height
+					+ " is too small for " + rooms + " rooms");
+		}
+		this.width = width;
+		this.height = height;
+		this.numberRooms = rooms;
+		this.doorDensity = doors;
+		this.wallDensity = walls;
+		this.numberThinWalls = thinWalls;
+		this.numberPassages = Math.min(passages, rooms / 2);
+		this.seed = seed;
+	}
+
+	/**
+	 * Setup a generator with the rooms and passages of the standard game.
+	 * 
+	 * @param width
+	 *            The map width in tiles.
+	 * @param height
+	 *            The map height in tiles.
+	 * @param seed
+	 *            The random seed.
+	 */
+	public MapGenerator(int width, int height, long seed) {
+		this(width, height, Game.ROOMS.length, 0.1, 0.15, 3, 2, seed);
+	}
+
+	/**
+	 * Returns the most rooms a map can have, each needing a door and a room
+	 * tile symbol, and a card that fits in a card bitmask next to the
+	 * characters and weapons of the game.
+	 * 
+	 * @return The number of rooms.
+	 */
+	public static int getMaxRooms() {
+		return Math.min(symbols().length() / 2, Integer.SIZE
+				- Game.CHARACTERS.length - Game.WEAPONS.length);
+	}
+
+	/**
+	 * The symbols rooms can use: printable characters other than walls and
+	 * the character starts.
+	 */
+	private static String symbols() {
+		CompiledMap standard = CompiledMap.getDefault();
+		StringBuilder symbols = new StringBuilder();
+		for (char c = '!'; c <= '~'; c++) {
+			boolean start = false;
+			for (int i = 0; i < standard.getNumberStarts(); i++) {
+				start |= c == Character.toLowerCase(standard.getStartLetter(i));
+			}
+			if (c != WALL && !start) {
+				symbols.append(c);
+			}
+		}
+		return symbols.toString();
+	}
+
+	/**
+	 * Returns the number of columns of cells, keeping the cells about square.
+	 */
+	private static int getColumns(int width, int height, int rooms) {
+		return Math.max(1, Math.min(rooms,
+				(int) Math.ceil(Math.sqrt((double) rooms * width / height))));
+	}
+
+	/**
+	 * Returns the name of a room, the rooms of the standard game first.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @return The room name.
+	 */
+	public static String getRoomName(int room) {
+		return room < Game.ROOMS.length ? Game.ROOMS[room] : "Room "
+				+ (room + 1);
+	}
+
+	/**
+	 * Generates a map file.
+	 * 
+	 * @return The text of the map file.
+	 */
+	public String generate() {
+		SplittableRandom random = new SplittableRandom(seed);
+		int size = width * height;
+		char[] grid = new char[size];
+		for (int i = 0; i < size; i++) {
+			grid[i] = random.nextDouble() < wallDensity ? WALL : PATH;
+		}
+		String symbols = symbols();
+		boolean[] doors = new boolean[size];
+		int columns = getColumns(width, height, numberRooms);
+		int cellWidth = width / columns;
+		int cellHeight = height / ((numberRooms + columns - 1) / columns);
+		for (int r = 0; r < numberRooms; r++) {
+			// a room in its cell with at least two tiles to spare each side
+			int roomWidth = 3 + random.nextInt(cellWidth - MIN_CELL + 1);
+			int roomHeight = 3 + random.nextInt(cellHeight - MIN_CELL + 1);
+			int left = (r % columns) * cellWidth + 2
+					+ random.nextInt(cellWidth - 3 - roomWidth);
+			int top = (r / columns) * cellHeight + 2
+					+ random.nextInt(cellHeight - 3 - roomHeight);
+			char door = symbols.charAt(2 * r);
+			char tile = symbols.charAt(2 * r + 1);
+			for (int y = top - 1; y <= top + roomHeight; y++) {
+				for (int x = left - 1; x <= left + roomWidth; x++) {
+					boolean inside = x >= left && x < left + roomWidth
+							&& y >= top && y < top + roomHeight;
+					grid[y * width + x] = inside ? tile : PATH;
+				}
+			}
+
+			// doors on the sides, not the corners, opening onto the ring
+			int sides = 2 * (roomWidth - 2) + 2 * (roomHeight - 2);
+			int count = Math.max(1, (int) Math.round(sides * doorDensity));
+			for (int d = 0; d < count; d++) {
+				int n = random.nextInt(sides);
+				int x;
+				int y;
+				if (n < roomWidth - 2) {
+					x = left + 1 + n;
+					y = top;
+				} else if ((n -= roomWidth - 2) < roomWidth - 2) {
+					x = left + 1 + n;
+					y = top + roomHeight - 1;
+				} else if ((n -= roomWidth - 2) < roomHeight - 2) {
+					x = left;
+					y = top + 1 + n;
+				} else {
+					x = left + roomWidth - 1;
+					y = top + 1 + n - (roomHeight - 2);
+				}
+				grid[y * width + x] = door;
+				doors[y * width + x] = true;
+			}
+		}
+
+		// thin walls between two corridor tiles, by the tile left or above
+		boolean[] right = new boolean[size];
+		boolean[] down = new boolean[size];
+		int thinWalls = 0;
+		for (int tries = 0; thinWalls < numberThinWalls
+				&& tries < 100 * numberThinWalls; tries++) {
+			int from = random.nextInt(size);
+			boolean across = random.nextBoolean();
+			int to = across ? from + 1 : from + width;
+			boolean[] walls = across ? right : down;
+			if ((across ? from % width + 1 < width : to < size)
+					&& grid[from] == PATH && grid[to] == PATH && !walls[from]) {
+				walls[from] = true;
+				thinWalls++;
+			}
+		}
+		connect(grid, doors, right, down);
+
+		// secret passages between rooms paired at random
+		int[] order = new int[numberRooms];
+		for (int r = 0; r < numberRooms; r++) {
+			order[r] = r;
+		}
+		for (int r = numberRooms - 1; r > 0; r--) {
+			int other = random.nextInt(r + 1);
+			int swap = order[r];
+			order[r] = order[other];
+			order[other] = swap;
+		}
+
+		// character starts on corridor tiles
+		CompiledMap standard = CompiledMap.getDefault();
+		StringBuilder text = new StringBuilder();
+		text.append("size ").append(width).append(' ').append(height)
+				.append('\n');
+		for (int r = 0; r < numberRooms; r++) {
+			text.append("room ").append(symbols.charAt(2 * r)).append(' ')
+					.append(symbols.charAt(2 * r + 1)).append(' ')
+					.append(getRoomName(r)).append('\n');
+		}
+		for (int p = 0; p < numberPassages; p++) {
+			text.append("passage ").append(symbols.charAt(2 * order[2 * p]))
+					.append(' ').append(symbols.charAt(2 * order[2 * p + 1]))
+					.append('\n');
+		}
+		for (int i = 0; i < standard.getNumberStarts(); i++) {
+			char letter = standard.getStartLetter(i);
+			char start = Character.toLowerCase(letter);
+			int tile;
+			do {
+				tile = random.nextInt(size);
+			} while (grid[tile] != PATH);
+			grid[tile] = start;
+			text.append("start ").append(start).append(' ').append(letter)
+					.append(' ').append(standard.getStartName(i)).append('\n');
+		}
+		for (int i = 0; i < size; i++) {
+			if (right[i] || down[i]) {
+				int to = right[i] ? i + 1 : i + width;
+				text.append("blocked ").append(i % width).append(' ')
+						.append(i / width).append(' ').append(to % width)
+						.append(' ').append(to / width).append('\n');
+			}
+			if (right[i] && down[i]) {
+				text.append("blocked ").append(i % width).append(' ')
+						.append(i / width).append(' ').append(i % width)
+						.append(' ').append(i / width + 1).append('\n');
+			}
+		}
+		text.append("grid\n");
+		for (int y = 0; y < height; y++) {
+			text.append(grid, y * width, width).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Generates and compiles a map.
+	 * 
+	 * @return The compiled map.
+	 */
+	public CompiledMap compile() {
+		try {
+			return new CompiledMap(getName(), new BufferedReader(
+					new StringReader(generate())));
+		} catch (IOException e) {
+			// a string is never short of lines
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the name of the maps of this generator, which tells apart every
+	 * setting.
+	 * 
+	 * @return The map name.
+	 */
+	public String getName() {
+		return "generated-" + width + "x" + height + "-" + numberRooms + "-"
+				+ doorDensity + "-" + wallDensity + "-" + numberThinWalls
+				+ "-" + numberPassages + "-" + seed;
+	}
+
+	/**
+	 * Knock through walls until every walkable tile is in one set. Thin walls
+	 * between two sets go first, then walls with two sets next to them, and
+	 * if those are all gone the walls next to the smaller sets, to grow them
+	 * into the others.
+	 */
+	private void connect(char[] grid, boolean[] doors, boolean[] right,
+			boolean[] down) {
+		while (true) {
+			Sets sets = new Sets(grid.length);
+			int walkable = 0;
+			for (int i = 0; i < grid.length; i++) {
+				if (isWalkable(grid, doors, i)) {
+					walkable++;
+					if (i % width + 1 < width && !right[i]
+							&& isWalkable(grid, doors, i + 1)) {
+						sets.union(i, i + 1);
+					}
+					if (i + width < grid.length && !down[i]
+							&& isWalkable(grid, doors, i + width)) {
+						sets.union(i, i + width);
+					}
+				}
+			}
+			int largest = -1;
+			for (int i = 0; i < grid.length; i++) {
+				if (isWalkable(grid, doors, i)
+						&& (largest < 0 || sets.size(i) > sets.size(largest))) {
+					largest = sets.find(i);
+				}
+			}
+			if (largest < 0 || sets.size(largest) == walkable) {
+				return;
+			}
+
+			boolean opened = false;
+			for (int i = 0; i < grid.length; i++) {
+				if (right[i] && sets.find(i) != sets.find(i + 1)) {
+					sets.union(i, i + 1);
+					right[i] = false;
+					opened = true;
+				}
+				if (down[i] && sets.find(i) != sets.find(i + width)) {
+					sets.union(i, i + width);
+					down[i] = false;
+					opened = true;
+				}
+			}
+			for (int i = 0; i < grid.length; i++) {
+				if (grid[i] == WALL && joins(grid, doors, sets, i)) {
+					grid[i] = PATH;
+					opened = true;
+				}
+			}
+			if (!opened) {
+				for (int i = 0; i < grid.length; i++) {
+					if (grid[i] == WALL
+							&& touches(grid, doors, sets, i, largest)) {
+						grid[i] = PATH;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a wall has walkable tiles of two sets next to it, and if so
+	 * joins them.
+	 */
+	private boolean joins(char[] grid, boolean[] doors, Sets sets, int tile) {
+		int first = -1;
+		boolean joins = false;
+		for (int next : neighbours(tile)) {
+			if (next >= 0 && isWalkable(grid, doors, next)) {
+				if (first < 0) {
+					first = next;
+				} else if (sets.find(first) != sets.find(next)) {
+					sets.union(first, next);
+					joins = true;
+				}
+			}
+		}
+		return joins;
+	}
+
+	/**
+	 * Checks if a wall has a walkable tile outside the largest set next to it.
+	 */
+	private boolean touches(char[] grid, boolean[] doors, Sets sets,
+			int tile, int largest) {
+		for (int next : neighbours(tile)) {
+			if (next >= 0 && isWalkable(grid, doors, next)
+					&& sets.find(next) != sets.find(largest)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the tiles left, right, up and down of a tile, -1 off the map.
+	 */
+	private int[] neighbours(int tile) {
+		int x = tile % width;
+		return new int[] { x > 0 ? tile - 1 : -1,
+				x + 1 < width ? tile + 1 : -1,
+				tile >= width ? tile - width : -1,
+				tile + width < width * height ? tile + width : -1 };
+	}
+
+	private static boolean isWalkable(char[] grid, boolean[] doors, int tile) {
+		return grid[tile] == PATH || doors[tile];
+	}
+
+	/**
+	 * Checks that every walkable tile of a map can be reached from every
+	 * other, with a union-find pass over the steps of the map.
+	 * 
+	 * @param map
+	 *            The compiled map.
+	 * @return True if the walkable tiles are all in one set.
+	 */
+	public static boolean isConnected(CompiledMap map) {
+		int width = map.getWidth();
+		int size = width * map.getHeight();
+		Sets sets = new Sets(size);
+		int first = -1;
+		int walkable = 0;
+		for (int i = 0; i < size; i++) {
+			if (!isWalkable(map, i)) {
+				continue;
+			}
+			first = first < 0 ? i : first;
+			walkable++;
+			if (i % width + 1 < width && isWalkable(map, i + 1)
+					&& !map.isBlocked(i, i + 1)) {
+				sets.union(i, i + 1);
+			}
+			if (i + width < size && isWalkable(map, i + width)
+					&& !map.isBlocked(i, i + width)) {
+				sets.union(i, i + width);
+			}
+		}
+		return first < 0 || sets.size(first) == walkable;
+	}
+
+	private static boolean isWalkable(CompiledMap map, int tile) {
+		return map.getKind(tile) == CompiledMap.PATH
+				|| map.getKind(tile) == CompiledMap.DOOR;
+	}
+
+	/**
+	 * Disjoint sets of tiles with union by size and path halving.
+	 */
+	private static class Sets {
+
+		private final int[] parents;
+		private final int[] sizes;
+
+		public Sets(int size) {
+			parents = new int[size];
+			sizes = new int[size];
+			for (int i = 0; i < size; i++) {
+				parents[i] = i;
+			}
+			Arrays.fill(sizes, 1);
+		}
+
+		public int find(int tile) {
+			while (parents[tile] != tile) {
+				parents[tile] = parents[parents[tile]];
+				tile = parents[tile];
+			}
+			return tile;
+		}
+
+		public int size(int tile) {
+			return sizes[find(tile)];
+		}
+
+		public void union(int a, int b) {
+			a = find(a);
+			b = find(b);
+			if (a == b) {
+				return;
+			}
+			if (sizes[a] < sizes[b]) {
+				int swap = a;
+				a = b;
+				b = swap;
+			}
+			parents[b] = a;
+			sizes[a] += sizes[b];
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package cluedo.board;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bitset of the tiles that have a token on them, one bit per tile index.
+ * Tokens keep it up to date as they move, and every change is passed on to
+ * the distance fields listening so they can repair themselves.
+ */
+public class OccupancyGrid {
+
+	// grid fields
+	private final int width;
+	private final long[] bits;
+	private final List<DistanceField> listeners;
+
+	/**
+	 * Setup an empty grid.
+	 * 
+	 * @param width
+	 *            The board width in tiles.
+	 * @param height
+	 *            The board height in tiles.
+	 */
+	public OccupancyGrid(int width, int height) {
+		this.width = width;
+		bits = new long[(width * height + Long.SIZE - 1) / Long.SIZE];
+		listeners = new ArrayList<DistanceField>();
+	}
+
+	/**
+	 * Move a token from one location to another.
+	 * 
+	 * @param from
+	 *            The location the token leaves, null if it was not placed.
+	 * @param to
+	 *            The location the token is put on, null if it is taken off.
+	 */
+	public void move(Location from, Location to) {
+		if (from != null && from.equals(to)) {
+			return;
+		}
+		if (from != null) {
+			int tile = index(from);
+			bits[tile >>> 6] &= ~(1L << tile);
+			for (DistanceField field : listeners) {
+				field.unblock(tile);
+			}
+		}
+		if (to != null) {
+			int tile = index(to);
+			bits[tile >>> 6] |= 1L << tile;
+			for (DistanceField field : listeners) {
+				field.block(tile);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a tile has a token on it.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return True if the tile is occupied.
+	 */
+	public boolean isOccupied(int tile) {
+		return (bits[tile >>> 6] & (1L << tile)) != 0;
+	}
+
+	public boolean isOccupied(Location loc) {
+		return isOccupied(index(loc));
+	}
+
+	/**
+	 * Keep a distance field up to date with the tokens from now on.
+	 * 
+	 * @param field
+	 *            The distance field.
+	 */
+	public void addListener(DistanceField field) {
+		listeners.add(field);
+	}
+
+	private int index(Location loc) {
+		return loc.getY() * width + loc.getX();
+	}
+}
@@ -0,0 +1,37 @@
+package cluedo.board;
+
+import java.util.List;
+
+import cluedo.tiles.Tile;
+
+/**
+ * Finds walking paths between two tiles of a board, the way the board asks
+ * for them. {@link Dijkstra} searches the whole board for each path, which
+ * is plenty for the standard board, and {@link HierarchicalPathFinder}
+ * searches a graph of chunks of the board, for large maps.
+ */
+public interface PathFinder {
+
+	/**
+	 * Given a beginning and end location, return the length of the
+	 * shortest possible path between the two on the board.
+	 * 
+	 * @param start
+	 *            Starting location.
+	 * @param end
+	 *            Ending location.
+	 * @return The length of the path, -1 if no path is found.
+	 */
+	public int findPath(Location start, Location end);
+
+	/**
+	 * Returns the tiles of a path between two locations.
+	 * 
+	 * @param start
+	 *            Starting location.
+	 * @param destination
+	 *            Ending location.
+	 * @return The tiles of the path, the start first.
+	 */
+	public List<Tile> getDijsktraPath(Location start, Location destination);
+}
@@ -0,0 +1,71 @@
+package cluedo.board;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The progress of a long build split between threads, counted in units of
+ * work as each thread finishes them, with the time taken so far. Any thread
+ * can read it while the build runs, for a loading screen or a log line.
+ */
+public class Progress {
+
+	// progress fields
+	private final AtomicInteger done = new AtomicInteger();
+	private volatile int total;
+	private volatile long started;
+	private volatile long finished;
+
+	/**
+	 * Start counting a new build.
+	 * 
+	 * @param total
+	 *            The number of units of work.
+	 */
+	public void start(int total) {
+		done.set(0);
+		finished = 0;
+		started = System.nanoTime();
+		this.total = total;
+	}
+
+	/**
+	 * Count finished units of work.
+	 * 
+	 * @param units
+	 *            The number of units finished.
+	 */
+	public void advance(int units) {
+		done.addAndGet(units);
+	}
+
+	public void finish() {
+		finished = System.nanoTime();
+	}
+
+	public int getDone() {
+		return done.get();
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public boolean isFinished() {
+		return finished != 0;
+	}
+
+	/**
+	 * Returns the time the build has taken, so far if it is still running.
+	 * 
+	 * @return The elapsed time in milliseconds.
+	 */
+	public long getElapsed() {
+		long end = finished != 0 ? finished : System.nanoTime();
+		return started == 0 ? 0 : (end - started) / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return getDone() + " of " + getTotal() + " in " + getElapsed() + " ms";
+	}
+}
@@ -1,17 +1,30 @@
 package cluedo.board;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
+import cluedo.game.Registry;
 import cluedo.tiles.*;
 import cluedo.tokens.*;
 
 public class Room {
 	String name;
+	int id;
 	HashSet<DoorTile> entrances;
 	HashSet<CharacterToken> characterTokens;
 	HashSet<WeaponToken> weaponTokens;
 	HashSet<RoomTile> roomTiles;
 	Room passage;
 	
+	// room tiles in reading order, a bit set for each one taken and the slot
+	// each token in the room has taken
+	List<RoomTile> slots;
+	long[] taken;
+	Map<Token, Integer> slotOf;
+	
 	
 	/**
 	 * A class storing information for a room on the board. A room can have multiple entrances and playing pieces,
@@ -19,11 +32,24 @@ public class Room {
 	 * @param name The name of this room.
 	 */
 	public Room(String name){
+		this(name, Registry.getStandardId(Registry.ROOM, name));
+	}
+	
+	/**
+	 * A room with a given id, for maps that define their own rooms.
+	 * @param name The name of this room.
+	 * @param id The id of this room.
+	 */
+	public Room(String name, int id){
 		this.name = name;
+		this.id = id;
 		this.entrances = new HashSet<DoorTile>();
 		this.roomTiles = new HashSet<RoomTile>();
 		this.characterTokens = new HashSet<CharacterToken>();
 		this.weaponTokens = new HashSet<WeaponToken>();
+		this.slots = new ArrayList<RoomTile>();
+		this.taken = new long[0];
+		this.slotOf = new HashMap<Token, Integer>();
 		passage = null;
 	}
 	
@@ -36,8 +62,17 @@ public class Room {
 	}
 	
 
+	/**
+	 * Add a RoomTile to this room, as the slot after the tiles above and to
+	 * the left of it.
+	 * @param roomTile A RoomTile that belongs to this room.
+	 */
 	public void addRoomTile(RoomTile roomTile){
-		roomTiles.add(roomTile);
+		if (roomTiles.add(roomTile)) {
+			int slot = -1 - slotOf(roomTile.getLocation());
+			slots.add(slot, roomTile);
+			taken = Arrays.copyOf(taken, (slots.size() + 63) / 64);
+		}
 	}
 	
 	/**
@@ -54,6 +89,7 @@ public class Room {
 	 */
 	public void addToken(CharacterToken t){
 		characterTokens.add(t);
+		take(t);
 	}
 	
 	/**
@@ -62,6 +98,7 @@ public class Room {
 	 */
 	public void addToken(WeaponToken t){
 		weaponTokens.add(t);
+		take(t);
 	}
 	
 	/**
@@ -70,6 +107,7 @@ public class Room {
 	 * @return True if character successfully removed, false otherwise.
 	 */
 	public boolean removeToken (CharacterToken t){
+		release(t);
 		return characterTokens.remove(t);
 	}
 	
@@ -79,9 +117,90 @@ public class Room {
 	 * @return True if weapon successfully removed, false otherwise.
 	 */
 	public boolean removeToken (WeaponToken t){
+		release(t);
 		return weaponTokens.remove(t);
 	}
 	
+	/**
+	 * Returns the first room tile in reading order no token has taken. A token
+	 * added to the room next takes this tile, unless it is already standing on
+	 * another free tile of the room.
+	 * @return Location of the free tile, null if the room is full.
+	 */
+	public Location getFreeTile(){
+		int slot = firstFree();
+		return slot < 0 ? null : slots.get(slot).getLocation();
+	}
+	
+	/**
+	 * Returns the room tile a token in this room has taken.
+	 * @param t A token in the room.
+	 * @return Location of its tile, null if the token is not in the room.
+	 */
+	public Location getTile(Token t){
+		Integer slot = slotOf.get(t);
+		return slot == null ? null : slots.get(slot).getLocation();
+	}
+	
+	/**
+	 * Takes a room tile for a token: the free one it is standing on, so undoing
+	 * a move puts it back where it was, or else the first free one.
+	 */
+	private void take(Token t){
+		if (slotOf.containsKey(t)) {
+			return;
+		}
+		int slot = t.getLocation() == null ? -1 : slotOf(t.getLocation());
+		if (slot < 0 || (taken[slot >>> 6] & (1L << slot)) != 0) {
+			slot = firstFree();
+		}
+		if (slot >= 0) {
+			taken[slot >>> 6] |= 1L << slot;
+			slotOf.put(t, slot);
+		}
+	}
+	
+	private void release(Token t){
+		Integer slot = slotOf.remove(t);
+		if (slot != null) {
+			taken[slot >>> 6] &= ~(1L << slot);
+		}
+	}
+	
+	private int firstFree(){
+		for (int i = 0; i < taken.length; i++) {
+			if (taken[i] != -1L) {
+				int slot = i * 64 + Long.numberOfTrailingZeros(~taken[i]);
+				return slot < slots.size() ? slot : -1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Binary search of the slots for a location.
+	 * @return The slot, or -1 minus the slot it would go in if it is not a
+	 * room tile of this room.
+	 */
+	private int slotOf(Location loc){
+		int low = 0;
+		int high = slots.size() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			Location l = slots.get(middle).getLocation();
+			int compare = l.getY() != loc.getY() ? l.getY() - loc.getY()
+					: l.getX() - loc.getX();
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1 - low;
+	}
+	
 	/**
 	 * Checks if this room has a secret passage.
 	 * @return True if room has a secret passage, false otherwise.
@@ -114,6 +233,14 @@ public class Room {
 		return name;
 	}
 	
+	/**
+	 * Returns the id of the room, the index of its name in the game rooms.
+	 * @return Id of the room, -1 if it is not a game room.
+	 */
+	public int getId(){
+		return id;
+	}
+	
 	/**
 	 * Returns a verbose list of the name and tokens in room, returns an empty String if the room is empty.
 	 */
@@ -148,4 +275,12 @@ public class Room {
 		return roomTiles;
 	}
 
+	public HashSet<CharacterToken> getCharacterTokens() {
+		return characterTokens;
+	}
+
+	public HashSet<WeaponToken> getWeaponTokens() {
+		return weaponTokens;
+	}
+
 }
@@ -0,0 +1,271 @@
+package cluedo.board;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cluedo.game.Dice;
+import cluedo.game.GameState;
+
+/**
+ * A table of the rooms a character can enter this turn, by the tile they
+ * start on and the dice result: a bitmask with bit r set if room r has a door
+ * within the roll. Starting in a room the character leaves by any of its
+ * doors and can also take its secret passage, and the room itself is left
+ * out. Other characters standing in the way are not taken into account.
+ * 
+ * Tables are built once per map with one search per tile, split between the
+ * threads of a fork join pool, and shared read-only by every game of the
+ * map, see {@link #forGraph(TileGraph)}.
+ */
+public class RoomReach {
+
+	// tables already built, by map
+	private static final Map<TileGraph, RoomReach> CACHE =
+			new HashMap<TileGraph, RoomReach>();
+
+	// tiles a fork join task searches from before it splits
+	private static final int THRESHOLD = 32;
+
+	// number of dice results
+	private static final int ROLLS = Dice.MAX_RESULT - Dice.MIN_RESULT + 1;
+
+	// table fields
+	private final TileGraph graph;
+	private final int[] tileRooms;
+	private final int[] roomRooms;
+
+	/**
+	 * Returns the table of a map, building it on the common fork join pool
+	 * the first time the map is asked for.
+	 * 
+	 * @param graph
+	 *            The compiled board of the map.
+	 * @return The table.
+	 */
+	public static RoomReach forGraph(TileGraph graph) {
+		synchronized (CACHE) {
+			RoomReach reach = CACHE.get(graph);
+			if (reach == null) {
+				reach = new RoomReach(graph, ForkJoinPool.commonPool());
+				CACHE.put(graph, reach);
+			}
+			return reach;
+		}
+	}
+
+	/**
+	 * Build a table.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 * @param pool
+	 *            The fork join pool to build on.
+	 */
+	public RoomReach(TileGraph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		int rooms = graph.getNumberRooms();
+		roomRooms = new int[rooms * ROLLS];
+		Search search = new Search(graph.size());
+		for (int room = 0; room < rooms; room++) {
+			search.fromRoom(room, roomRooms, room * ROLLS);
+		}
+
+		// a door or room tile is in its room, walls reach nothing
+		tileRooms = new int[graph.size() * ROLLS];
+		pool.invoke(new Build(0, graph.size()));
+	}
+
+	/**
+	 * Returns the rooms that can be entered from a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @param roll
+	 *            The dice result.
+	 * @return The bitmask of room ids.
+	 */
+	public int getRooms(int tile, int roll) {
+		return tileRooms[tile * ROLLS + roll - Dice.MIN_RESULT];
+	}
+
+	/**
+	 * Returns the rooms that can be entered from a room, by its doors or its
+	 * secret passage.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @param roll
+	 *            The dice result.
+	 * @return The bitmask of room ids.
+	 */
+	public int getRoomsFromRoom(int room, int roll) {
+		return roomRooms[room * ROLLS + roll - Dice.MIN_RESULT];
+	}
+
+	/**
+	 * Returns the rooms a character can enter this turn.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param character
+	 *            The character id.
+	 * @param roll
+	 *            The dice result.
+	 * @return The bitmask of room ids.
+	 */
+	public int getRooms(GameState state, int character, int roll) {
+		int room = state.getCharacterRoom(character);
+		return room >= 0 ? getRoomsFromRoom(room, roll) : getRooms(
+				state.getCharacterTile(character), roll);
+	}
+
+	/**
+	 * Works out the chance of a character being able to enter each room this
+	 * turn, before the dice are rolled.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param character
+	 *            The character id.
+	 * @param out
+	 *            The array to write the chance of each room id into.
+	 */
+	public void getProbabilities(GameState state, int character, double[] out) {
+		int room = state.getCharacterRoom(character);
+		int[] table = room >= 0 ? roomRooms : tileRooms;
+		int base = (room >= 0 ? room : state.getCharacterTile(character))
+				* ROLLS;
+		for (int r = 0; r < out.length; r++) {
+			out[r] = 0;
+		}
+		for (int i = 0; i < ROLLS; i++) {
+			double p = Dice.getProbability(Dice.MIN_RESULT + i);
+			for (int rooms = table[base + i]; rooms != 0; rooms &= rooms - 1) {
+				out[Integer.numberOfTrailingZeros(rooms)] += p;
+			}
+		}
+	}
+
+	/**
+	 * Fills in the table for a range of tiles, splitting the range in half
+	 * until it is small.
+	 */
+	@SuppressWarnings("serial")
+	private class Build extends RecursiveAction {
+		private int from;
+		private int to;
+
+		public Build(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Build(from, middle), new Build(middle, to));
+				return;
+			}
+			Search search = new Search(graph.size());
+			for (int t = from; t < to; t++) {
+				byte kind = graph.getKind(t);
+				if (kind == TileGraph.PATH) {
+					search.fromTile(t, tileRooms, t * ROLLS);
+				} else if (kind != TileGraph.WALL) {
+					System.arraycopy(roomRooms, graph.getRoom(t) * ROLLS,
+							tileRooms, t * ROLLS, ROLLS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A breadth first search to the doors within the largest roll, reusing
+	 * its arrays.
+	 */
+	private class Search {
+		private int[] marks;
+		private int[] distances;
+		private int[] queue;
+		private int[] nearest;
+		private int mark;
+
+		public Search(int size) {
+			marks = new int[size];
+			distances = new int[size];
+			queue = new int[size];
+			nearest = new int[graph.getNumberRooms()];
+		}
+
+		public void fromTile(int tile, int[] out, int position) {
+			mark++;
+			search(visit(tile, 0), -1, out, position);
+		}
+
+		public void fromRoom(int room, int[] out, int position) {
+			mark++;
+			int tail = 0;
+			for (int i = 0; i < graph.getNumberDoors(room); i++) {
+				tail = visit(graph.getDoor(room, i), tail);
+			}
+			search(tail, room, out, position);
+			int passage = graph.getPassage(room);
+			if (passage >= 0) {
+				for (int i = 0; i < ROLLS; i++) {
+					out[position + i] |= 1 << passage;
+				}
+			}
+		}
+
+		private int visit(int tile, int tail) {
+			marks[tile] = mark;
+			distances[tile] = 0;
+			queue[tail] = tile;
+			return tail + 1;
+		}
+
+		/**
+		 * Search from the queued tiles and write the rooms in reach of each
+		 * roll.
+		 */
+		private void search(int tail, int fromRoom, int[] out, int position) {
+			for (int r = 0; r < nearest.length; r++) {
+				nearest[r] = Integer.MAX_VALUE;
+			}
+			int head = 0;
+			while (head < tail) {
+				int tile = queue[head++];
+				int d = distances[tile];
+				int room = graph.getRoom(tile);
+				if (graph.getKind(tile) == TileGraph.DOOR && room != fromRoom
+						&& nearest[room] == Integer.MAX_VALUE) {
+					nearest[room] = d;
+				}
+				if (d == Dice.MAX_RESULT) {
+					continue;
+				}
+				int end = graph.getNeighbourStart(tile + 1);
+				for (int i = graph.getNeighbourStart(tile); i < end; i++) {
+					int next = graph.getNeighbour(i);
+					if (marks[next] != mark) {
+						marks[next] = mark;
+						distances[next] = d + 1;
+						queue[tail++] = next;
+					}
+				}
+			}
+			for (int i = 0; i < ROLLS; i++) {
+				int rooms = 0;
+				for (int r = 0; r < nearest.length; r++) {
+					if (nearest[r] <= Dice.MIN_RESULT + i) {
+						rooms |= 1 << r;
+					}
+				}
+				out[position + i] = rooms;
+			}
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package cluedo.board;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cluedo.game.Dice;
+import cluedo.game.GameState;
+
+/**
+ * Answers how many turns it takes on average to reach a room, rolling two
+ * dice each turn and moving as well as possible. The board is condensed into
+ * a graph of rooms and corridor junctions (path tiles where corridors meet or
+ * end), with an edge wherever one can be walked to from the other within a
+ * single roll, weighted by the walking distance. Entering any door of a room
+ * enters the room, and a room with a secret passage also leads to the other
+ * end of it in one turn.
+ * 
+ * For every room, value iteration over the condensed graph finds the
+ * expected turns from each node, where a turn costs one plus the best node in
+ * reach averaged over the 2d6 results. Every tile then gets its value from
+ * the nodes in reach of it, so a query is one array lookup. Stopping in the
+ * middle of a corridor is not modelled, which never makes a route look
+ * shorter than it is.
+ * 
+ * Planners are built once per map and shared, see
+ * {@link #forGraph(TileGraph)}. A planner is never changed after it is built,
+ * so it can be used from many threads.
+ */
+public class RoutePlanner {
+
+	// planners already built, by map
+	private static final Map<TileGraph, RoutePlanner> CACHE =
+			new HashMap<TileGraph, RoutePlanner>();
+
+	// value iteration stops when no value changes by more than this
+	private static final double TOLERANCE = 1e-9;
+	private static final int MAX_SWEEPS = 10000;
+
+	// planner fields
+	private final TileGraph graph;
+	private final int numberRooms;
+	private final int numberNodes;
+	private final int[] nodeOfTile;
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+	private final int[] edgeLengths;
+	private final double[] nodeTurns;
+	private final double[] tileTurns;
+
+	// best node value in reach of each roll, while building
+	private double[] best = new double[Dice.MAX_RESULT - Dice.MIN_RESULT + 1];
+
+	/**
+	 * Returns the planner of a map, building it the first time the map is
+	 * asked for.
+	 * 
+	 * @param graph
+	 *            The compiled board of the map.
+	 * @return The planner.
+	 */
+	public static RoutePlanner forGraph(TileGraph graph) {
+		synchronized (CACHE) {
+			RoutePlanner planner = CACHE.get(graph);
+			if (planner == null) {
+				planner = new RoutePlanner(graph);
+				CACHE.put(graph, planner);
+			}
+			return planner;
+		}
+	}
+
+	/**
+	 * Build a planner, condensing the board and solving every room.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 */
+	private RoutePlanner(TileGraph graph) {
+		this.graph = graph;
+		numberRooms = graph.getNumberRooms();
+		int size = graph.size();
+
+		// rooms are the first nodes, then the junctions
+		nodeOfTile = new int[size];
+		Arrays.fill(nodeOfTile, -1);
+		int n = numberRooms;
+		for (int t = 0; t < size; t++) {
+			if (graph.getKind(t) == TileGraph.PATH
+					&& graph.getNeighbourStart(t + 1)
+							- graph.getNeighbourStart(t) != 2) {
+				nodeOfTile[t] = n++;
+			}
+		}
+		numberNodes = n;
+
+		// the nodes in reach of every node, nearest first
+		Search search = new Search(size, n);
+		List<int[]> reached = new ArrayList<int[]>();
+		int edges = 0;
+		for (int node = 0; node < numberRooms; node++) {
+			reached.add(search.reachFromRoom(node));
+		}
+		for (int t = 0; t < size; t++) {
+			if (nodeOfTile[t] >= 0) {
+				reached.add(search.reachFromTile(t));
+			}
+		}
+		for (int[] pairs : reached) {
+			edges += pairs.length / 2;
+		}
+		edgeOffsets = new int[n + 1];
+		edgeTargets = new int[edges];
+		edgeLengths = new int[edges];
+		for (int node = 0; node < n; node++) {
+			int[] pairs = reached.get(node);
+			int e = edgeOffsets[node];
+			for (int i = 0; i < pairs.length; i += 2, e++) {
+				edgeTargets[e] = pairs[i];
+				edgeLengths[e] = pairs[i + 1];
+			}
+			edgeOffsets[node + 1] = e;
+		}
+
+		// solve every room, then give every tile its value
+		nodeTurns = new double[numberRooms * n];
+		for (int room = 0; room < numberRooms; room++) {
+			solve(room);
+		}
+		tileTurns = new double[numberRooms * size];
+		for (int t = 0; t < size; t++) {
+			int[] pairs = graph.getKind(t) == TileGraph.PATH
+					&& nodeOfTile[t] < 0 ? search.reachFromTile(t) : null;
+			for (int room = 0; room < numberRooms; room++) {
+				tileTurns[room * size + t] = tileValue(t, room, pairs);
+			}
+		}
+	}
+
+	/**
+	 * Value iteration for the expected turns to reach a room from every node.
+	 */
+	private void solve(int room) {
+		int base = room * numberNodes;
+		Arrays.fill(nodeTurns, base, base + numberNodes,
+				Double.POSITIVE_INFINITY);
+		nodeTurns[base + room] = 0;
+		for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+			double change = 0;
+			for (int node = 0; node < numberNodes; node++) {
+				if (node == room) {
+					continue;
+				}
+				double old = nodeTurns[base + node];
+				double value = turn(edgeTargets, edgeLengths,
+						edgeOffsets[node], edgeOffsets[node + 1], base);
+				if (node < numberRooms && graph.getPassage(node) >= 0) {
+					value = Math.min(value,
+							1 + nodeTurns[base + graph.getPassage(node)]);
+				}
+				if (value < old) {
+					change = Math.max(change, old - value);
+					nodeTurns[base + node] = value;
+				}
+			}
+			if (change < TOLERANCE) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the expected turns of one turn and then the rest, moving to the
+	 * best node in reach of the roll.
+	 * 
+	 * @param targets
+	 *            The reachable nodes, nearest first.
+	 * @param lengths
+	 *            The distances to the nodes.
+	 * @param start
+	 *            The position of the first node in reach.
+	 * @param end
+	 *            The position after the last node in reach.
+	 * @param base
+	 *            The position of the solved room in the node values.
+	 * @return The expected turns.
+	 */
+	private double turn(int[] targets, int[] lengths, int start, int end,
+			int base) {
+		// the best node in reach of each roll
+		double nearest = Double.POSITIVE_INFINITY;
+		int e = start;
+		for (int i = 0; i < best.length; i++) {
+			while (e < end && lengths[e] <= Dice.MIN_RESULT + i) {
+				nearest = Math.min(nearest, nodeTurns[base + targets[e]]);
+				e++;
+			}
+			best[i] = nearest;
+		}
+
+		// the nodes in reach only get better with the roll, so the best plan
+		// stays put on the rolls below some result and moves on the rest
+		double value = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < best.length; k++) {
+			double stay = 0;
+			double expected = 0;
+			for (int i = 0; i < best.length; i++) {
+				double p = Dice.getProbability(Dice.MIN_RESULT + i);
+				if (i < k) {
+					stay += p;
+				} else {
+					expected += p * best[i];
+				}
+			}
+			value = Math.min(value, (1 + expected) / (1 - stay));
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the expected turns to reach a room from a tile.
+	 */
+	private double tileValue(int tile, int room, int[] pairs) {
+		int base = room * numberNodes;
+		if (graph.getKind(tile) == TileGraph.WALL) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (graph.getKind(tile) != TileGraph.PATH) {
+			// standing on a door or room tile is being in the room
+			return nodeTurns[base + graph.getRoom(tile)];
+		}
+		if (pairs == null) {
+			return nodeTurns[base + nodeOfTile[tile]];
+		}
+
+		int count = pairs.length / 2;
+		int[] targets = new int[count];
+		int[] lengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			targets[i] = pairs[2 * i];
+			lengths[i] = pairs[2 * i + 1];
+		}
+		return turn(targets, lengths, 0, count, base);
+	}
+
+	/**
+	 * Returns the expected turns for a character to reach a room.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param character
+	 *            The character id.
+	 * @param room
+	 *            The room id.
+	 * @return The expected turns, 0 if the character is in the room and
+	 *         infinity if they cannot reach it.
+	 */
+	public double getExpectedTurns(GameState state, int character, int room) {
+		int from = state.getCharacterRoom(character);
+		if (from >= 0) {
+			return getExpectedTurnsFromRoom(from, room);
+		}
+		return getExpectedTurns(state.getCharacterTile(character), room);
+	}
+
+	/**
+	 * Returns the expected turns to reach a room from a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @param room
+	 *            The room id.
+	 * @return The expected turns, infinity if the room cannot be reached.
+	 */
+	public double getExpectedTurns(int tile, int room) {
+		return tileTurns[room * graph.size() + tile];
+	}
+
+	/**
+	 * Returns the expected turns to reach a room from another.
+	 * 
+	 * @param from
+	 *            The room id to start in.
+	 * @param to
+	 *            The room id to reach.
+	 * @return The expected turns, infinity if the room cannot be reached.
+	 */
+	public double getExpectedTurnsFromRoom(int from, int to) {
+		return nodeTurns[to * numberNodes + from];
+	}
+
+	/**
+	 * Returns which of some rooms a character can reach soonest, for picking
+	 * where to make a suggestion.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param character
+	 *            The character id.
+	 * @param rooms
+	 *            A bitmask of the room ids to choose from.
+	 * @return The room id, -1 if none of the rooms can be reached.
+	 */
+	public int getNearestRoom(GameState state, int character, int rooms) {
+		int nearest = -1;
+		double turns = Double.POSITIVE_INFINITY;
+		for (int r = rooms; r != 0; r &= r - 1) {
+			int room = Integer.numberOfTrailingZeros(r);
+			double t = getExpectedTurns(state, character, room);
+			if (t < turns) {
+				nearest = room;
+				turns = t;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Returns which of some rooms can be reached soonest from a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @param rooms
+	 *            A bitmask of the room ids to choose from.
+	 * @return The room id, -1 if none of the rooms can be reached.
+	 */
+	public int getNearestRoom(int tile, int rooms) {
+		int nearest = -1;
+		double turns = Double.POSITIVE_INFINITY;
+		for (int r = rooms; r != 0; r &= r - 1) {
+			int room = Integer.numberOfTrailingZeros(r);
+			double t = getExpectedTurns(tile, room);
+			if (t < turns) {
+				nearest = room;
+				turns = t;
+			}
+		}
+		return nearest;
+	}
+
+	public int getNumberNodes() {
+		return numberNodes;
+	}
+
+	/**
+	 * A breadth first search to the nodes within a roll, reusing its arrays.
+	 */
+	private class Search {
+		private int[] marks;
+		private int[] distances;
+		private int[] queue;
+		private int mark;
+		private int[] found;
+		private int[] pairs;
+
+		public Search(int size, int nodes) {
+			marks = new int[size];
+			distances = new int[size];
+			queue = new int[size];
+			found = new int[nodes];
+			pairs = new int[2 * nodes];
+		}
+
+		/**
+		 * Returns the nodes in reach of a room as pairs of node and distance,
+		 * nearest first. The room is left by its doors and is not in reach
+		 * of itself.
+		 */
+		public int[] reachFromRoom(int room) {
+			mark++;
+			int tail = 0;
+			for (int i = 0; i < graph.getNumberDoors(room); i++) {
+				tail = visit(graph.getDoor(room, i), 0, tail);
+			}
+			return search(tail, room);
+		}
+
+		/**
+		 * Returns the nodes in reach of a tile as pairs of node and distance,
+		 * nearest first, leaving out the tile itself.
+		 */
+		public int[] reachFromTile(int tile) {
+			mark++;
+			return search(visit(tile, 0, 0), nodeOfTile[tile]);
+		}
+
+		private int visit(int tile, int distance, int tail) {
+			marks[tile] = mark;
+			distances[tile] = distance;
+			queue[tail] = tile;
+			return tail + 1;
+		}
+
+		private int[] search(int tail, int self) {
+			int count = 0;
+			int head = 0;
+			while (head < tail) {
+				int tile = queue[head++];
+				int d = distances[tile];
+				int node = graph.getKind(tile) == TileGraph.DOOR ? graph
+						.getRoom(tile) : nodeOfTile[tile];
+				if (node >= 0 && node != self && found[node] != mark) {
+					// breadth first, so the first time is the nearest
+					found[node] = mark;
+					pairs[count++] = node;
+					pairs[count++] = d;
+				}
+				if (d == Dice.MAX_RESULT) {
+					continue;
+				}
+				int end = graph.getNeighbourStart(tile + 1);
+				for (int i = graph.getNeighbourStart(tile); i < end; i++) {
+					int next = graph.getNeighbour(i);
+					if (marks[next] != mark) {
+						tail = visit(next, d + 1, tail);
+					}
+				}
+			}
+			return Arrays.copyOf(pairs, count);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package cluedo.board;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import cluedo.tiles.DoorTile;
+import cluedo.tiles.PathTile;
+import cluedo.tiles.RoomTile;
+import cluedo.tiles.Tile;
+
+/**
+ * The board compiled into flat arrays for searches that run many times a
+ * second. Tiles are numbered y * width + x and the steps a character can take
+ * between them are stored as adjacency lists packed into one array, the
+ * neighbours of tile i being neighbours[offsets[i]] up to
+ * neighbours[offsets[i + 1]]. The same steps as {@link Dijkstra} are allowed:
+ * between adjacent path and door tiles, except across the walls the map
+ * marks as blocked.
+ * 
+ * The graph is never changed after it is built, so it can be shared between
+ * threads.
+ */
+public class TileGraph {
+
+	// kinds of tile
+	public static final byte WALL = 0;
+	public static final byte PATH = 1;
+	public static final byte DOOR = 2;
+	public static final byte ROOM = 3;
+
+	// graph fields
+	private final CompiledMap map;
+	private final int width;
+	private final int height;
+	private final byte[] kinds;
+	private final byte[] tileRooms;
+	private final int[] offsets;
+	private final int[] neighbours;
+	private final int[][] doors;
+	private final int[][] roomTiles;
+	private final int[] passages;
+
+	/**
+	 * Compile a board.
+	 * 
+	 * @param tiles
+	 *            The board tiles by location.
+	 * @param rooms
+	 *            The rooms of the board.
+	 * @param map
+	 *            The compiled map the tiles were built from, for its size and
+	 *            the walls the tiles do not show.
+	 */
+	public TileGraph(Map<Location, Tile> tiles, Collection<Room> rooms,
+			CompiledMap map) {
+		this.map = map;
+		this.width = map.getWidth();
+		this.height = map.getHeight();
+		int size = width * height;
+		kinds = new byte[size];
+		tileRooms = new byte[size];
+		for (int i = 0; i < size; i++) {
+			Tile t = tiles.get(new Location(i % width, i / width));
+			kinds[i] = t instanceof PathTile ? PATH : t instanceof DoorTile ? DOOR
+					: t instanceof RoomTile ? ROOM : WALL;
+			tileRooms[i] = -1;
+		}
+
+		// rooms by id, with their doors, tiles and passages, tiles in order
+		doors = new int[rooms.size()][];
+		roomTiles = new int[rooms.size()][];
+		passages = new int[rooms.size()];
+		for (Room room : rooms) {
+			int id = room.getId();
+			doors[id] = new int[room.getEntrances().size()];
+			int n = 0;
+			for (DoorTile door : room.getEntrances()) {
+				doors[id][n] = index(door.getLocation());
+				tileRooms[doors[id][n++]] = (byte) id;
+			}
+			Arrays.sort(doors[id]);
+			roomTiles[id] = new int[room.getRoomTiles().size()];
+			n = 0;
+			for (RoomTile tile : room.getRoomTiles()) {
+				roomTiles[id][n] = index(tile.getLocation());
+				tileRooms[roomTiles[id][n++]] = (byte) id;
+			}
+			Arrays.sort(roomTiles[id]);
+			passages[id] = room.hasPassage() ? room.getPassage().getId() : -1;
+		}
+
+		// count the steps from every tile, then fill them in
+		offsets = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			offsets[i + 1] = offsets[i] + steps(i, null, 0);
+		}
+		neighbours = new int[offsets[size]];
+		for (int i = 0; i < size; i++) {
+			steps(i, neighbours, offsets[i]);
+		}
+	}
+
+	/**
+	 * Finds the tiles a character can step to from a tile.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @param out
+	 *            The array to write the steps into, null to only count them.
+	 * @param start
+	 *            The position to write the first step at.
+	 * @return The number of steps.
+	 */
+	private int steps(int tile, int[] out, int start) {
+		if (!isWalkable(tile)) {
+			return 0;
+		}
+		int count = 0;
+		for (int d = 0; d < 4; d++) {
+			// left, right, up, down
+			int x = tile % width + (d == 0 ? -1 : d == 1 ? 1 : 0);
+			int y = tile / width + (d == 2 ? -1 : d == 3 ? 1 : 0);
+			if (x < 0 || x >= width || y < 0 || y >= height
+					|| !isWalkable(y * width + x)
+					|| map.isBlocked(tile, y * width + x)) {
+				continue;
+			}
+			if (out != null) {
+				out[start + count] = y * width + x;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = width;
+		result = 31 * result + Arrays.hashCode(kinds);
+		result = 31 * result + Arrays.hashCode(tileRooms);
+		result = 31 * result + Arrays.hashCode(neighbours);
+		return 31 * result + Arrays.hashCode(passages);
+	}
+
+	/**
+	 * Two graphs are equal if they compile the same map, so results computed
+	 * for a map can be shared by every board of it.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof TileGraph))
+			return false;
+		TileGraph other = (TileGraph) obj;
+		return width == other.width && height == other.height
+				&& Arrays.equals(kinds, other.kinds)
+				&& Arrays.equals(tileRooms, other.tileRooms)
+				&& Arrays.equals(offsets, other.offsets)
+				&& Arrays.equals(neighbours, other.neighbours)
+				&& Arrays.deepEquals(doors, other.doors)
+				&& Arrays.equals(passages, other.passages);
+	}
+
+	/**
+	 * Returns the index of a location.
+	 * 
+	 * @param loc
+	 *            The location.
+	 * @return The tile index.
+	 */
+	public int index(Location loc) {
+		return loc.getY() * width + loc.getX();
+	}
+
+	/**
+	 * Checks if characters can walk on a tile, path and door tiles.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return True if the tile is walkable.
+	 */
+	public boolean isWalkable(int tile) {
+		return kinds[tile] == PATH || kinds[tile] == DOOR;
+	}
+
+	// get methods below to return the compiled board
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int size() {
+		return kinds.length;
+	}
+
+	public byte getKind(int tile) {
+		return kinds[tile];
+	}
+
+	/**
+	 * Returns the room a door or room tile belongs to.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The room id, -1 for other tiles.
+	 */
+	public int getRoom(int tile) {
+		return tileRooms[tile];
+	}
+
+	/**
+	 * Returns where the neighbours of a tile start in the neighbour array.
+	 * 
+	 * @param tile
+	 *            The tile index.
+	 * @return The first neighbour position, the neighbours of the tile end at
+	 *         the first neighbour position of the next tile.
+	 */
+	public int getNeighbourStart(int tile) {
+		return offsets[tile];
+	}
+
+	public int getNeighbour(int position) {
+		return neighbours[position];
+	}
+
+	public int getNumberRooms() {
+		return doors.length;
+	}
+
+	public int getNumberDoors(int room) {
+		return doors[room].length;
+	}
+
+	public int getDoor(int room, int i) {
+		return doors[room][i];
+	}
+
+	public int getNumberRoomTiles(int room) {
+		return roomTiles[room].length;
+	}
+
+	public int getRoomTile(int room, int i) {
+		return roomTiles[room][i];
+	}
+
+	/**
+	 * Returns the room the secret passage of a room leads to.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @return The destination room id, -1 if the room has no passage.
+	 */
+	public int getPassage(int room) {
+		return passages[room];
+	}
+}
@@ -6,26 +6,53 @@ import java.awt.Image;
 import static cluedo.view.Canvas.loadImage;
 
 /**
- * Represents a cluedo game card with a name.
+ * Represents a cluedo game card with a name. Each card also has a small
+ * integer id so that sets of cards (hands, suggestions, the solution) can be
+ * represented as long bitmasks, with bit i set when the card with id i is in
+ * the set.
  */
 public abstract class Card {
 
 	private String name;
 	private Image image;
+	private int id;
 
 	/**
-	 * Setup a new card with given name.
+	 * Setup a new card with given name and id.
 	 * 
 	 * @param name
 	 *            The given card name.
+	 * @param id
+	 *            The unique card id, or -1 if the card is not part of the
+	 *            deck.
 	 */
-	public Card(String name) {
+	public Card(String name, int id) {
 		this.name = name;
+		this.id = id;
 
 		// load the associated image of this card
 		this.image = loadImage("cards/" + name + ".jpg");
 	}
 
+	/**
+	 * Pick one of the cards in a card bitmask given a random number in the
+	 * range [0, 1).
+	 * 
+	 * @param mask
+	 *            The card bitmask to pick from, must not be empty.
+	 * @param random
+	 *            A random number in the range [0, 1).
+	 * @return The id of the picked card.
+	 */
+	public static int pick(long mask, double random) {
+		// skip over a random number of the set bits
+		int skip = (int) (random * Long.bitCount(mask));
+		for (int i = 0; i < skip; i++) {
+			mask &= mask - 1;
+		}
+		return Long.numberOfTrailingZeros(mask);
+	}
+
 	@Override
 	public String toString() {
 		return name;
@@ -39,8 +66,24 @@ public abstract class Card {
 		return image;
 	}
 
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns this card as a single bit card bitmask.
+	 * 
+	 * @return The card bitmask, 0 if the card is not part of the deck.
+	 */
+	public long getMask() {
+		return id < 0 ? 0 : 1L << id;
+	}
+
 	@Override
 	public int hashCode() {
+		if (id >= 0) {
+			return id;
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
@@ -56,6 +99,10 @@ public abstract class Card {
 		if (getClass() != obj.getClass())
 			return false;
 		Card other = (Card) obj;
+		// cards in the deck are identified by their id alone
+		if (id >= 0 || other.id >= 0) {
+			return id == other.id;
+		}
 		if (name == null) {
 			if (other.name != null)
 				return false;
@@ -1,17 +1,32 @@
 package cluedo.cards;
 
+import cluedo.game.Registry;
+
 /**
  * Represents a character card.
  */
 public class CharacterCard extends Card {
 
 	/**
-	 * Setup a new character card.
+	 * Setup a new character card. The card id is the id the card has in the
+	 * standard deck.
 	 * 
 	 * @param name
 	 *            The given card name.
 	 */
 	public CharacterCard(String name) {
-		super(name);
+		super(name, Registry.getStandardCardId(Registry.CHARACTER, name));
+	}
+
+	/**
+	 * Setup a new character card with a given id.
+	 * 
+	 * @param name
+	 *            The given card name.
+	 * @param id
+	 *            The unique card id.
+	 */
+	public CharacterCard(String name, int id) {
+		super(name, id);
 	}
 }
\ No newline at end of file
@@ -1,17 +1,32 @@
 package cluedo.cards;
 
+import cluedo.game.Registry;
+
 /**
  * Represents a room card.
  */
 public class RoomCard extends Card {
 
 	/**
-	 * Setup a new room card.
+	 * Setup a new room card. The card id is the id the card has in the
+	 * standard deck.
 	 * 
 	 * @param name
 	 *            The given card name.
 	 */
 	public RoomCard(String name) {
-		super(name);
+		super(name, Registry.getStandardCardId(Registry.ROOM, name));
+	}
+
+	/**
+	 * Setup a new room card with a given id.
+	 * 
+	 * @param name
+	 *            The given card name.
+	 * @param id
+	 *            The unique card id.
+	 */
+	public RoomCard(String name, int id) {
+		super(name, id);
 	}
 }
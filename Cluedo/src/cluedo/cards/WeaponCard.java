@@ -1,17 +1,32 @@
 package cluedo.cards;
 
+import cluedo.game.Registry;
+
 /**
  * Represents a weapon card.
  */
 public class WeaponCard extends Card {
 
 	/**
-	 * /** Setup a new weapon card.
+	 * Setup a new weapon card. The card id is the id the card has in the
+	 * standard deck.
 	 * 
 	 * @param name
 	 *            The given card name.
 	 */
 	public WeaponCard(String name) {
-		super(name);
+		super(name, Registry.getStandardCardId(Registry.WEAPON, name));
+	}
+
+	/**
+	 * Setup a new weapon card with a given id.
+	 * 
+	 * @param name
+	 *            The given card name.
+	 * @param id
+	 *            The unique card id.
+	 */
+	public WeaponCard(String name, int id) {
+		super(name, id);
 	}
 }
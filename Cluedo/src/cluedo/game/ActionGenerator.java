@@ -0,0 +1,217 @@
+package cluedo.game;
+
+import java.util.Arrays;
+
+import cluedo.board.TileGraph;
+
+/**
+ * Lists the legal actions of the current player in a game state, for bots and
+ * simulations that try many actions a second. Actions are packed into ints
+ * and written into a buffer owned by the caller, and the movement search
+ * reuses its own arrays, so generating actions allocates nothing. A generator
+ * is not thread safe, each thread needs its own.
+ * 
+ * The rules are the ones {@link Game} enables buttons and moves with. Before
+ * suggesting a player can accuse, and if they have not moved, roll the dice
+ * or take the secret passage of their room. After rolling they can move to a
+ * tile within the roll not taken by a character, leaving a room by any of its
+ * doors. In a room they can suggest, until then. They can always end their
+ * turn.
+ * 
+ * An action is the kind in the top byte and the arguments below: the tile
+ * index of a move, the room id of a passage, and the character, room and
+ * weapon ids of a suggestion or accusation one byte each.
+ */
+public class ActionGenerator {
+
+	// kinds of action
+	public static final int ROLL = 1;
+	public static final int MOVE = 2;
+	public static final int PASSAGE = 3;
+	public static final int SUGGEST = 4;
+	public static final int ACCUSE = 5;
+	public static final int END_TURN = 6;
+
+	// generator fields
+	private TileGraph graph;
+	private int numberCharacters;
+	private int numberWeapons;
+
+	// movement search arrays, a tile is seen if its mark is the current one
+	private int[] marks;
+	private int[] distances;
+	private int[] queue;
+	private int mark;
+
+	/**
+	 * Setup a generator for a board.
+	 * 
+	 * @param graph
+	 *            The compiled board.
+	 * @param numberCharacters
+	 *            The number of characters.
+	 * @param numberWeapons
+	 *            The number of weapons.
+	 */
+	public ActionGenerator(TileGraph graph, int numberCharacters,
+			int numberWeapons) {
+		this.graph = graph;
+		this.numberCharacters = numberCharacters;
+		this.numberWeapons = numberWeapons;
+		marks = new int[graph.size()];
+		distances = new int[graph.size()];
+		queue = new int[graph.size()];
+	}
+
+	/**
+	 * Returns the most actions a state can have, the size of buffer to give
+	 * to {@link #generate(GameState, int, int[])}.
+	 * 
+	 * @return The largest action count.
+	 */
+	public int getMaxActions() {
+		int rooms = graph.getNumberRooms();
+		// roll, passage, end turn, moves, suggestions and accusations
+		return 3 + graph.size() + numberCharacters * numberWeapons
+				* (1 + rooms);
+	}
+
+	/**
+	 * Write the legal actions of the current player into a buffer.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @param character
+	 *            The id of the character the current player plays.
+	 * @param buffer
+	 *            The buffer to write into, at least
+	 *            {@link #getMaxActions()} long.
+	 * @return The number of actions written.
+	 */
+	public int generate(GameState state, int character, int[] buffer) {
+		if (state.hasPhase(GameState.ENDED)) {
+			return 0;
+		}
+		int count = 0;
+		int room = state.getCharacterRoom(character);
+		boolean moved = state.hasPhase(GameState.MOVED);
+		boolean suggested = state.hasPhase(GameState.SUGGESTED);
+		if (!suggested && !moved) {
+			if (!state.hasPhase(GameState.ROLLED)) {
+				buffer[count++] = ROLL << 24;
+			}
+			if (room >= 0 && graph.getPassage(room) >= 0) {
+				buffer[count++] = (PASSAGE << 24) | graph.getPassage(room);
+			}
+		}
+		if (state.hasPhase(GameState.ROLLED) && !moved && state.getRoll() > 0) {
+			count = moves(state, character, room, buffer, count);
+		}
+		if (!suggested) {
+			if (room >= 0) {
+				for (int c = 0; c < numberCharacters; c++) {
+					for (int w = 0; w < numberWeapons; w++) {
+						buffer[count++] = cards(SUGGEST, c, room, w);
+					}
+				}
+			}
+			for (int c = 0; c < numberCharacters; c++) {
+				for (int r = 0; r < graph.getNumberRooms(); r++) {
+					for (int w = 0; w < numberWeapons; w++) {
+						buffer[count++] = cards(ACCUSE, c, r, w);
+					}
+				}
+			}
+		}
+		buffer[count++] = END_TURN << 24;
+		return count;
+	}
+
+	/**
+	 * Write the moves within the roll into a buffer with a breadth first
+	 * search from the character tile, or from every door of their room.
+	 * 
+	 * @return The new number of actions in the buffer.
+	 */
+	private int moves(GameState state, int character, int room,
+			int[] buffer, int count) {
+		if (++mark == 0) {
+			// the marks wrapped around, forget every old one
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+		// the other characters block the way
+		for (int c = 0; c < numberCharacters; c++) {
+			if (c != character) {
+				marks[state.getCharacterTile(c)] = mark;
+			}
+		}
+		int head = 0;
+		int tail = 0;
+		if (room >= 0) {
+			for (int i = 0; i < graph.getNumberDoors(room); i++) {
+				int door = graph.getDoor(room, i);
+				if (marks[door] == mark) {
+					continue;
+				}
+				marks[door] = mark;
+				distances[door] = 0;
+				queue[tail++] = door;
+			}
+		} else {
+			int start = state.getCharacterTile(character);
+			marks[start] = mark;
+			distances[start] = 0;
+			queue[tail++] = start;
+		}
+		int roll = state.getRoll();
+		while (head < tail) {
+			int tile = queue[head++];
+			// a character cannot stop where they start or on the doors of
+			// the room they leave
+			if (distances[tile] > 0) {
+				buffer[count++] = (MOVE << 24) | tile;
+			}
+			if (distances[tile] == roll) {
+				continue;
+			}
+			int end = graph.getNeighbourStart(tile + 1);
+			for (int n = graph.getNeighbourStart(tile); n < end; n++) {
+				int next = graph.getNeighbour(n);
+				if (marks[next] != mark) {
+					marks[next] = mark;
+					distances[next] = distances[tile] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static int cards(int kind, int character, int room, int weapon) {
+		return (kind << 24) | (character << 16) | (room << 8) | weapon;
+	}
+
+	// methods below to unpack an action
+
+	public static int getKind(int action) {
+		return action >>> 24;
+	}
+
+	public static int getTile(int action) {
+		return action & 0xFFFFFF;
+	}
+
+	public static int getCharacter(int action) {
+		return (action >>> 16) & 0xFF;
+	}
+
+	public static int getRoom(int action) {
+		return getKind(action) == PASSAGE ? action & 0xFF
+				: (action >>> 8) & 0xFF;
+	}
+
+	public static int getWeapon(int action) {
+		return action & 0xFF;
+	}
+}
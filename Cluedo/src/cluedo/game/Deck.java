@@ -1,15 +1,17 @@
 package cluedo.game;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 
 import cluedo.cards.*;
 
 /**
  * Represents the cluedo deck of cards. Is constructed to hold the complete deck
  * and can perform operations such as generating solutions and dealing cards to
- * players.
+ * players. Each card is given an id by its position in the complete deck
+ * (characters, then rooms, then weapons) so card sets can be stored as long
+ * bitmasks, which limits a deck to 64 cards.
  */
 public class Deck {
 
@@ -19,9 +21,18 @@ public class Deck {
 	private List<RoomCard> roomCards;
 	private List<WeaponCard> weaponCards;
 	private List<Card> solution;
+	private Card[] cards;
+	private long solutionMask;
+	private long characterMask;
+	private long roomMask;
+	private long weaponMask;
+	private SplittableRandom random;
+	private int[] order;
+	private int remaining;
 
 	/**
-	 * Setup a new complete deck of shuffled cards.
+	 * Setup a new complete deck of cards with an unseeded random number
+	 * generator.
 	 * 
 	 * @param characters
 	 *            List of possible cluedo characters.
@@ -31,6 +42,26 @@ public class Deck {
 	 *            List of possible cluedo weapons.
 	 */
 	public Deck(String[] characters, String[] rooms, String[] weapons) {
+		this(characters, rooms, weapons, new SplittableRandom());
+	}
+
+	/**
+	 * Setup a new complete deck of cards, shuffled when the solution is
+	 * generated.
+	 * 
+	 * @param characters
+	 *            List of possible cluedo characters.
+	 * @param rooms
+	 *            List of possible cluedo rooms.
+	 * @param weapons
+	 *            List of possible cluedo weapons.
+	 * @param random
+	 *            The random number generator used for shuffling.
+	 */
+	public Deck(String[] characters, String[] rooms, String[] weapons,
+			SplittableRandom random) {
+		this.random = random;
+
 		// define a new deck of cards
 		deck = new ArrayList<Card>();
 		
@@ -39,75 +70,86 @@ public class Deck {
 		roomCards = new ArrayList<RoomCard>();
 		weaponCards = new ArrayList<WeaponCard>();
 
+		// lookup table from card id to card
+		cards = new Card[characters.length + rooms.length + weapons.length];
+		if (cards.length > Long.SIZE) {
+			throw new IllegalArgumentException("Too many cards for a card mask: "
+					+ cards.length);
+		}
+		int id = 0;
+
 		// add character cards
 		for (int i = 0; i < characters.length; i++) {
-			CharacterCard character = new CharacterCard(characters[i]);
+			CharacterCard character = new CharacterCard(characters[i], id);
 			deck.add(character);
 			characterCards.add(character);
+			characterMask |= character.getMask();
+			cards[id++] = character;
 		}
 
 		// add room cards
 		for (int i = 0; i < rooms.length; i++) {
-			RoomCard room = new RoomCard(rooms[i]);
+			RoomCard room = new RoomCard(rooms[i], id);
 			deck.add(room);
 			roomCards.add(room);
+			roomMask |= room.getMask();
+			cards[id++] = room;
 		}
 
 		// add weapon cards
 		for (int i = 0; i < weapons.length; i++) {
-			WeaponCard weapon = new WeaponCard(weapons[i]);
+			WeaponCard weapon = new WeaponCard(weapons[i], id);
 			deck.add(weapon);
 			weaponCards.add(weapon);
+			weaponMask |= weapon.getMask();
+			cards[id++] = weapon;
 		}
 
-		// shuffle the complete deck of cards
-		Collections.shuffle(deck);
+		// reusable storage for the solution and the remaining card order
+		solution = new ArrayList<Card>(3);
+		order = new int[cards.length];
 	}
 
 	/**
 	 * Generate the solution cards or 'envelope' cards. One of each card type
 	 * will be selected at random to create the solution (character, room and
-	 * weapon cards). These cards will be removed from the deck.
+	 * weapon cards). These cards will be removed from the deck, and the
+	 * remaining cards are shuffled ready to be dealt. Can be called again to
+	 * set up a new game with the same deck.
 	 */
 	public void generateSolution() {
-		// define a set of solution cards
-		solution = new ArrayList<Card>();
-
-		// pick a character card from the deck
-		Card character = null;
-		int i = 0;
-		while (character == null) {
-			Card next = deck.get(i++);
-			if (next instanceof CharacterCard) {
-				character = next;
-				deck.remove(character);
-			}
-		}
+		// pick one card of each type directly from the card type lists
+		Card character = characterCards.get(random.nextInt(characterCards
+				.size()));
+		Card room = roomCards.get(random.nextInt(roomCards.size()));
+		Card weapon = weaponCards.get(random.nextInt(weaponCards.size()));
+		solution.clear();
 		solution.add(character);
+		solution.add(room);
+		solution.add(weapon);
+		solutionMask = character.getMask() | room.getMask() | weapon.getMask();
 
-		// pick a room card from the deck
-		Card room = null;
-		i = 0;
-		while (room == null) {
-			Card next = deck.get(i++);
-			if (next instanceof RoomCard) {
-				room = next;
-				deck.remove(room);
+		// collect the ids of the remaining cards
+		remaining = 0;
+		for (int id = 0; id < cards.length; id++) {
+			if ((solutionMask & (1L << id)) == 0) {
+				order[remaining++] = id;
 			}
 		}
-		solution.add(room);
 
-		// pick a weapon card from the deck
-		Card weapon = null;
-		i = 0;
-		while (weapon == null) {
-			Card next = deck.get(i++);
-			if (next instanceof WeaponCard) {
-				weapon = next;
-				deck.remove(weapon);
-			}
+		// shuffle the remaining card ids in place (Fisher-Yates)
+		for (int i = remaining - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+
+		// the deck now holds the shuffled remaining cards
+		deck.clear();
+		for (int i = 0; i < remaining; i++) {
+			deck.add(cards[order[i]]);
 		}
-		solution.add(weapon);
 	}
 
 	/**
@@ -121,13 +163,33 @@ public class Deck {
 	 *            The number f players in the game.
 	 */
 	public void dealCards(Player[] players, int numberPlayers) {
-		int i = 0;
+		// player i gets every numberPlayers-th card starting from card i
+		for (int i = 0; i < remaining; i++) {
+			players[i % numberPlayers].addCard(cards[order[i]]);
+		}
+
+		// the deck has now been dealt
+		deck.clear();
+		remaining = 0;
+	}
 
-		// while the deck still has cards remaining
-		while (deck.size() > 0) {
-			// deal a card to the next player
-			players[i].addCard(deck.remove(0));
-			i = (i + 1) % numberPlayers;
+	/**
+	 * Deal the remaining cards as card bitmasks without creating any objects.
+	 * Each hand gets the same cards {@link #dealCards(Player[], int)} would
+	 * give the matching player. Used by simulations which deal many games.
+	 * 
+	 * @param hands
+	 *            The array to write each player hand bitmask to.
+	 * @param numberPlayers
+	 *            The number of players in the game.
+	 */
+	public void dealHands(long[] hands, int numberPlayers) {
+		for (int p = 0; p < numberPlayers; p++) {
+			long hand = 0;
+			for (int i = p; i < remaining; i += numberPlayers) {
+				hand |= 1L << order[i];
+			}
+			hands[p] = hand;
 		}
 	}
 
@@ -152,4 +214,44 @@ public class Deck {
 	public List<Card> getSolution() {
 		return solution;
 	}
+
+	public long getSolutionMask() {
+		return solutionMask;
+	}
+
+	/**
+	 * Returns the card with the given id.
+	 * 
+	 * @param id
+	 *            The card id.
+	 * @return The card with that id.
+	 */
+	public Card getCard(int id) {
+		return cards[id];
+	}
+
+	/**
+	 * Returns the number of cards in the complete deck.
+	 * 
+	 * @return The number of cards.
+	 */
+	public int size() {
+		return cards.length;
+	}
+
+	public long getCardsMask() {
+		return characterMask | roomMask | weaponMask;
+	}
+
+	public long getCharacterMask() {
+		return characterMask;
+	}
+
+	public long getRoomMask() {
+		return roomMask;
+	}
+
+	public long getWeaponMask() {
+		return weaponMask;
+	}
 }
@@ -2,20 +2,37 @@ package cluedo.game;
 
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.util.SplittableRandom;
 
 import static cluedo.view.Canvas.loadImage;
 
 public class Dice {
 
+	// range of results of two dice
+	public static final int MIN_RESULT = 2;
+	public static final int MAX_RESULT = 12;
+
 	private int value1;
 	private int value2;
 	private Image face1;
 	private Image face2;
+	private SplittableRandom random;
 
 	/**
-	 * Setup the class
+	 * Setup the class with an unseeded random number generator.
 	 */
 	public Dice() {
+		this(new SplittableRandom());
+	}
+
+	/**
+	 * Setup the class.
+	 * 
+	 * @param random
+	 *            The random number generator used for rolling.
+	 */
+	public Dice(SplittableRandom random) {
+		this.random = random;
 		value1 = 0;
 		value2 = 0;
 	}
@@ -24,8 +41,8 @@ public class Dice {
 	 * Roll each dice separately for correct distribution.
 	 */
 	public void roll() {
-		value1 = (int) (Math.random() * 6 + 1);
-		value2 = (int) (Math.random() * 6 + 1);
+		value1 = random.nextInt(6) + 1;
+		value2 = random.nextInt(6) + 1;
 
 		// load the corresponding dice images for both dice values
 		face1 = loadImage("dice/" + value1 + ".jpg");
@@ -42,6 +59,20 @@ public class Dice {
 		return value1 + value2;
 	}
 
+	/**
+	 * Returns the chance of a result when rolling two dice.
+	 * 
+	 * @param result
+	 *            The sum of the two dice.
+	 * @return The chance of rolling the sum, 0 if it cannot be rolled.
+	 */
+	public static double getProbability(int result) {
+		if (result < MIN_RESULT || result > MAX_RESULT) {
+			return 0;
+		}
+		return (6 - Math.abs(result - 7)) / 36.0;
+	}
+
 	/**
 	 * Draw the dice with the given graphics object.
 	 * 
@@ -2,13 +2,19 @@ package cluedo.game;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
+import java.util.SplittableRandom;
 
 import cluedo.game.ClockThread;
+import cluedo.ai.BotDecision;
+import cluedo.ai.IsmctsBot;
 import cluedo.board.*;
 import cluedo.cards.Card;
+import cluedo.cards.CharacterCard;
+import cluedo.cards.RoomCard;
+import cluedo.cards.WeaponCard;
 import cluedo.control.Controller;
+import cluedo.inference.Knowledge;
 import cluedo.actions.*;
 import cluedo.tokens.CharacterToken;
 import cluedo.view.*;
@@ -30,6 +36,8 @@ public class Game {
 	private Room playerRoom;
 
 	// game fields
+	private long seed;
+	private SplittableRandom random;
 	private Deck deck;
 	private Dice dice;
 	private int winner;
@@ -37,6 +45,10 @@ public class Game {
 	private boolean moved;
 	private boolean suggested;
 	private boolean endTurn;
+	// computer player search settings
+	public static final int BOT_PARTICLES = 512;
+	public static final double BOT_EXPLORATION = 0.7;
+	public static final long BOT_MILLIS = 1000;
 	public static final String[] CHARACTERS = { "Miss Scarlett",
 			"Colonel Mustard", "Mrs. White", "The Reverend Green",
 			"Mrs. Peacock", "Professor Plum" };
@@ -47,14 +59,36 @@ public class Game {
 			"Lead Pipe", "Revolver", "Rope", "Spanner" };
 
 	/**
-	 * Setup a new game of Cluedo.
+	 * Setup a new game of Cluedo with a random seed.
 	 */
 	public Game() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Setup a new game of Cluedo. All randomness in the game (dice rolls,
+	 * weapon placement, the deck shuffle and refutations) comes from
+	 * generators split off a single generator seeded with the given seed, so
+	 * the game can be replayed from it.
+	 * 
+	 * @param seed
+	 *            The game seed.
+	 */
+	public Game(long seed) {
+		// setup the game random number generators
+		this.seed = seed;
+		random = new SplittableRandom(seed);
+
 		// setup game systems
-		dice = new Dice();
-		board = new Board(WEAPONS, ROOMS, dice);
+		dice = new Dice(random.split());
+		board = new Board(WEAPONS, ROOMS, dice, random.split());
+		// build the tables of the map while the game loads and plays, no
+		// turn waits for them
+		Progress tables = new Progress();
+		board.precompute(tables);
 		controller = new Controller(board, this);
 		frame = new Frame(board, controller);
+		frame.showProgress("building map tables", tables);
 		winner = 0;
 
 		// start the clock thread for continuous board updating
@@ -62,7 +96,10 @@ public class Game {
 		clk.start();
 
 		// generate a new complete deck
-		deck = new Deck(CHARACTERS, ROOMS, WEAPONS);
+		deck = new Deck(CHARACTERS, ROOMS, WEAPONS, random.split());
+		for (int id = 0; id < deck.size(); id++) {
+			board.getRegistry().register(deck.getCard(id));
+		}
 
 		// request the user for the number of users playing
 		numberPlayers = frame.numberPlayersRequestDialog();
@@ -76,6 +113,9 @@ public class Game {
 		// deal the remaining cards to the players
 		deck.dealCards(players, numberPlayers);
 
+		// give each player a table to deduce the card locations with
+		setupKnowledge();
+
 		// display the frame
 		frame.setVisible(true);
 	}
@@ -86,8 +126,39 @@ public class Game {
 	 */
 	public Game(String test) {
 		// setup system
-		dice = new Dice();
-		board = new Board(WEAPONS, ROOMS, dice);
+		random = new SplittableRandom();
+		dice = new Dice(random.split());
+		board = new Board(WEAPONS, ROOMS, dice, random.split());
+	}
+
+	/**
+	 * Setup a new game of Cluedo with no window, for benchmarks. The players
+	 * take the characters in order and the cards are dealt straight away.
+	 * 
+	 * @param seed
+	 *            The game seed.
+	 * @param numberPlayers
+	 *            The number of players.
+	 */
+	public Game(long seed, int numberPlayers) {
+		this.seed = seed;
+		random = new SplittableRandom(seed);
+		dice = new Dice(random.split());
+		board = new Board(WEAPONS, ROOMS, dice, random.split());
+		deck = new Deck(CHARACTERS, ROOMS, WEAPONS, random.split());
+		for (int id = 0; id < deck.size(); id++) {
+			board.getRegistry().register(deck.getCard(id));
+		}
+		this.numberPlayers = numberPlayers;
+		players = new Player[numberPlayers];
+		for (int i = 0; i < numberPlayers; i++) {
+			players[i] = new Player(board.getCharacterToken(CHARACTERS[i]),
+					"Player " + (i + 1), i + 1);
+			players[i].setNonRefutedCards(deck.getCardsMask());
+		}
+		deck.generateSolution();
+		deck.dealCards(players, numberPlayers);
+		setupKnowledge();
 	}
 
 	/**
@@ -132,6 +203,12 @@ public class Game {
 			suggested = false;
 			endTurn = false;
 
+			// let the computer play the turn of a computer player
+			if (currentPlayer.isComputer()) {
+				playBotTurn(currentPlayer, BOT_MILLIS, 0);
+				continue;
+			}
+
 			// enable the player to select another action until they end their
 			// turn
 			while (!endTurn) {
@@ -194,6 +271,85 @@ public class Game {
 		frame.playerWinnerDialog(players[winner - 1], deck.getSolution());
 	}
 
+	/**
+	 * Play the turn of a computer player: roll the dice, let the bot decide,
+	 * then walk or take the secret passage toward the room it chose and make
+	 * its suggestion or accusation. Works without a window.
+	 * 
+	 * @param player
+	 *            The computer player whose turn it is.
+	 * @param maxMillis
+	 *            The wall clock budget of the bot in milliseconds, 0 for none.
+	 * @param maxIterations
+	 *            The iteration budget of the bot, 0 for none.
+	 * @return The decision the bot made.
+	 */
+	public BotDecision playBotTurn(Player player, long maxMillis,
+			long maxIterations) {
+		currentPlayer = player;
+		board.setPlayer(player);
+		CharacterToken token = player.getToken();
+		Room room = board.roomIn(token);
+
+		// roll the dice and find where the player can move
+		dice.roll();
+		board.setValidTiles();
+		rolled = true;
+
+		// let the bot decide from what the player knows
+		IsmctsBot bot = player.getBot();
+		BotDecision decision = bot.decide(player.getKnowledge(),
+				board.getTileIndex(token.getLocation()),
+				board.getValidMoves(), board.getReachableRooms(), maxMillis,
+				maxIterations, random.nextLong());
+
+		if (decision.getType() == BotDecision.ACCUSE) {
+			long cards = decision.getCards();
+			performAction(player, room, new AccusationAction(
+					(CharacterCard) cardOf(cards, 0),
+					(RoomCard) cardOf(cards, 1), (WeaponCard) cardOf(cards, 2)));
+		} else {
+			// walk to the chosen tile, or take the passage to the chosen room
+			if (decision.getTile() >= 0) {
+				moved = board.moveTo(decision.getTile()) != null;
+			} else if (room != null && room.hasPassage()
+					&& room.getPassage().getId() == decision.getRoom()) {
+				performAction(player, room, new SecretPassageAction(room,
+						room.getPassage()));
+			}
+
+			// suggest if the player made it into the room
+			room = board.roomIn(token);
+			if (decision.getType() == BotDecision.SUGGEST && room != null
+					&& room.getId() == decision.getRoom()) {
+				long cards = decision.getCards();
+				performAction(player, room, new SuggestionAction(
+						(CharacterCard) cardOf(cards, 0),
+						(RoomCard) cardOf(cards, 1),
+						(WeaponCard) cardOf(cards, 2)));
+			}
+		}
+		endTurn = true;
+		return decision;
+	}
+
+	/**
+	 * Returns a card of a suggestion or accusation. The card ids run
+	 * characters, rooms then weapons, so the cards come in that order.
+	 * 
+	 * @param cards
+	 *            The card bitmask.
+	 * @param rank
+	 *            The position of the card in id order.
+	 * @return The card.
+	 */
+	private Card cardOf(long cards, int rank) {
+		for (int i = 0; i < rank; i++) {
+			cards &= cards - 1;
+		}
+		return deck.getCard(Long.numberOfTrailingZeros(cards));
+	}
+
 	/**
 	 * Creates an action that can be performed given an index and the player who
 	 * is making the action.
@@ -415,7 +571,9 @@ public class Game {
 			accusationCards.add(accusation.getWeapon());
 
 			// display the eliminated player information
-			frame.playerEliminatedDialog(player, accusationCards);
+			if (frame != null) {
+				frame.playerEliminatedDialog(player, accusationCards);
+			}
 		}
 
 		// no winner was decided
@@ -431,9 +589,7 @@ public class Game {
 	 */
 	private boolean testAccusation(AccusationAction accusation) {
 		// check the accusation action contains the same cards as the solution
-		return (deck.getSolution().contains(accusation.getCharacter())
-				&& deck.getSolution().contains(accusation.getRoom()) && deck
-				.getSolution().contains(accusation.getWeapon()));
+		return accusation.getMask() == deck.getSolutionMask();
 	}
 
 	/**
@@ -451,71 +607,128 @@ public class Game {
 	 */
 	private void performSuggestion(Player player, SuggestionAction suggestion,
 			Room roomIn) {
-		Card refutedCard;
-		
+		int refuted = resolveSuggestion(player, suggestion.getMask());
+
+		// nothing to show without a window
+		if (frame == null) {
+			return;
+		}
+
+		// if a suggested card was refuted by one of the other players
+		if (refuted >= 0) {
+			// print information that a suggested card was refuted
+			frame.displayRefutedInfoDialog(player, holderOf(refuted),
+					deck.getCard(refuted));
+		} else {
+			// print information that no suggested card was refuted
+			frame.displayNonRefutedDialog(player);
+		}
+	}
+
+	/**
+	 * Resolve a suggestion without showing it. Iterate clockwise through the
+	 * other players and the first one with one of the suggestion cards
+	 * refutes it, every player recording the result.
+	 * 
+	 * @param player
+	 *            The player performing the suggestion.
+	 * @param suggested
+	 *            The card bitmask of the suggestion.
+	 * @return The id of the refuted card, -1 if no one could refute.
+	 */
+	public int resolveSuggestion(Player player, long suggested) {
 		// iterate through all the other players clockwise
 		int i = player.getId() - 1;
 		i = (i + 1) % numberPlayers;
 		while (i != (player.getId() - 1)) {
 			// compare the suggestion and current player hand
-			refutedCard = checkForRefute(suggestion, players[i].getHand());
+			int refuted = checkForRefute(suggested, players[i].getHand());
 
 			// if a suggested card was refuted by the current player
-			if (refutedCard != null) {
+			if (refuted >= 0) {
 				// forget the card that was refuted
-				player.refuteCard(refutedCard);
-
-				// print information that a suggested card was refuted
-				frame.displayRefutedInfoDialog(player, players[i], refutedCard);
+				player.refuteCard(deck.getCard(refuted));
 
-				// stop iterating through the players now
-				return;
+				// every player learns from the refutation
+				recordSuggestion(player, suggested, players[i], refuted);
+				return refuted;
 			}
 
 			// move onto the next player
 			i = (i + 1) % numberPlayers;
 		}
 
-		// print information that no suggested card was refuted
-		frame.displayNonRefutedDialog(player);
+		// every player learns that no one could refute
+		recordSuggestion(player, suggested, null, -1);
+		return -1;
 	}
 
 	/**
-	 * Check if the given player hand contains any of the suggested cards. If
-	 * there is more than one matching cards, return one at random.
+	 * Returns the player holding a card.
 	 * 
-	 * @param suggestion
-	 *            The given suggestion action.
-	 * @param hand
-	 *            The player hand to check against.
-	 * @return A card that intersects the hand and suggestion.
+	 * @param card
+	 *            The card id.
+	 * @return The player, null if the card is in the solution.
 	 */
-	private Card checkForRefute(SuggestionAction suggestion, HashSet<Card> hand) {
-		// build a list of cards that intersect the suggestion and the hand
-		List<Card> matches = new ArrayList<Card>();
-
-		// check the character suggestion
-		if (hand.contains(suggestion.getCharacter())) {
-			matches.add(suggestion.getCharacter());
+	private Player holderOf(int card) {
+		for (int i = 0; i < numberPlayers; i++) {
+			if ((players[i].getHand() & (1L << card)) != 0) {
+				return players[i];
+			}
 		}
+		return null;
+	}
 
-		// check the room suggestion
-		if (hand.contains(suggestion.getRoom())) {
-			matches.add(suggestion.getRoom());
+	/**
+	 * Let every player record the result of a suggestion in their knowledge
+	 * table. Only the suggester and the refuter know which card was shown.
+	 * 
+	 * @param suggester
+	 *            The player who made the suggestion.
+	 * @param suggestion
+	 *            The card bitmask of the suggestion.
+	 * @param refuter
+	 *            The player who refuted the suggestion, null if no one did.
+	 * @param refuted
+	 *            The id of the card that was shown, -1 if none.
+	 */
+	private void recordSuggestion(Player suggester, long suggestion,
+			Player refuter, int refuted) {
+		int refuterIndex = refuter == null ? -1 : refuter.getId() - 1;
+		for (int i = 0; i < numberPlayers; i++) {
+			// only the suggester and refuter saw the card
+			int shown = -1;
+			if (players[i] == suggester || players[i] == refuter) {
+				shown = refuted;
+			}
+			players[i].getKnowledge().recordSuggestion(suggester.getId() - 1,
+					suggestion, refuterIndex, shown);
+			players[i].updateNonRefuted();
 		}
+	}
 
-		// check the weapon suggestion
-		if (hand.contains(suggestion.getWeapon())) {
-			matches.add(suggestion.getWeapon());
-		}
+	/**
+	 * Check if the given player hand contains any of the suggested cards. If
+	 * there is more than one matching cards, return one at random.
+	 * 
+	 * @param suggestion
+	 *            The card bitmask of the suggestion.
+	 * @param hand
+	 *            The card bitmask of the player hand to check against.
+	 * @return The id of a card that intersects the hand and suggestion, -1 if
+	 *         there is none.
+	 */
+	private int checkForRefute(long suggestion, long hand) {
+		// the cards that intersect the suggestion and the hand
+		long matches = suggestion & hand;
 
 		// if there was intersecting cards return one of them at random
-		if (matches.size() > 0) {
-			return matches.get((int) (Math.random() * matches.size()));
+		if (matches != 0) {
+			return Card.pick(matches, random.nextDouble());
 		}
 
 		// no intersecting cards were found
-		return null;
+		return -1;
 	}
 
 	/**
@@ -557,6 +770,14 @@ public class Game {
 			}
 			players[i] = new Player(token, name, i + 1);
 
+			// let the computer play for this player if asked to
+			if (dialog.isComputerInput()) {
+				TileGraph graph = board.getTileGraph();
+				players[i].setBot(new IsmctsBot(BOT_PARTICLES,
+						BOT_EXPLORATION, RoomReach.forGraph(graph),
+						RoutePlanner.forGraph(graph)));
+			}
+
 			// remove the chosen character from the list of available characters
 			availableCharacters.remove(dialog.getSelectedCharacter());
 
@@ -569,13 +790,72 @@ public class Game {
 				System.exit(0);
 			}
 
-			// give the player a copy of the deck for possible suggestion cards
-			players[i].setNonRefutedCards(deck.getCharacters(),
-					deck.getRooms(), deck.getWeapons());
+			// give the player the whole deck as possible suggestion cards
+			players[i].setNonRefutedCards(deck.getCardsMask());
 		}
 		return players;
 	}
 
+	/**
+	 * Give each player a knowledge table holding their own hand.
+	 */
+	private void setupKnowledge() {
+		for (int i = 0; i < numberPlayers; i++) {
+			players[i].setKnowledge(new Knowledge(numberPlayers, i, deck
+					.getCharacterMask(), deck.getRoomMask(), deck
+					.getWeaponMask()));
+		}
+	}
+
+	/**
+	 * Takes an immutable snapshot of the game that search and simulations can
+	 * work on without touching the live game objects.
+	 * 
+	 * @return The game state.
+	 */
+	public GameState getState() {
+		int count = players == null ? 0 : numberPlayers;
+		long[] hands = new long[count + 1];
+		int eliminated = 0;
+		for (int i = 0; i < count; i++) {
+			hands[i] = players[i].getHand();
+			if (players[i].isEliminated()) {
+				eliminated |= 1 << i;
+			}
+		}
+		if (deck != null) {
+			hands[count] = deck.getSolutionMask();
+		}
+		return board.getState(hands, eliminated, currentIndex(), phase());
+	}
+
+	/**
+	 * Returns the index of the current player, 0 before the game starts.
+	 */
+	private int currentIndex() {
+		return currentPlayer == null ? 0 : currentPlayer.getId() - 1;
+	}
+
+	/**
+	 * Returns the turn flags packed as game state phase flags.
+	 */
+	private int phase() {
+		return (rolled ? GameState.ROLLED : 0) | (moved ? GameState.MOVED : 0)
+				| (suggested ? GameState.SUGGESTED : 0)
+				| (endTurn ? GameState.ENDED : 0);
+	}
+
+	/**
+	 * Returns the Zobrist hash of the game position, the token positions and
+	 * the turn. Equal to {@link Zobrist#hash(GameState)} of the current state.
+	 * 
+	 * @return The position hash.
+	 */
+	public long getHash() {
+		return board.getHash()
+				^ Zobrist.turn(currentIndex(), phase(), dice.getResult());
+	}
+
 	/**
 	 * Returns the game board. This is used exclusively for JUnit Testing.
 	 * 
@@ -585,9 +865,36 @@ public class Game {
 		return board;
 	}
 
+	public Player[] getPlayers() {
+		return players;
+	}
+
+	public Deck getDeck() {
+		return deck;
+	}
+
+	public Dice getDice() {
+		return dice;
+	}
+
+	/**
+	 * Returns the seed this game was created with.
+	 * 
+	 * @return Game seed.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
 	public static void main(String[] args) {
-		// setup a new game
-		Game game = new Game();
+		// setup a new game, replaying the given seed if there is one
+		Game game;
+		if (args.length > 0) {
+			game = new Game(Long.parseLong(args[0]));
+		} else {
+			game = new Game();
+		}
+		System.out.println("Game seed: " + game.getSeed());
 
 		// start the game
 		game.gameLoop();
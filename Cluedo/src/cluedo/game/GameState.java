@@ -0,0 +1,360 @@
+package cluedo.game;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of everything the rules of a game depend on, packed
+ * into a few primitive arrays. Tokens are indexed by id (characters first,
+ * then weapons) and hold the index of the tile they are on (y * width + x) and
+ * the id of the room they are in, or -1. Card ownership is one card bitmask per
+ * player with the solution envelope last, and the turn is the current player
+ * index, a set of phase flags and the dice result.
+ * 
+ * Every change returns a new state that shares all the arrays it did not
+ * change with the old one, so states can be forked freely between threads
+ * without locks or deep copies.
+ */
+public class GameState {
+
+	// turn phase flags
+	public static final int ROLLED = 1;
+	public static final int MOVED = 2;
+	public static final int SUGGESTED = 4;
+	public static final int ENDED = 8;
+
+	// game state fields
+	private final int width;
+	private final int numberCharacters;
+	private final int[] tiles;
+	private final byte[] rooms;
+	private final long[] hands;
+	private final int eliminated;
+	private final int currentPlayer;
+	private final int phase;
+	private final int roll;
+
+	// cached hash code, 0 until first asked for
+	private int hash;
+
+	/**
+	 * Setup a new game state, copying the given arrays.
+	 * 
+	 * @param width
+	 *            The width of the board, used to index tiles.
+	 * @param characterTiles
+	 *            The tile index of every character token by id.
+	 * @param characterRooms
+	 *            The room id of every character token by id, -1 for none.
+	 * @param weaponTiles
+	 *            The tile index of every weapon token by id.
+	 * @param weaponRooms
+	 *            The room id of every weapon token by id, -1 for none.
+	 * @param hands
+	 *            The card bitmask of every player hand, the solution last.
+	 * @param eliminated
+	 *            The bitmask of eliminated player indices.
+	 * @param currentPlayer
+	 *            The index of the player whose turn it is.
+	 * @param phase
+	 *            The turn phase flags.
+	 * @param roll
+	 *            The dice result, 0 if the dice was not rolled.
+	 */
+	public GameState(int width, int[] characterTiles, int[] characterRooms,
+			int[] weaponTiles, int[] weaponRooms, long[] hands, int eliminated,
+			int currentPlayer, int phase, int roll) {
+		this(width, characterTiles.length, new int[characterTiles.length
+				+ weaponTiles.length], new byte[characterTiles.length
+				+ weaponTiles.length], hands.clone(), eliminated,
+				currentPlayer, phase, roll);
+		for (int i = 0; i < tiles.length; i++) {
+			boolean character = i < numberCharacters;
+			int id = character ? i : i - numberCharacters;
+			tiles[i] = character ? characterTiles[id] : weaponTiles[id];
+			rooms[i] = (byte) (character ? characterRooms[id]
+					: weaponRooms[id]);
+		}
+	}
+
+	/**
+	 * Setup a game state that takes ownership of the given arrays.
+	 */
+	private GameState(int width, int numberCharacters, int[] tiles,
+			byte[] rooms, long[] hands, int eliminated, int currentPlayer,
+			int phase, int roll) {
+		this.width = width;
+		this.numberCharacters = numberCharacters;
+		this.tiles = tiles;
+		this.rooms = rooms;
+		this.hands = hands;
+		this.eliminated = eliminated;
+		this.currentPlayer = currentPlayer;
+		this.phase = phase;
+		this.roll = roll;
+	}
+
+	// transitions below, each returning a new state
+
+	/**
+	 * Returns this state with a character token moved.
+	 * 
+	 * @param id
+	 *            The character token id.
+	 * @param tile
+	 *            The tile index the token is now on.
+	 * @param room
+	 *            The room id the token is now in, -1 for none.
+	 * @return The new state.
+	 */
+	public GameState withCharacter(int id, int tile, int room) {
+		return withToken(id, tile, room);
+	}
+
+	/**
+	 * Returns this state with a weapon token moved.
+	 * 
+	 * @param id
+	 *            The weapon token id.
+	 * @param tile
+	 *            The tile index the token is now on.
+	 * @param room
+	 *            The room id the token is now in, -1 for none.
+	 * @return The new state.
+	 */
+	public GameState withWeapon(int id, int tile, int room) {
+		return withToken(numberCharacters + id, tile, room);
+	}
+
+	private GameState withToken(int token, int tile, int room) {
+		int[] newTiles = tiles;
+		byte[] newRooms = rooms;
+		if (tiles[token] != tile) {
+			newTiles = tiles.clone();
+			newTiles[token] = tile;
+		}
+		if (rooms[token] != room) {
+			newRooms = rooms.clone();
+			newRooms[token] = (byte) room;
+		}
+		return new GameState(width, numberCharacters, newTiles, newRooms,
+				hands, eliminated, currentPlayer, phase, roll);
+	}
+
+	/**
+	 * Returns this state with a card moved from one owner to another.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @param owner
+	 *            The player index to give the card to, or the envelope index.
+	 * @return The new state.
+	 */
+	public GameState withCard(int card, int owner) {
+		long[] newHands = hands.clone();
+		for (int o = 0; o < newHands.length; o++) {
+			newHands[o] &= ~(1L << card);
+		}
+		newHands[owner] |= 1L << card;
+		return new GameState(width, numberCharacters, tiles, rooms, newHands,
+				eliminated, currentPlayer, phase, roll);
+	}
+
+	/**
+	 * Returns this state with a player eliminated.
+	 * 
+	 * @param player
+	 *            The player index.
+	 * @return The new state.
+	 */
+	public GameState withEliminated(int player) {
+		return new GameState(width, numberCharacters, tiles, rooms, hands,
+				eliminated | (1 << player), currentPlayer, phase, roll);
+	}
+
+	/**
+	 * Returns this state at the start of the turn of a player.
+	 * 
+	 * @param player
+	 *            The index of the player whose turn it now is.
+	 * @return The new state.
+	 */
+	public GameState withTurn(int player) {
+		return new GameState(width, numberCharacters, tiles, rooms, hands,
+				eliminated, player, 0, 0);
+	}
+
+	/**
+	 * Returns this state with the given turn phase flags set.
+	 * 
+	 * @param flags
+	 *            The phase flags to add.
+	 * @return The new state.
+	 */
+	public GameState withPhase(int flags) {
+		return new GameState(width, numberCharacters, tiles, rooms, hands,
+				eliminated, currentPlayer, phase | flags, roll);
+	}
+
+	/**
+	 * Returns this state after the dice was rolled.
+	 * 
+	 * @param roll
+	 *            The dice result, 0 once the roll has been used up.
+	 * @return The new state.
+	 */
+	public GameState withRoll(int roll) {
+		return new GameState(width, numberCharacters, tiles, rooms, hands,
+				eliminated, currentPlayer, roll > 0 ? phase | ROLLED : phase,
+				roll);
+	}
+
+	// get methods below to return the packed state
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getNumberCharacters() {
+		return numberCharacters;
+	}
+
+	public int getNumberWeapons() {
+		return tiles.length - numberCharacters;
+	}
+
+	public int getCharacterTile(int id) {
+		return tiles[id];
+	}
+
+	public int getCharacterRoom(int id) {
+		return rooms[id];
+	}
+
+	public int getWeaponTile(int id) {
+		return tiles[numberCharacters + id];
+	}
+
+	public int getWeaponRoom(int id) {
+		return rooms[numberCharacters + id];
+	}
+
+	/**
+	 * Returns the characters in a room.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @return The bitmask of the ids of the character tokens in the room.
+	 */
+	public int getCharactersIn(int room) {
+		int mask = 0;
+		for (int i = 0; i < numberCharacters; i++) {
+			if (rooms[i] == room) {
+				mask |= 1 << i;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the weapons in a room.
+	 * 
+	 * @param room
+	 *            The room id.
+	 * @return The bitmask of the ids of the weapon tokens in the room.
+	 */
+	public int getWeaponsIn(int room) {
+		int mask = 0;
+		for (int i = numberCharacters; i < rooms.length; i++) {
+			if (rooms[i] == room) {
+				mask |= 1 << (i - numberCharacters);
+			}
+		}
+		return mask;
+	}
+
+	public int getNumberPlayers() {
+		return hands.length - 1;
+	}
+
+	/**
+	 * Returns the cards an owner holds.
+	 * 
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @return The card bitmask of the owner hand.
+	 */
+	public long getHand(int owner) {
+		return hands[owner];
+	}
+
+	public long getSolution() {
+		return hands[hands.length - 1];
+	}
+
+	public boolean isEliminated(int player) {
+		return (eliminated & (1 << player)) != 0;
+	}
+
+	public int getEliminated() {
+		return eliminated;
+	}
+
+	public int getCurrentPlayer() {
+		return currentPlayer;
+	}
+
+	public int getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Tests to see if all of the given phase flags are set.
+	 * 
+	 * @param flags
+	 *            The phase flags.
+	 * @return True if every flag is set.
+	 */
+	public boolean hasPhase(int flags) {
+		return (phase & flags) == flags;
+	}
+
+	public int getRoll() {
+		return roll;
+	}
+
+	@Override
+	public int hashCode() {
+		// racy but safe, every thread computes the same value
+		int result = hash;
+		if (result == 0) {
+			result = Arrays.hashCode(tiles);
+			result = 31 * result + Arrays.hashCode(rooms);
+			result = 31 * result + Arrays.hashCode(hands);
+			result = 31 * result + eliminated;
+			result = 31 * result + currentPlayer;
+			result = 31 * result + phase;
+			result = 31 * result + roll;
+			hash = result;
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		GameState other = (GameState) obj;
+		return hashCode() == other.hashCode() && width == other.width
+				&& numberCharacters == other.numberCharacters
+				&& eliminated == other.eliminated
+				&& currentPlayer == other.currentPlayer
+				&& phase == other.phase && roll == other.roll
+				&& Arrays.equals(tiles, other.tiles)
+				&& Arrays.equals(rooms, other.rooms)
+				&& Arrays.equals(hands, other.hands);
+	}
+}
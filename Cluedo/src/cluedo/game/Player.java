@@ -4,17 +4,22 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
+import cluedo.ai.IsmctsBot;
 import cluedo.cards.*;
+import cluedo.inference.Knowledge;
+import cluedo.inference.Posterior;
+import cluedo.inference.ScoredSuggestion;
+import cluedo.inference.SuggestionPlanner;
 import cluedo.tokens.CharacterToken;
 
 /**
  * Represents a player for the cluedo game. Each player has a unique character
  * token and hand of cards. Has an eliminated state to determine if the player
  * is out of the game. Each player also has a set of non-refuted cards so they
- * know what cards are still possible to be the solution cards.
+ * know what cards are still possible to be the solution cards. The hand and
+ * the non-refuted cards are stored as card bitmasks (see {@link Card#getMask()}).
  */
 public class Player {
 
@@ -22,10 +27,11 @@ public class Player {
 	private CharacterToken character;
 	private String name;
 	private int id;
-	private HashSet<Card> hand;
-	private ArrayList<CharacterCard> nonRefutedCharacters;
-	private ArrayList<RoomCard> nonRefutedRooms;
-	private ArrayList<WeaponCard> nonRefutedWeapons;
+	private long hand;
+	private List<Card> handCards;
+	private long nonRefuted;
+	private Knowledge knowledge;
+	private IsmctsBot bot;
 	private boolean eliminated;
 	public static final int HAND_X = 10;
 	public static final int HAND_Y = 160;
@@ -44,7 +50,8 @@ public class Player {
 		this.character = character;
 		this.name = name;
 		this.id = id;
-		hand = new HashSet<Card>();
+		hand = 0;
+		handCards = new ArrayList<Card>();
 		eliminated = false;
 	}
 
@@ -58,28 +65,23 @@ public class Player {
 	 */
 	public void addCard(Card c) {
 		// add the given card to the player hand
-		hand.add(c);
+		hand |= c.getMask();
+		handCards.add(c);
 
 		// remove the card from possible suggestion cards
-		nonRefutedCharacters.remove(c);
-		nonRefutedRooms.remove(c);
-		nonRefutedWeapons.remove(c);
+		nonRefuted &= ~c.getMask();
 	}
 
 	/**
-	 * Given lists of all possible cards will set the players sets of
-	 * non-refuted cards to each list. Used in initial game setup, should be
-	 * given a complete listing of the deck of cards.
+	 * Given a bitmask of all possible cards will set the players set of
+	 * non-refuted cards to it. Used in initial game setup, should be given the
+	 * complete deck of cards.
 	 * 
-	 * @param characterCards
-	 * @param roomCards
-	 * @param weaponCards
+	 * @param cards
+	 *            The card bitmask of the complete deck.
 	 */
-	public void setNonRefutedCards(List<CharacterCard> characterCards,
-			List<RoomCard> roomCards, List<WeaponCard> weaponCards) {
-		nonRefutedCharacters = new ArrayList<CharacterCard>(characterCards);
-		nonRefutedRooms = new ArrayList<RoomCard>(roomCards);
-		nonRefutedWeapons = new ArrayList<WeaponCard>(weaponCards);
+	public void setNonRefutedCards(long cards) {
+		nonRefuted = cards;
 	}
 
 	/**
@@ -90,9 +92,64 @@ public class Player {
 	 *            The card to refute.
 	 */
 	public void refuteCard(Card c) {
-		nonRefutedCharacters.remove(c);
-		nonRefutedRooms.remove(c);
-		nonRefutedWeapons.remove(c);
+		nonRefuted &= ~c.getMask();
+	}
+
+	/**
+	 * Give the player a knowledge table for deducing where the cards are. The
+	 * player hand is recorded in it straight away, so this should be called
+	 * after the cards have been dealt.
+	 * 
+	 * @param knowledge
+	 *            The knowledge table belonging to this player.
+	 */
+	public void setKnowledge(Knowledge knowledge) {
+		this.knowledge = knowledge;
+		knowledge.addHas(knowledge.getSelf(), hand);
+		knowledge.addHasNot(knowledge.getSelf(), knowledge.getCards() & ~hand);
+		updateNonRefuted();
+	}
+
+	/**
+	 * Let the computer play for this player. The bot decides from the player
+	 * knowledge, so the player should be given one.
+	 * 
+	 * @param bot
+	 *            The bot to play the turns of this player, null for a person.
+	 */
+	public void setBot(IsmctsBot bot) {
+		this.bot = bot;
+	}
+
+	/**
+	 * Tests to see if the computer plays for this player.
+	 * 
+	 * @return True if the player has a bot.
+	 */
+	public boolean isComputer() {
+		return bot != null;
+	}
+
+	/**
+	 * Rule out any cards the player knowledge has deduced cannot be solution
+	 * cards.
+	 */
+	public void updateNonRefuted() {
+		if (knowledge != null) {
+			knowledge.propagate();
+			nonRefuted &= knowledge.getEnvelopePossible();
+		}
+	}
+
+	/**
+	 * Tests to see if the given card has not been refuted yet.
+	 * 
+	 * @param c
+	 *            The card to test.
+	 * @return True if the card could still be a solution card.
+	 */
+	public boolean isNonRefuted(Card c) {
+		return (nonRefuted & c.getMask()) != 0;
 	}
 
 	/**
@@ -122,7 +179,7 @@ public class Player {
 		int row = 0;
 		int col = 0;
 		int i = 0;
-		for (Card card : hand) {
+		for (Card card : handCards) {
 			row = i / 2;
 			col = i % 2;
 			g2d.drawImage(card.getImage(), HAND_X + col * CARD_WD, HAND_Y + row
@@ -146,20 +203,49 @@ public class Player {
 		return id;
 	}
 
-	public HashSet<Card> getHand() {
+	public long getHand() {
 		return hand;
 	}
 
-	public ArrayList<CharacterCard> getNonRefutedCharacters() {
-		return nonRefutedCharacters;
+	public List<Card> getHandCards() {
+		return handCards;
 	}
 
-	public ArrayList<RoomCard> getNonRefutedRooms() {
-		return nonRefutedRooms;
+	public long getNonRefuted() {
+		return nonRefuted;
 	}
 
-	public ArrayList<WeaponCard> getNonRefutedWeapons() {
-		return nonRefutedWeapons;
+	public Knowledge getKnowledge() {
+		return knowledge;
+	}
+
+	public IsmctsBot getBot() {
+		return bot;
+	}
+
+	/**
+	 * Returns the exact probability of every possible solution given what this
+	 * player knows.
+	 * 
+	 * @return The solution posterior.
+	 */
+	public Posterior getPosterior() {
+		return Posterior.compute(knowledge);
+	}
+
+	/**
+	 * Returns every suggestion this player could make from a room, ranked by
+	 * how much each is expected to narrow down the solution.
+	 * 
+	 * @param planner
+	 *            The planner to score the suggestions with.
+	 * @param room
+	 *            The card id of the room the player is in.
+	 * @return The scored suggestions, best first.
+	 */
+	public List<ScoredSuggestion> planSuggestions(SuggestionPlanner planner,
+			int room) {
+		return planner.plan(knowledge, room);
 	}
 
 	public String getCharacterName() {
@@ -0,0 +1,246 @@
+package cluedo.game;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import cluedo.board.Room;
+import cluedo.cards.Card;
+import cluedo.tokens.CharacterToken;
+import cluedo.tokens.WeaponToken;
+
+/**
+ * Gives every character, room and weapon a dense id, the index of its name in
+ * the names it was set up with, and every card an id in the deck order:
+ * characters, then rooms, then weapons. Tokens, rooms and cards are looked up
+ * by id with an array index, so the engine can keep them in arrays and
+ * bitmasks and only the UI needs to go through names.
+ */
+public class Registry {
+
+	// card kinds
+	public static final int CHARACTER = 0;
+	public static final int ROOM = 1;
+	public static final int WEAPON = 2;
+
+	// the registry of the standard game, for cards made by name alone
+	private static final Registry STANDARD = new Registry();
+
+	// registry fields
+	private final String[] characterNames;
+	private final String[] roomNames;
+	private final String[] weaponNames;
+	private final Map<String, Integer> ids;
+	private final CharacterToken[] characters;
+	private final Room[] rooms;
+	private final WeaponToken[] weapons;
+	private final Card[] cards;
+
+	/**
+	 * Setup a registry with nothing registered yet.
+	 * 
+	 * @param characters
+	 *            The character names, in id order.
+	 * @param rooms
+	 *            The room names, in id order.
+	 * @param weapons
+	 *            The weapon names, in id order.
+	 */
+	public Registry(String[] characters, String[] rooms, String[] weapons) {
+		characterNames = characters.clone();
+		roomNames = rooms.clone();
+		weaponNames = weapons.clone();
+		this.characters = new CharacterToken[characters.length];
+		this.rooms = new Room[rooms.length];
+		this.weapons = new WeaponToken[weapons.length];
+		cards = new Card[characters.length + rooms.length + weapons.length];
+
+		// names of every kind by card id, for the UI
+		ids = new HashMap<String, Integer>();
+		for (int card = 0; card < cards.length; card++) {
+			ids.put(getName(card), card);
+		}
+	}
+
+	/**
+	 * Setup a registry of the standard game.
+	 */
+	public Registry() {
+		this(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS);
+	}
+
+	public void register(CharacterToken token) {
+		characters[token.getId()] = token;
+	}
+
+	public void register(Room room) {
+		rooms[room.getId()] = room;
+	}
+
+	public void register(WeaponToken token) {
+		weapons[token.getId()] = token;
+	}
+
+	public void register(Card card) {
+		cards[card.getId()] = card;
+	}
+
+	public CharacterToken getCharacter(int id) {
+		return characters[id];
+	}
+
+	public Room getRoom(int id) {
+		return rooms[id];
+	}
+
+	public WeaponToken getWeapon(int id) {
+		return weapons[id];
+	}
+
+	public Card getCard(int card) {
+		return cards[card];
+	}
+
+	public int getNumberCharacters() {
+		return characters.length;
+	}
+
+	public int getNumberRooms() {
+		return rooms.length;
+	}
+
+	public int getNumberWeapons() {
+		return weapons.length;
+	}
+
+	public int getNumberCards() {
+		return cards.length;
+	}
+
+	/**
+	 * Returns the card id of a character, room or weapon.
+	 * 
+	 * @param kind
+	 *            The card kind, {@link #CHARACTER}, {@link #ROOM} or
+	 *            {@link #WEAPON}.
+	 * @param id
+	 *            The id of the character, room or weapon.
+	 * @return The card id.
+	 */
+	public int getCardId(int kind, int id) {
+		if (kind == CHARACTER) {
+			return id;
+		} else if (kind == ROOM) {
+			return characters.length + id;
+		}
+		return characters.length + rooms.length + id;
+	}
+
+	/**
+	 * Returns the kind of a card.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @return {@link #CHARACTER}, {@link #ROOM} or {@link #WEAPON}.
+	 */
+	public int getKind(int card) {
+		if (card < characters.length) {
+			return CHARACTER;
+		} else if (card < characters.length + rooms.length) {
+			return ROOM;
+		}
+		return WEAPON;
+	}
+
+	/**
+	 * Returns the id of the character, room or weapon of a card, the inverse
+	 * of {@link #getCardId(int, int)}.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @return The id within the card kind.
+	 */
+	public int getId(int card) {
+		if (card < characters.length) {
+			return card;
+		} else if (card < characters.length + rooms.length) {
+			return card - characters.length;
+		}
+		return card - characters.length - rooms.length;
+	}
+
+	/**
+	 * Returns the card id of a character, room or weapon name.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @return The card id, -1 if the name is not known.
+	 */
+	public int getCardId(String name) {
+		Integer card = ids.get(name);
+		return card == null ? -1 : card;
+	}
+
+	/**
+	 * Returns the id of a character, room or weapon name within its kind.
+	 * 
+	 * @param kind
+	 *            The card kind, {@link #CHARACTER}, {@link #ROOM} or
+	 *            {@link #WEAPON}.
+	 * @param name
+	 *            The name.
+	 * @return The id, -1 if the name is not one of that kind.
+	 */
+	public int getId(int kind, String name) {
+		int card = getCardId(name);
+		return card >= 0 && getKind(card) == kind ? getId(card) : -1;
+	}
+
+	/**
+	 * Returns the id a character, room or weapon has in the standard game.
+	 * 
+	 * @param kind
+	 *            The card kind, {@link #CHARACTER}, {@link #ROOM} or
+	 *            {@link #WEAPON}.
+	 * @param name
+	 *            The name.
+	 * @return The id, -1 if the name is not one of that kind.
+	 */
+	public static int getStandardId(int kind, String name) {
+		return STANDARD.getId(kind, name);
+	}
+
+	/**
+	 * Returns the card id a character, room or weapon has in the standard
+	 * game.
+	 * 
+	 * @param kind
+	 *            The card kind, {@link #CHARACTER}, {@link #ROOM} or
+	 *            {@link #WEAPON}.
+	 * @param name
+	 *            The name.
+	 * @return The card id, -1 if the name is not one of that kind.
+	 */
+	public static int getStandardCardId(int kind, String name) {
+		int card = STANDARD.getCardId(name);
+		return card >= 0 && STANDARD.getKind(card) == kind ? card : -1;
+	}
+
+	/**
+	 * Returns the name of a card.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @return The name of the character, room or weapon.
+	 */
+	public String getName(int card) {
+		int id = getId(card);
+		switch (getKind(card)) {
+		case CHARACTER:
+			return characterNames[id];
+		case ROOM:
+			return roomNames[id];
+		default:
+			return weaponNames[id];
+		}
+	}
+}
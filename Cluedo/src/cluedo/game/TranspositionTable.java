@@ -0,0 +1,109 @@
+package cluedo.game;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock-free table of cached evaluations keyed by Zobrist hash.
+ * Each entry is two longs, the hash xored with the data and the data itself.
+ * A reader only trusts an entry if the two still xor back to the hash it is
+ * looking for, so an entry torn by two threads writing at once reads as a
+ * miss instead of as the wrong data. New entries always replace old ones. A
+ * hash of 0 matches an empty entry, which reads as data 0.
+ */
+public class TranspositionTable {
+
+	// table fields
+	private AtomicLongArray entries;
+	private int mask;
+
+	/**
+	 * Setup an empty table.
+	 * 
+	 * @param bits
+	 *            The table holds 2^bits entries.
+	 */
+	public TranspositionTable(int bits) {
+		if (bits < 0 || bits > 29) {
+			throw new IllegalArgumentException("Table size out of range: "
+					+ bits);
+		}
+		entries = new AtomicLongArray(2 << bits);
+		mask = (1 << bits) - 1;
+	}
+
+	/**
+	 * Store data for a position.
+	 * 
+	 * @param hash
+	 *            The position hash.
+	 * @param data
+	 *            The data to store.
+	 */
+	public void put(long hash, long data) {
+		int slot = index(hash);
+		entries.set(slot, hash ^ data);
+		entries.set(slot + 1, data);
+	}
+
+	/**
+	 * Look up the data stored for a position.
+	 * 
+	 * @param hash
+	 *            The position hash.
+	 * @param missing
+	 *            The value to return if there is no data for the position.
+	 * @return The stored data, or the missing value.
+	 */
+	public long get(long hash, long missing) {
+		int slot = index(hash);
+		long data = entries.get(slot + 1);
+		if ((entries.get(slot) ^ data) != hash) {
+			return missing;
+		}
+		return data;
+	}
+
+	/**
+	 * Store an evaluation for a position.
+	 * 
+	 * @param hash
+	 *            The position hash.
+	 * @param value
+	 *            The evaluation.
+	 */
+	public void putDouble(long hash, double value) {
+		put(hash, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * Look up the evaluation stored for a position.
+	 * 
+	 * @param hash
+	 *            The position hash.
+	 * @param missing
+	 *            The value to return if there is no evaluation.
+	 * @return The stored evaluation, or the missing value.
+	 */
+	public double getDouble(long hash, double missing) {
+		long missingBits = Double.doubleToRawLongBits(missing);
+		return Double.longBitsToDouble(get(hash, missingBits));
+	}
+
+	/**
+	 * Empty the table. Not atomic with respect to other threads using it.
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++) {
+			entries.set(i, 0);
+		}
+	}
+
+	public int size() {
+		return mask + 1;
+	}
+
+	private int index(long hash) {
+		// the high bits are as good as the low ones and spread the entries
+		return (int) ((hash ^ (hash >>> Integer.SIZE)) & mask) << 1;
+	}
+}
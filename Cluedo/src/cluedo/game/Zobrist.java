@@ -0,0 +1,192 @@
+package cluedo.game;
+
+/**
+ * Zobrist hashing of game positions. Every feature of a position (a token on a
+ * tile, a token in a room, the turn, an owner known to have or not have a
+ * card) has a fixed random 64-bit key and the hash of a position is the xor of
+ * the keys of its features. Moving a token or learning a fact only xors the
+ * old and new keys, so hashes are kept up to date in O(1) per change.
+ * 
+ * The keys are not stored in tables but computed by mixing the feature into
+ * a fixed seed, so they do not depend on the board size. An instance holds a
+ * running hash that tokens xor their features into as they move.
+ */
+public class Zobrist {
+
+	// seed all keys are mixed from
+	private static final long SEED = 0x2545F4914F6CDD1DL;
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	// kinds of feature
+	private static final int TILE = 1;
+	private static final int ROOM = 2;
+	private static final int TURN = 3;
+	private static final int HAS = 4;
+	private static final int HAS_NOT = 5;
+	private static final int SHOWED = 6;
+
+	// running hash
+	private long hash;
+
+	/**
+	 * Xor a key into the running hash, adding the feature if it was not there
+	 * and removing it if it was.
+	 * 
+	 * @param key
+	 *            The feature key.
+	 */
+	public void toggle(long key) {
+		hash ^= key;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the key of a token standing on a tile.
+	 * 
+	 * @param token
+	 *            The token index, characters first and then weapons.
+	 * @param x
+	 *            The tile x position.
+	 * @param y
+	 *            The tile y position.
+	 * @return The feature key.
+	 */
+	public static long tile(int token, int x, int y) {
+		return key(TILE, token, ((long) x << Integer.SIZE)
+				| (y & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Returns the key of a token being in a room.
+	 * 
+	 * @param token
+	 *            The token index, characters first and then weapons.
+	 * @param room
+	 *            The room id, -1 for no room.
+	 * @return The feature key, 0 for no room.
+	 */
+	public static long room(int token, int room) {
+		return room < 0 ? 0 : key(ROOM, token, room);
+	}
+
+	/**
+	 * Returns the key of the turn.
+	 * 
+	 * @param player
+	 *            The index of the player whose turn it is.
+	 * @param phase
+	 *            The turn phase flags, see {@link GameState}.
+	 * @param roll
+	 *            The dice result.
+	 * @return The feature key.
+	 */
+	public static long turn(int player, int phase, int roll) {
+		return key(TURN, player, ((long) phase << Integer.SIZE) | roll);
+	}
+
+	/**
+	 * Returns the xor of the keys of an owner known to have each of the given
+	 * cards.
+	 * 
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @param mask
+	 *            The card bitmask.
+	 * @return The xor of the feature keys.
+	 */
+	public static long has(int owner, long mask) {
+		return cards(HAS, owner, mask);
+	}
+
+	/**
+	 * Returns the xor of the keys of an owner known not to have each of the
+	 * given cards.
+	 * 
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @param mask
+	 *            The card bitmask.
+	 * @return The xor of the feature keys.
+	 */
+	public static long hasNot(int owner, long mask) {
+		return cards(HAS_NOT, owner, mask);
+	}
+
+	/**
+	 * Returns the key of a player having showed one of the given cards.
+	 * 
+	 * @param player
+	 *            The player index.
+	 * @param mask
+	 *            The card bitmask of the cards one of which was shown.
+	 * @return The feature key.
+	 */
+	public static long showed(int player, long mask) {
+		return key(SHOWED, player, mask);
+	}
+
+	/**
+	 * Computes the hash of the tokens of a game state from scratch. Equal to
+	 * the running hash of the board the state was taken from.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The hash of the token tiles and rooms.
+	 */
+	public static long hashTokens(GameState state) {
+		long hash = 0;
+		int width = state.getWidth();
+		int characters = state.getNumberCharacters();
+		for (int c = 0; c < characters; c++) {
+			int tile = state.getCharacterTile(c);
+			hash ^= tile(c, tile % width, tile / width);
+			hash ^= room(c, state.getCharacterRoom(c));
+		}
+		for (int w = 0; w < state.getNumberWeapons(); w++) {
+			int tile = state.getWeaponTile(w);
+			hash ^= tile(characters + w, tile % width, tile / width);
+			hash ^= room(characters + w, state.getWeaponRoom(w));
+		}
+		return hash;
+	}
+
+	/**
+	 * Computes the hash of a game state from scratch, the tokens and the turn.
+	 * The hands are left out as they do not change during a game.
+	 * 
+	 * @param state
+	 *            The game state.
+	 * @return The hash.
+	 */
+	public static long hash(GameState state) {
+		return hashTokens(state)
+				^ turn(state.getCurrentPlayer(), state.getPhase(),
+						state.getRoll());
+	}
+
+	private static long cards(int kind, int owner, long mask) {
+		long hash = 0;
+		for (long cards = mask; cards != 0; cards &= cards - 1) {
+			hash ^= key(kind, owner, Long.numberOfTrailingZeros(cards));
+		}
+		return hash;
+	}
+
+	private static long key(int kind, int index, long value) {
+		long z = SEED + (((long) kind << Integer.SIZE) | index) * GOLDEN;
+		return mix(mix(z) + value * GOLDEN);
+	}
+
+	/**
+	 * The splitmix64 finalizer, a cheap mixing function whose output bits
+	 * each depend on every input bit.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
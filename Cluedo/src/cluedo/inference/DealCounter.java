@@ -0,0 +1,506 @@
+package cluedo.inference;
+
+import java.util.Arrays;
+
+/**
+ * Counts the card deals that agree with a knowledge table, for every possible
+ * solution triple. Cards with a known owner are fixed, and the remaining
+ * unknown cards are assigned to owners one at a time: first the possible
+ * solution characters, rooms and weapons in three blocks, then everything
+ * else. The number of ways to deal the rest of the cards only depends on how
+ * many cards each player still needs, which "showed one of" constraints are
+ * not yet satisfied and which of the remaining cards are the solution cards,
+ * so counts are memoized on exactly that state and shared between triples.
+ * 
+ * When counting every triple, the character and room blocks are dealt
+ * forwards once per character and per character-room pair, and the weapon
+ * block and the remaining cards are counted backwards with the memo, so no
+ * part of the work is repeated for solution cards it does not depend on.
+ */
+public class DealCounter {
+
+	// largest key layout the memo supports
+	private static final int KEY_BITS = 63;
+
+	// knowledge fields
+	private Knowledge knowledge;
+	private int numberPlayers;
+	private int envelope;
+	private int[][] typeCards;
+	private int[] rank;
+
+	// unknown card fields
+	private int[] unknown;
+	private int[] blocks;
+	private int[] position;
+	private int[][] satisfies;
+	private int[] expiring;
+	private int[][] available;
+	private long capacities;
+	private int allPending;
+
+	// memo key layout
+	private int flagBits;
+	private int capacityBits;
+	private int positionBits;
+	private int[] typeBits;
+	private Memo memo;
+
+	// the solution triple currently being counted
+	private int[] pick;
+
+	/**
+	 * Setup a new deal counter for a knowledge table. The knowledge should
+	 * already be propagated.
+	 * 
+	 * @param knowledge
+	 *            The knowledge to count deals for.
+	 * @throws IllegalArgumentException
+	 *             If the knowledge has too many players, cards or constraints
+	 *             to be counted exactly.
+	 */
+	public DealCounter(Knowledge knowledge) {
+		this.knowledge = knowledge;
+		numberPlayers = knowledge.getNumberPlayers();
+		envelope = knowledge.getEnvelope();
+
+		// list the cards of each type and the rank of each card in its type
+		rank = new int[Long.SIZE];
+		typeCards = new int[3][];
+		for (int t = 0; t < typeCards.length; t++) {
+			typeCards[t] = cardsOf(knowledge.getTypeMask(t));
+			for (int i = 0; i < typeCards[t].length; i++) {
+				rank[typeCards[t][i]] = i;
+			}
+		}
+
+		// the cards without a known owner
+		long owned = 0;
+		for (int o = 0; o <= numberPlayers; o++) {
+			owned |= knowledge.getHas(o);
+		}
+		long unowned = knowledge.getCards() & ~owned;
+
+		// possible solution cards go first, one block for each card type, so
+		// once they are all dealt the counts no longer depend on the triple
+		unknown = new int[Long.bitCount(unowned)];
+		blocks = new int[typeCards.length + 1];
+		long candidates = unowned & knowledge.getEnvelopePossible();
+		int next = 0;
+		for (int t = 0; t < typeCards.length; t++) {
+			for (int card : cardsOf(candidates & knowledge.getTypeMask(t))) {
+				unknown[next++] = card;
+			}
+			blocks[t + 1] = next;
+		}
+		for (int card : cardsOf(unowned & ~candidates)) {
+			unknown[next++] = card;
+		}
+		position = new int[Long.SIZE];
+		for (int i = 0; i < unknown.length; i++) {
+			position[unknown[i]] = i;
+		}
+
+		// the number of cards each player still needs
+		int maxCapacity = 0;
+		for (int p = 0; p < numberPlayers; p++) {
+			maxCapacity = Math.max(maxCapacity, knowledge.getHandSize(p));
+		}
+		capacityBits = Integer.SIZE
+				- Integer.numberOfLeadingZeros(maxCapacity);
+		for (int p = 0; p < numberPlayers; p++) {
+			long need = knowledge.getHandSize(p)
+					- Long.bitCount(knowledge.getHas(p));
+			capacities |= need << (p * capacityBits);
+		}
+
+		// how many of the cards from each position on each player could hold
+		available = new int[numberPlayers][unknown.length + 1];
+		for (int p = 0; p < numberPlayers; p++) {
+			for (int k = unknown.length - 1; k >= 0; k--) {
+				int free = (knowledge.getHasNot(p) & (1L << unknown[k])) == 0 ? 1
+						: 0;
+				available[p][k] = available[p][k + 1] + free;
+			}
+		}
+
+		// which constraints each card satisfies, and the last card that can
+		int constraints = knowledge.getShowedCount();
+		satisfies = new int[numberPlayers][unknown.length];
+		expiring = new int[unknown.length];
+		for (int i = 0; i < constraints; i++) {
+			int player = knowledge.getShowedPlayer(i);
+			long possible = knowledge.getShowedCards(i)
+					& ~knowledge.getHasNot(player);
+			int last = -1;
+			for (int k = 0; k < unknown.length; k++) {
+				if ((possible & (1L << unknown[k])) != 0) {
+					satisfies[player][k] |= 1 << i;
+					last = k;
+				}
+			}
+			if (last >= 0) {
+				expiring[last] |= 1 << i;
+			}
+			allPending |= 1 << i;
+		}
+
+		// lay out the memo key: pending flags, capacities, position, picks
+		flagBits = constraints;
+		positionBits = Integer.SIZE
+				- Integer.numberOfLeadingZeros(unknown.length);
+		typeBits = new int[typeCards.length];
+		int bits = flagBits + numberPlayers * capacityBits + positionBits;
+		for (int t = 0; t < typeCards.length; t++) {
+			typeBits[t] = Integer.SIZE
+					- Integer.numberOfLeadingZeros(typeCards[t].length);
+			bits += typeBits[t];
+		}
+		if (bits > KEY_BITS || constraints >= Integer.SIZE) {
+			throw new IllegalArgumentException(
+					"Knowledge too large to count exactly: " + bits + " bits");
+		}
+
+		memo = new Memo();
+		pick = new int[typeCards.length];
+	}
+
+	/**
+	 * Tests to see if a knowledge table is small enough to count exactly.
+	 * 
+	 * @param knowledge
+	 *            The knowledge to test.
+	 * @return True if a deal counter can be made for it.
+	 */
+	public static boolean canCount(Knowledge knowledge) {
+		try {
+			new DealCounter(knowledge);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Count the deals that agree with the knowledge for every solution triple.
+	 * 
+	 * @return The number of deals for each triple, indexed by the rank of the
+	 *         character, room and weapon cards (character rank major).
+	 */
+	public double[] countAll() {
+		int rooms = typeCards[1].length;
+		int weapons = typeCards[2].length;
+		double[] counts = new double[typeCards[0].length * rooms * weapons];
+		long possible = knowledge.getEnvelopePossible();
+
+		// deal the possible characters with each one in the envelope
+		Layer start = new Layer();
+		start.add(capacities << flagBits | allPending, 1);
+		for (int c : typeCards[0]) {
+			if ((possible & (1L << c)) == 0) {
+				continue;
+			}
+			Layer afterCharacters = deal(start, 0, c);
+
+			// then the possible rooms with each one in the envelope
+			for (int r : typeCards[1]) {
+				if ((possible & (1L << r)) == 0) {
+					continue;
+				}
+				Layer afterRooms = deal(afterCharacters, 1, r);
+
+				// and count the rest backwards for each weapon
+				for (int w : typeCards[2]) {
+					if ((possible & (1L << w)) == 0) {
+						continue;
+					}
+					pick[0] = c;
+					pick[1] = r;
+					pick[2] = w;
+					double ways = 0;
+					for (int i = 0; i < afterRooms.size; i++) {
+						long state = afterRooms.keys[i];
+						ways += afterRooms.values[i]
+								* count(blocks[2], state >>> flagBits,
+										(int) (state & ((1L << flagBits) - 1)));
+					}
+					int index = (rank[c] * rooms + rank[r]) * weapons + rank[w];
+					counts[index] = ways;
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Deal the cards of one block forwards, putting the given card in the
+	 * envelope. States are packed as capacities then pending flags.
+	 * 
+	 * @param from
+	 *            The number of ways to reach each state before the block.
+	 * @param type
+	 *            The card type of the block.
+	 * @param solution
+	 *            The id of the solution card of this type.
+	 * @return The number of ways to reach each state after the block.
+	 */
+	private Layer deal(Layer from, int type, int solution) {
+		long mask = (1L << capacityBits) - 1;
+		long flagMask = (1L << flagBits) - 1;
+		Layer layer = from;
+		for (int k = blocks[type]; k < blocks[type + 1]; k++) {
+			Layer next = new Layer();
+			long cardMask = 1L << unknown[k];
+			for (int i = 0; i < layer.size; i++) {
+				long capacities = layer.keys[i] >>> flagBits;
+				int pending = (int) (layer.keys[i] & flagMask);
+				double ways = layer.values[i];
+				if (unknown[k] == solution) {
+					if ((pending & expiring[k]) == 0) {
+						next.add(layer.keys[i], ways);
+					}
+					continue;
+				}
+				for (int p = 0; p < numberPlayers; p++) {
+					int shift = p * capacityBits;
+					if (((capacities >> shift) & mask) == 0
+							|| (knowledge.getHasNot(p) & cardMask) != 0) {
+						continue;
+					}
+					int nextPending = pending & ~satisfies[p][k];
+					if ((nextPending & expiring[k]) == 0) {
+						next.add((capacities - (1L << shift)) << flagBits
+								| nextPending, ways);
+					}
+				}
+			}
+			layer = next;
+		}
+		return layer;
+	}
+
+	/**
+	 * Count the deals that agree with the knowledge and put the given cards in
+	 * the envelope.
+	 * 
+	 * @param character
+	 *            The id of the solution character card.
+	 * @param room
+	 *            The id of the solution room card.
+	 * @param weapon
+	 *            The id of the solution weapon card.
+	 * @return The number of deals.
+	 */
+	public double count(int character, int room, int weapon) {
+		pick[0] = character;
+		pick[1] = room;
+		pick[2] = weapon;
+
+		// a known solution card is already placed, an unknown one must be free
+		long envelopeHas = knowledge.getHas(envelope);
+		for (int t = 0; t < pick.length; t++) {
+			long type = envelopeHas & knowledge.getTypeMask(t);
+			if (type != 0 ? type != 1L << pick[t]
+					: (knowledge.getHasNot(envelope) & (1L << pick[t])) != 0) {
+				return 0;
+			}
+		}
+		return count(0, capacities, allPending);
+	}
+
+	/**
+	 * Count the ways to deal the unknown cards from position k onwards.
+	 */
+	private double count(int k, long capacities, int pending) {
+		if (k == unknown.length) {
+			return (capacities == 0 && pending == 0) ? 1 : 0;
+		}
+
+		// look up the memo
+		long key = key(k, capacities, pending);
+		double known = memo.get(key);
+		if (known >= 0) {
+			return known;
+		}
+
+		// give up early if a player can no longer fill their hand
+		long mask = (1L << capacityBits) - 1;
+		for (int p = 0; p < numberPlayers; p++) {
+			if (((capacities >> (p * capacityBits)) & mask) > available[p][k]) {
+				memo.put(key, 0);
+				return 0;
+			}
+		}
+
+		int card = unknown[k];
+		long cardMask = 1L << card;
+		double ways = 0;
+		if (isPicked(card)) {
+			// this card is in the envelope
+			if ((pending & expiring[k]) == 0) {
+				ways = count(k + 1, capacities, pending);
+			}
+		} else {
+			// this card goes to one of the players who could hold it
+			for (int p = 0; p < numberPlayers; p++) {
+				int shift = p * capacityBits;
+				if (((capacities >> shift) & mask) == 0
+						|| (knowledge.getHasNot(p) & cardMask) != 0) {
+					continue;
+				}
+				int next = pending & ~satisfies[p][k];
+				if ((next & expiring[k]) == 0) {
+					ways += count(k + 1, capacities - (1L << shift), next);
+				}
+			}
+		}
+		memo.put(key, ways);
+		return ways;
+	}
+
+	/**
+	 * Tests to see if a card is one of the solution cards being counted.
+	 */
+	private boolean isPicked(int card) {
+		return card == pick[0] || card == pick[1] || card == pick[2];
+	}
+
+	/**
+	 * Pack the counting state into a memo key. Only solution cards that are
+	 * still to come change the count, so earlier ones are left out.
+	 */
+	private long key(int k, long capacities, int pending) {
+		long key = 0;
+		for (int t = 0; t < pick.length; t++) {
+			int code = 0;
+			if ((knowledge.getHas(envelope) & (1L << pick[t])) == 0
+					&& position[pick[t]] >= k) {
+				code = rank[pick[t]] + 1;
+			}
+			key = (key << typeBits[t]) | code;
+		}
+		key = (key << positionBits) | k;
+		key = (key << (numberPlayers * capacityBits)) | capacities;
+		return (key << flagBits) | pending;
+	}
+
+	/**
+	 * An open addressing hash map from memo keys to counts. Avoids boxing
+	 * every key and count, which would otherwise dominate the counting time.
+	 */
+	private static class Memo {
+		private static final long EMPTY = -1;
+
+		private long[] keys;
+		private double[] values;
+		private int size;
+
+		public Memo() {
+			keys = new long[1 << 6];
+			values = new double[keys.length];
+			Arrays.fill(keys, EMPTY);
+		}
+
+		/**
+		 * Returns the count stored for a key, -1 if there is none.
+		 */
+		public double get(long key) {
+			int mask = keys.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+				if (keys[i] == EMPTY) {
+					return -1;
+				}
+			}
+		}
+
+		public void put(long key, double value) {
+			if (2 * (size + 1) > keys.length) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (keys[i] != EMPTY && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (keys[i] == EMPTY) {
+				size++;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			double[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new double[keys.length];
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static int hash(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ (key >>> 32));
+		}
+	}
+
+	/**
+	 * The number of ways to reach each dealing state after some of the cards
+	 * have been dealt.
+	 */
+	private static class Layer {
+		private long[] keys;
+		private double[] values;
+		private int size;
+		private Memo index;
+
+		public Layer() {
+			keys = new long[16];
+			values = new double[keys.length];
+			index = new Memo();
+		}
+
+		/**
+		 * Add a number of ways to reach a state.
+		 */
+		public void add(long key, double ways) {
+			double i = index.get(key);
+			if (i >= 0) {
+				values[(int) i] += ways;
+				return;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			index.put(key, size);
+			keys[size] = key;
+			values[size] = ways;
+			size++;
+		}
+	}
+
+	/**
+	 * Returns the ids of the cards in a card bitmask in increasing order.
+	 * 
+	 * @param mask
+	 *            The card bitmask.
+	 * @return The card ids.
+	 */
+	public static int[] cardsOf(long mask) {
+		int[] ids = new int[Long.bitCount(mask)];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = Long.numberOfTrailingZeros(mask);
+			mask &= mask - 1;
+		}
+		return ids;
+	}
+}
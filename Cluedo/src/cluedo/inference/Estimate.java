@@ -0,0 +1,226 @@
+package cluedo.inference;
+
+import java.util.Arrays;
+
+/**
+ * A sampled estimate of the solution posterior. Holds how often each card and
+ * each solution triple turned up in the envelope of the accepted deals, and
+ * optionally the accepted deals themselves (particles) as card bitmasks, one
+ * per owner.
+ */
+public class Estimate {
+
+	// z value of a 95% confidence interval
+	private static final double Z = 1.96;
+
+	// estimate fields
+	private int owners;
+	private long[] typeMasks;
+	private int[][] typeCards;
+	private int[] rank;
+	private long samples;
+	private long attempts;
+	private long elapsed;
+	private long[] cardCounts;
+	private long[] tripleCounts;
+	private long[] particles;
+	private int particleCount;
+	private int maxParticles;
+
+	/**
+	 * Setup an empty estimate.
+	 * 
+	 * @param knowledge
+	 *            The knowledge deals are drawn for.
+	 */
+	public Estimate(Knowledge knowledge) {
+		owners = knowledge.getNumberPlayers() + 1;
+		rank = new int[Long.SIZE];
+		typeMasks = new long[3];
+		typeCards = new int[3][];
+		for (int t = 0; t < typeCards.length; t++) {
+			typeMasks[t] = knowledge.getTypeMask(t);
+			typeCards[t] = DealCounter.cardsOf(typeMasks[t]);
+			for (int i = 0; i < typeCards[t].length; i++) {
+				rank[typeCards[t][i]] = i;
+			}
+		}
+		cardCounts = new long[Long.SIZE];
+		tripleCounts = new long[typeCards[0].length * typeCards[1].length
+				* typeCards[2].length];
+		particles = new long[0];
+	}
+
+	/**
+	 * Make room to keep the given number of particles.
+	 * 
+	 * @param maxParticles
+	 *            The number of accepted deals to keep.
+	 */
+	void reserveParticles(int maxParticles) {
+		this.maxParticles = maxParticles;
+		particles = new long[maxParticles * owners];
+	}
+
+	/**
+	 * Add an accepted deal.
+	 * 
+	 * @param hands
+	 *            The card bitmask of every owner, the envelope last.
+	 */
+	void add(long[] hands) {
+		long envelope = hands[owners - 1];
+		samples++;
+		for (long cards = envelope; cards != 0; cards &= cards - 1) {
+			cardCounts[Long.numberOfTrailingZeros(cards)]++;
+		}
+		tripleCounts[tripleIndex(envelope)]++;
+		if (particleCount < maxParticles) {
+			System.arraycopy(hands, 0, particles, particleCount * owners,
+					owners);
+			particleCount++;
+		}
+	}
+
+	void addAttempts(long attempts) {
+		this.attempts += attempts;
+	}
+
+	void setElapsed(long elapsed) {
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Add the counts and particles of another estimate to this one.
+	 * 
+	 * @param other
+	 *            The estimate to merge.
+	 */
+	void merge(Estimate other) {
+		samples += other.samples;
+		attempts += other.attempts;
+		for (int i = 0; i < cardCounts.length; i++) {
+			cardCounts[i] += other.cardCounts[i];
+		}
+		for (int i = 0; i < tripleCounts.length; i++) {
+			tripleCounts[i] += other.tripleCounts[i];
+		}
+		int total = particleCount + other.particleCount;
+		particles = Arrays.copyOf(particles, total * owners);
+		System.arraycopy(other.particles, 0, particles, particleCount * owners,
+				other.particleCount * owners);
+		particleCount = total;
+		maxParticles = total;
+	}
+
+	/**
+	 * Returns the index of the triple in an envelope card bitmask.
+	 * 
+	 * @param envelope
+	 *            The card bitmask of the envelope.
+	 * @return The triple index, character rank major.
+	 */
+	public int tripleIndex(long envelope) {
+		int c = rank[Long.numberOfTrailingZeros(envelope & typeMasks[0])];
+		int r = rank[Long.numberOfTrailingZeros(envelope & typeMasks[1])];
+		int w = rank[Long.numberOfTrailingZeros(envelope & typeMasks[2])];
+		return (c * typeCards[1].length + r) * typeCards[2].length + w;
+	}
+
+	/**
+	 * Returns the estimated probability that a card is a solution card.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @return The fraction of accepted deals with the card in the envelope.
+	 */
+	public double getCardProbability(int card) {
+		return samples == 0 ? 0 : (double) cardCounts[card] / samples;
+	}
+
+	/**
+	 * Returns the half width of the 95% confidence interval of a card
+	 * probability, using the normal approximation.
+	 * 
+	 * @param card
+	 *            The card id.
+	 * @return The confidence half width, 1 if there are no samples.
+	 */
+	public double getCardConfidence(int card) {
+		if (samples == 0) {
+			return 1;
+		}
+		double p = getCardProbability(card);
+		return Z * Math.sqrt(p * (1 - p) / samples);
+	}
+
+	/**
+	 * Returns the estimated probability of every triple, in the same order as
+	 * {@link Posterior#getProbabilities()}.
+	 * 
+	 * @return The triple probabilities.
+	 */
+	public double[] getProbabilities() {
+		double[] probabilities = new double[tripleCounts.length];
+		for (int i = 0; i < tripleCounts.length && samples > 0; i++) {
+			probabilities[i] = (double) tripleCounts[i] / samples;
+		}
+		return probabilities;
+	}
+
+	/**
+	 * Returns the estimated entropy of the solution in bits.
+	 * 
+	 * @return The entropy.
+	 */
+	public double getEntropy() {
+		return Posterior.entropy(getProbabilities());
+	}
+
+	public int getTripleCount() {
+		return tripleCounts.length;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Returns the fraction of drawn deals that were accepted.
+	 * 
+	 * @return The acceptance rate.
+	 */
+	public double getAcceptanceRate() {
+		return attempts == 0 ? 0 : (double) samples / attempts;
+	}
+
+	/**
+	 * Returns the time the sampling took.
+	 * 
+	 * @return The elapsed time in nanoseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	public int getParticleCount() {
+		return particleCount;
+	}
+
+	/**
+	 * Returns the cards an owner has in a kept deal.
+	 * 
+	 * @param particle
+	 *            The particle index.
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @return The card bitmask of the owner hand.
+	 */
+	public long getParticle(int particle, int owner) {
+		return particles[particle * owners + owner];
+	}
+}
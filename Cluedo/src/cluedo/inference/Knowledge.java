@@ -0,0 +1,447 @@
+package cluedo.inference;
+
+import java.util.Arrays;
+
+import cluedo.game.Zobrist;
+
+/**
+ * What one player knows about where every card is. The table is a matrix of
+ * owners by cards, where the owners are the players (indexed from 0 in turn
+ * order) followed by the solution envelope. Each row is stored as two card
+ * bitmasks: the cards the owner is known to have and the cards the owner is
+ * known not to have. On top of that the knowledge keeps a list of "showed one
+ * of" constraints for refutations the player saw happen but did not see the
+ * card of.
+ * 
+ * After every new fact the table is propagated to a fixed point: every card
+ * has exactly one owner, every hand has a known size, the envelope holds one
+ * card of each type and a "showed one of" constraint with a single possible
+ * card becomes a known card. All of this is done with bit operations over a
+ * handful of longs, so it is cheap enough to call in a tight loop.
+ * 
+ * The knowledge also keeps a Zobrist hash of its facts, updated as facts are
+ * learnt, so equal knowledge tables have equal hashes whoever they belong to.
+ */
+public class Knowledge {
+
+	// knowledge fields
+	private int numberPlayers;
+	private int envelope;
+	private int self;
+	private long cards;
+	private long[] types;
+	private int[] handSizes;
+	private long[] has;
+	private long[] hasNot;
+	private int[] showedPlayers;
+	private long[] showedCards;
+	private int showedCount;
+	private boolean contradiction;
+	private long hash;
+
+	/**
+	 * Setup the knowledge of a player at the start of a game, before they have
+	 * looked at their hand.
+	 * 
+	 * @param numberPlayers
+	 *            The number of players in the game.
+	 * @param self
+	 *            The index of the player this knowledge belongs to.
+	 * @param characterMask
+	 *            The card bitmask of all character cards.
+	 * @param roomMask
+	 *            The card bitmask of all room cards.
+	 * @param weaponMask
+	 *            The card bitmask of all weapon cards.
+	 * @throws IllegalArgumentException
+	 *             If a card type is empty or the types share cards, which is
+	 *             what ids past the 64 cards a mask holds wrap round to.
+	 */
+	public Knowledge(int numberPlayers, int self, long characterMask,
+			long roomMask, long weaponMask) {
+		if (characterMask == 0 || roomMask == 0 || weaponMask == 0
+				|| (characterMask & roomMask) != 0
+				|| (characterMask & weaponMask) != 0
+				|| (roomMask & weaponMask) != 0) {
+			throw new IllegalArgumentException(
+					"Card types must be non empty and fit in " + Long.SIZE
+							+ " cards");
+		}
+		this.numberPlayers = numberPlayers;
+		this.envelope = numberPlayers;
+		this.self = self;
+		this.cards = characterMask | roomMask | weaponMask;
+		this.types = new long[] { characterMask, roomMask, weaponMask };
+
+		// the cards left after the solution are dealt round the table
+		int dealt = Long.bitCount(cards) - types.length;
+		handSizes = new int[numberPlayers + 1];
+		for (int p = 0; p < numberPlayers; p++) {
+			handSizes[p] = handSize(dealt, numberPlayers, p);
+		}
+		handSizes[envelope] = types.length;
+
+		has = new long[numberPlayers + 1];
+		hasNot = new long[numberPlayers + 1];
+		showedPlayers = new int[8];
+		showedCards = new long[8];
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 *            The knowledge to copy.
+	 */
+	public Knowledge(Knowledge other) {
+		numberPlayers = other.numberPlayers;
+		envelope = other.envelope;
+		self = other.self;
+		cards = other.cards;
+		types = other.types;
+		handSizes = other.handSizes;
+		has = other.has.clone();
+		hasNot = other.hasNot.clone();
+		showedPlayers = other.showedPlayers.clone();
+		showedCards = other.showedCards.clone();
+		showedCount = other.showedCount;
+		contradiction = other.contradiction;
+		hash = other.hash;
+	}
+
+	/**
+	 * Returns the number of cards a player is dealt when the remaining cards
+	 * are dealt one at a time round the table starting with player 0.
+	 * 
+	 * @param dealt
+	 *            The number of cards dealt.
+	 * @param numberPlayers
+	 *            The number of players.
+	 * @param player
+	 *            The player index.
+	 * @return The number of cards in that player hand.
+	 */
+	public static int handSize(int dealt, int numberPlayers, int player) {
+		return (dealt - player + numberPlayers - 1) / numberPlayers;
+	}
+
+	/**
+	 * Record that an owner has the given cards.
+	 * 
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @param mask
+	 *            The card bitmask of the cards.
+	 */
+	public void addHas(int owner, long mask) {
+		long added = mask & ~has[owner];
+		hash ^= Zobrist.has(owner, added);
+		has[owner] |= added;
+	}
+
+	/**
+	 * Record that an owner has none of the given cards.
+	 * 
+	 * @param owner
+	 *            The player index, or the envelope index.
+	 * @param mask
+	 *            The card bitmask of the cards.
+	 */
+	public void addHasNot(int owner, long mask) {
+		long added = mask & ~hasNot[owner];
+		hash ^= Zobrist.hasNot(owner, added);
+		hasNot[owner] |= added;
+	}
+
+	/**
+	 * Record that a player showed one of the given cards to someone. A
+	 * constraint that is already recorded is not added again.
+	 * 
+	 * @param player
+	 *            The player index.
+	 * @param mask
+	 *            The card bitmask of the cards one of which was shown.
+	 */
+	public void addShowed(int player, long mask) {
+		for (int i = 0; i < showedCount; i++) {
+			if (showedPlayers[i] == player && showedCards[i] == mask) {
+				return;
+			}
+		}
+		if (showedCount == showedCards.length) {
+			showedPlayers = Arrays.copyOf(showedPlayers, showedCount * 2);
+			showedCards = Arrays.copyOf(showedCards, showedCount * 2);
+		}
+		showedPlayers[showedCount] = player;
+		showedCards[showedCount] = mask;
+		showedCount++;
+		hash ^= Zobrist.showed(player, mask);
+	}
+
+	/**
+	 * Record the result of a suggestion and propagate it. Every player between
+	 * the suggester and the refuter (clockwise) could not refute, so has none
+	 * of the suggested cards. The refuter has the shown card if it was shown
+	 * to this player, otherwise they have at least one of the suggested cards.
+	 * 
+	 * @param suggester
+	 *            The index of the player who made the suggestion.
+	 * @param suggestion
+	 *            The card bitmask of the suggestion.
+	 * @param refuter
+	 *            The index of the player who refuted, -1 if no one did.
+	 * @param shown
+	 *            The id of the shown card, -1 if this player did not see it.
+	 */
+	public void recordSuggestion(int suggester, long suggestion, int refuter,
+			int shown) {
+		// every player asked before the refuter passed
+		int p = (suggester + 1) % numberPlayers;
+		while (p != suggester && p != refuter) {
+			addHasNot(p, suggestion);
+			p = (p + 1) % numberPlayers;
+		}
+
+		if (refuter >= 0) {
+			if (shown >= 0) {
+				addHas(refuter, 1L << shown);
+			} else if (refuter != self) {
+				addShowed(refuter, suggestion);
+			}
+		}
+		propagate();
+	}
+
+	/**
+	 * Apply the deduction rules until nothing new can be deduced.
+	 * 
+	 * @return False if the knowledge contradicts itself.
+	 */
+	public boolean propagate() {
+		boolean changed = true;
+		while (changed && !contradiction) {
+			changed = false;
+
+			// a card with a known owner is not held by anyone else, and a card
+			// all but one owner does not have belongs to that owner
+			long owned = 0;
+			long ones = 0;
+			long twos = 0;
+			for (int o = 0; o <= numberPlayers; o++) {
+				owned |= has[o];
+				long possible = cards & ~hasNot[o];
+				twos |= ones & possible;
+				ones |= possible;
+			}
+			if (ones != cards) {
+				// some card cannot be anywhere
+				contradiction = true;
+				break;
+			}
+			long single = ones & ~twos;
+			for (int o = 0; o <= numberPlayers; o++) {
+				long newHasNot = hasNot[o] | (owned & ~has[o]);
+				long newHas = has[o] | (single & ~hasNot[o]);
+				if (newHasNot != hasNot[o] || newHas != has[o]) {
+					addHasNot(o, newHasNot);
+					addHas(o, newHas);
+					changed = true;
+				}
+			}
+
+			// a full hand has nothing else, and a hand that could only be the
+			// cards not ruled out is exactly those cards
+			for (int o = 0; o < numberPlayers; o++) {
+				changed |= fillHand(o, cards, handSizes[o]);
+			}
+
+			// the envelope holds exactly one card of each type
+			for (int t = 0; t < types.length; t++) {
+				changed |= fillHand(envelope, types[t], 1);
+			}
+
+			// a showed constraint is satisfied by a known card, or forces the
+			// only card it could have been
+			for (int i = 0; i < showedCount; i++) {
+				int player = showedPlayers[i];
+				long possible = showedCards[i] & ~hasNot[player];
+				if ((showedCards[i] & has[player]) != 0) {
+					removeShowed(i--);
+				} else if (Long.bitCount(possible) == 1) {
+					addHas(player, possible);
+					removeShowed(i--);
+					changed = true;
+				} else if (possible == 0) {
+					contradiction = true;
+				}
+			}
+
+			for (int o = 0; o <= numberPlayers; o++) {
+				if ((has[o] & hasNot[o]) != 0) {
+					contradiction = true;
+				}
+			}
+		}
+		return !contradiction;
+	}
+
+	/**
+	 * Apply the hand size rule for one owner over one set of cards.
+	 * 
+	 * @return True if the knowledge changed.
+	 */
+	private boolean fillHand(int owner, long mask, int size) {
+		long known = has[owner] & mask;
+		long possible = mask & ~hasNot[owner];
+		int count = Long.bitCount(known);
+		if (count > size || Long.bitCount(possible) < size) {
+			contradiction = true;
+			return false;
+		}
+		if (count == size && possible != known) {
+			addHasNot(owner, mask & ~known);
+			return true;
+		}
+		if (Long.bitCount(possible) == size && possible != known) {
+			addHas(owner, possible);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove a showed constraint by moving the last constraint into its place.
+	 */
+	private void removeShowed(int i) {
+		hash ^= Zobrist.showed(showedPlayers[i], showedCards[i]);
+		showedCount--;
+		showedPlayers[i] = showedPlayers[showedCount];
+		showedCards[i] = showedCards[showedCount];
+	}
+
+	// get methods below to return the knowledge table
+
+	public int getNumberPlayers() {
+		return numberPlayers;
+	}
+
+	/**
+	 * Returns the owner index used for the solution envelope.
+	 * 
+	 * @return The envelope index.
+	 */
+	public int getEnvelope() {
+		return envelope;
+	}
+
+	public int getSelf() {
+		return self;
+	}
+
+	public long getCards() {
+		return cards;
+	}
+
+	public long getTypeMask(int type) {
+		return types[type];
+	}
+
+	public int getHandSize(int owner) {
+		return handSizes[owner];
+	}
+
+	public long getHas(int owner) {
+		return has[owner];
+	}
+
+	public long getHasNot(int owner) {
+		return hasNot[owner];
+	}
+
+	public int getShowedCount() {
+		return showedCount;
+	}
+
+	public int getShowedPlayer(int i) {
+		return showedPlayers[i];
+	}
+
+	public long getShowedCards(int i) {
+		return showedCards[i];
+	}
+
+	/**
+	 * Returns the cards that could still be in the envelope.
+	 * 
+	 * @return The card bitmask of possible solution cards.
+	 */
+	public long getEnvelopePossible() {
+		return cards & ~hasNot[envelope];
+	}
+
+	/**
+	 * Tests to see if all three solution cards are known.
+	 * 
+	 * @return True if the solution is known.
+	 */
+	public boolean isSolved() {
+		return Long.bitCount(has[envelope]) == types.length;
+	}
+
+	/**
+	 * Returns everything the deals consistent with this knowledge depend on,
+	 * packed into a long array. Two knowledge tables with equal states allow
+	 * exactly the same deals, whichever player they belong to.
+	 * 
+	 * @return The knowledge state.
+	 */
+	public long[] getState() {
+		long[] state = new long[5 + 2 * has.length + 2 * showedCount];
+		int i = 0;
+		state[i++] = numberPlayers;
+		for (int t = 0; t < types.length; t++) {
+			state[i++] = types[t];
+		}
+		state[i++] = showedCount;
+		for (int o = 0; o <= numberPlayers; o++) {
+			state[i++] = has[o];
+			state[i++] = hasNot[o];
+		}
+
+		// the order the constraints were seen in does not matter, so they are
+		// insertion sorted by player then cards
+		int start = i;
+		for (int c = 0; c < showedCount; c++) {
+			int j = i;
+			while (j > start && (state[j - 2] > showedPlayers[c]
+					|| state[j - 2] == showedPlayers[c]
+					&& state[j - 1] > showedCards[c])) {
+				state[j] = state[j - 2];
+				state[j + 1] = state[j - 1];
+				j -= 2;
+			}
+			state[j] = showedPlayers[c];
+			state[j + 1] = showedCards[c];
+			i += 2;
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the recorded facts.
+	 * 
+	 * @return The knowledge hash.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Tests to see if the recorded facts contradict each other.
+	 * 
+	 * @return True if there is a contradiction.
+	 */
+	public boolean hasContradiction() {
+		return contradiction;
+	}
+}
@@ -0,0 +1,238 @@
+package cluedo.inference;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The exact probability of every possible solution triple given what a player
+ * knows. Each triple is weighted by the number of card deals that agree with
+ * the player knowledge and put that triple in the envelope, which assumes
+ * every deal was equally likely. Posteriors are cached by knowledge state, so
+ * asking again after nothing new was learnt costs a single lookup.
+ */
+public class Posterior {
+
+	// number of posteriors kept in the cache
+	private static final int CACHE_SIZE = 256;
+
+	private static final Map<State, Posterior> cache = new LinkedHashMap<State, Posterior>(
+			CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<State, Posterior> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// posterior fields
+	private int[][] typeCards;
+	private double[] probabilities;
+	private double[] cardProbabilities;
+	private double deals;
+
+	/**
+	 * Setup a posterior from deal counts.
+	 *
+	 * @param knowledge
+	 *            The knowledge the deals were counted for.
+	 * @param counts
+	 *            The deal counts of every triple, in the order of
+	 *            {@link DealCounter#countAll()}.
+	 */
+	Posterior(Knowledge knowledge, double[] counts) {
+		typeCards = new int[3][];
+		for (int t = 0; t < typeCards.length; t++) {
+			typeCards[t] = DealCounter.cardsOf(knowledge.getTypeMask(t));
+		}
+
+		// normalise the counts
+		for (double count : counts) {
+			deals += count;
+		}
+		probabilities = new double[counts.length];
+		cardProbabilities = new double[Long.SIZE];
+		int rooms = typeCards[1].length;
+		int weapons = typeCards[2].length;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			double probability = counts[i] / deals;
+			probabilities[i] = probability;
+
+			// sum up the chance of each card being a solution card
+			cardProbabilities[typeCards[0][i / (rooms * weapons)]] += probability;
+			cardProbabilities[typeCards[1][(i / weapons) % rooms]] += probability;
+			cardProbabilities[typeCards[2][i % weapons]] += probability;
+		}
+	}
+
+	/**
+	 * Returns the exact posterior for a knowledge table, using the cached
+	 * posterior if one was already computed for the same knowledge state.
+	 * The deductions are made on a copy, so the given knowledge is left as
+	 * it was.
+	 *
+	 * @param knowledge
+	 *            The knowledge to compute the posterior for.
+	 * @return The posterior.
+	 * @throws IllegalArgumentException
+	 *             If the knowledge is too large to count exactly.
+	 */
+	public static Posterior compute(Knowledge knowledge) {
+		Knowledge propagated = new Knowledge(knowledge);
+		propagated.propagate();
+		State state = new State(propagated.getState());
+		synchronized (cache) {
+			Posterior posterior = cache.get(state);
+			if (posterior != null) {
+				return posterior;
+			}
+		}
+		Posterior posterior = new Posterior(propagated,
+				new DealCounter(propagated).countAll());
+		synchronized (cache) {
+			cache.put(state, posterior);
+		}
+		return posterior;
+	}
+
+	/**
+	 * Returns the probability that the given cards are the solution.
+	 *
+	 * @param character
+	 *            The character card id.
+	 * @param room
+	 *            The room card id.
+	 * @param weapon
+	 *            The weapon card id.
+	 * @return The probability of this solution.
+	 */
+	public double getProbability(int character, int room, int weapon) {
+		int c = indexOf(typeCards[0], character);
+		int r = indexOf(typeCards[1], room);
+		int w = indexOf(typeCards[2], weapon);
+		if (c < 0 || r < 0 || w < 0) {
+			return 0;
+		}
+		return probabilities[(c * typeCards[1].length + r)
+				* typeCards[2].length + w];
+	}
+
+	/**
+	 * Returns the probability that the given card is one of the solution
+	 * cards.
+	 *
+	 * @param card
+	 *            The card id.
+	 * @return The probability that the card is in the envelope.
+	 */
+	public double getCardProbability(int card) {
+		return cardProbabilities[card];
+	}
+
+	/**
+	 * Returns the most likely solution.
+	 *
+	 * @return The card bitmask of the most likely solution triple.
+	 */
+	public long getMostLikely() {
+		int best = 0;
+		for (int i = 1; i < probabilities.length; i++) {
+			if (probabilities[i] > probabilities[best]) {
+				best = i;
+			}
+		}
+		int rooms = typeCards[1].length;
+		int weapons = typeCards[2].length;
+		return (1L << typeCards[0][best / (rooms * weapons)])
+				| (1L << typeCards[1][(best / weapons) % rooms])
+				| (1L << typeCards[2][best % weapons]);
+	}
+
+	/**
+	 * Returns the probabilities of every triple, indexed by the rank of the
+	 * character, room and weapon cards within their types (character rank
+	 * major). The array must not be changed.
+	 *
+	 * @return The triple probabilities.
+	 */
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	/**
+	 * Returns the number of deals that agree with the knowledge.
+	 *
+	 * @return The number of deals.
+	 */
+	public double getDeals() {
+		return deals;
+	}
+
+	/**
+	 * Returns the entropy of the solution in bits.
+	 *
+	 * @return The entropy.
+	 */
+	public double getEntropy() {
+		return entropy(probabilities);
+	}
+
+	/**
+	 * Returns the entropy in bits of a probability distribution.
+	 *
+	 * @param probabilities
+	 *            The probabilities, summing to one.
+	 * @return The entropy.
+	 */
+	public static double entropy(double[] probabilities) {
+		double entropy = 0;
+		for (double p : probabilities) {
+			if (p > 0) {
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2);
+	}
+
+	private static int indexOf(int[] cards, int card) {
+		for (int i = 0; i < cards.length; i++) {
+			if (cards[i] == card) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A knowledge state used as a cache key.
+	 */
+	static class State {
+		private long[] state;
+		private int hash;
+
+		State(long[] state) {
+			this.state = state;
+			this.hash = Arrays.hashCode(state);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			return Arrays.equals(state, ((State) obj).state);
+		}
+	}
+}
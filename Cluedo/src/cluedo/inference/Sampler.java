@@ -0,0 +1,242 @@
+package cluedo.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Estimates the solution posterior by drawing random deals that agree with a
+ * knowledge table. Deals are drawn uniformly among the deals that give every
+ * owner their known cards and put one possible card of each type in the
+ * envelope, then rejected if they break any other fact (cards a player does
+ * not have, "showed one of" constraints). The accepted deals are a uniform
+ * sample of the deals the exact {@link DealCounter} counts, but the cost of
+ * each draw does not grow with the number of constraints or cards.
+ * 
+ * Sampling is split over the workers of a fork join pool, each with its own
+ * random number generator split off the sampler seed, and stops when either
+ * the sample budget or the time budget runs out.
+ * 
+ * Deals are held as long card bitmasks, one per owner, so the sampler handles
+ * any deck {@link cluedo.game.Deck} can build, up to 64 cards.
+ */
+public class Sampler {
+
+	// most deals drawn per accepted deal before giving up without a time budget
+	private static final int MAX_ATTEMPTS_PER_SAMPLE = 100000;
+
+	// sampler fields
+	private Knowledge knowledge;
+	private ForkJoinPool pool;
+	private int workers;
+	private int[] unknown;
+	private int[][] typeCandidates;
+	private int[] needs;
+
+	/**
+	 * Setup a sampler that runs on the common fork join pool.
+	 * 
+	 * @param knowledge
+	 *            The knowledge to sample deals for, copied so later changes
+	 *            do not affect the sampler.
+	 */
+	public Sampler(Knowledge knowledge) {
+		this(knowledge, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Setup a sampler.
+	 * 
+	 * @param knowledge
+	 *            The knowledge to sample deals for, copied so later changes
+	 *            do not affect the sampler.
+	 * @param pool
+	 *            The fork join pool to sample on.
+	 */
+	public Sampler(Knowledge knowledge, ForkJoinPool pool) {
+		this.knowledge = new Knowledge(knowledge);
+		this.knowledge.propagate();
+		this.pool = pool;
+		this.workers = pool.getParallelism();
+
+		// cards without a known owner
+		long owned = 0;
+		for (int o = 0; o <= this.knowledge.getNumberPlayers(); o++) {
+			owned |= this.knowledge.getHas(o);
+		}
+		long unowned = this.knowledge.getCards() & ~owned;
+		unknown = DealCounter.cardsOf(unowned);
+
+		// the possible solution cards of each type not known yet
+		int envelope = this.knowledge.getEnvelope();
+		typeCandidates = new int[3][];
+		for (int t = 0; t < typeCandidates.length; t++) {
+			long type = this.knowledge.getTypeMask(t);
+			if ((this.knowledge.getHas(envelope) & type) != 0) {
+				typeCandidates[t] = new int[0];
+			} else {
+				typeCandidates[t] = DealCounter.cardsOf(type & unowned
+						& this.knowledge.getEnvelopePossible());
+			}
+		}
+
+		// the number of unknown cards each player still needs
+		needs = new int[this.knowledge.getNumberPlayers()];
+		for (int p = 0; p < needs.length; p++) {
+			needs[p] = this.knowledge.getHandSize(p)
+					- Long.bitCount(this.knowledge.getHas(p));
+		}
+	}
+
+	/**
+	 * Draw deals until either budget runs out.
+	 * 
+	 * @param seed
+	 *            The seed the worker random number generators are split from.
+	 *            With no time budget the result only depends on the seed.
+	 * @param maxSamples
+	 *            The number of accepted deals to stop at.
+	 * @param maxMillis
+	 *            The time budget in milliseconds, 0 for no time budget.
+	 * @param maxParticles
+	 *            The number of accepted deals to keep in the estimate.
+	 * @return The estimate from the accepted deals.
+	 */
+	public Estimate sample(long seed, int maxSamples, long maxMillis,
+			int maxParticles) {
+		long start = System.nanoTime();
+		long deadline = maxMillis > 0 ? start + maxMillis * 1000000L
+				: Long.MAX_VALUE;
+
+		// split the work and the random streams between the workers
+		SplittableRandom random = new SplittableRandom(seed);
+		List<Worker> tasks = new ArrayList<Worker>();
+		for (int i = 0; i < workers; i++) {
+			int samples = maxSamples / workers
+					+ (i < maxSamples % workers ? 1 : 0);
+			int particles = maxParticles / workers
+					+ (i < maxParticles % workers ? 1 : 0);
+			tasks.add(new Worker(random.split(), samples, particles, deadline));
+		}
+		for (Worker task : tasks) {
+			pool.execute(task);
+		}
+
+		// combine the worker estimates
+		Estimate estimate = new Estimate(knowledge);
+		for (Worker task : tasks) {
+			estimate.merge(task.join());
+		}
+		estimate.setElapsed(System.nanoTime() - start);
+		return estimate;
+	}
+
+	/**
+	 * Draw one deal, writing the hand of every owner into the given array.
+	 * 
+	 * @param random
+	 *            The random number generator to draw with.
+	 * @param order
+	 *            Scratch space at least as long as the unknown cards.
+	 * @param hands
+	 *            The array to write each owner card bitmask to.
+	 * @return True if the deal agrees with the knowledge.
+	 */
+	boolean draw(SplittableRandom random, int[] order, long[] hands) {
+		int numberPlayers = knowledge.getNumberPlayers();
+		int envelope = knowledge.getEnvelope();
+		for (int o = 0; o <= numberPlayers; o++) {
+			hands[o] = knowledge.getHas(o);
+		}
+
+		// pick the unknown solution cards
+		for (int t = 0; t < typeCandidates.length; t++) {
+			int[] candidates = typeCandidates[t];
+			if (candidates.length > 0) {
+				hands[envelope] |= 1L << candidates[random
+						.nextInt(candidates.length)];
+			}
+		}
+
+		// shuffle the rest of the unknown cards into the player hands
+		int count = 0;
+		for (int card : unknown) {
+			if ((hands[envelope] & (1L << card)) == 0) {
+				order[count++] = card;
+			}
+		}
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		int next = 0;
+		for (int p = 0; p < numberPlayers; p++) {
+			for (int i = 0; i < needs[p]; i++) {
+				hands[p] |= 1L << order[next++];
+			}
+
+			// reject as soon as a player has a card they cannot have
+			if ((hands[p] & knowledge.getHasNot(p)) != 0) {
+				return false;
+			}
+		}
+
+		// reject deals that break a showed constraint
+		for (int i = 0; i < knowledge.getShowedCount(); i++) {
+			if ((hands[knowledge.getShowedPlayer(i)] & knowledge
+					.getShowedCards(i)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Knowledge getKnowledge() {
+		return knowledge;
+	}
+
+	/**
+	 * One worker drawing deals with its own random number generator.
+	 */
+	@SuppressWarnings("serial")
+	private class Worker extends RecursiveTask<Estimate> {
+		private SplittableRandom random;
+		private int samples;
+		private int particles;
+		private long deadline;
+
+		public Worker(SplittableRandom random, int samples, int particles,
+				long deadline) {
+			this.random = random;
+			this.samples = samples;
+			this.particles = particles;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected Estimate compute() {
+			Estimate estimate = new Estimate(knowledge);
+			estimate.reserveParticles(particles);
+			int[] order = new int[unknown.length];
+			long[] hands = new long[knowledge.getNumberPlayers() + 1];
+			long attempts = 0;
+			long maxAttempts = (long) samples * MAX_ATTEMPTS_PER_SAMPLE;
+			while (estimate.getSamples() < samples && attempts < maxAttempts
+					&& !knowledge.hasContradiction()) {
+				// only check the clock every so often
+				if ((++attempts & 0xFF) == 0 && System.nanoTime() > deadline) {
+					break;
+				}
+				if (draw(random, order, hands)) {
+					estimate.add(hands);
+				}
+			}
+			estimate.addAttempts(attempts);
+			return estimate;
+		}
+	}
+}
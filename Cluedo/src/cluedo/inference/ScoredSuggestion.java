@@ -0,0 +1,89 @@
+package cluedo.inference;
+
+/**
+ * A possible suggestion scored by how much it is expected to teach the
+ * suggester about the solution. Orders from the best suggestion to the worst.
+ */
+public class ScoredSuggestion implements Comparable<ScoredSuggestion> {
+
+	// scored suggestion fields
+	private int character;
+	private int room;
+	private int weapon;
+	private double expectedEntropy;
+	private double gain;
+
+	/**
+	 * Setup a new scored suggestion.
+	 * 
+	 * @param character
+	 *            The suggested character card id.
+	 * @param room
+	 *            The suggested room card id.
+	 * @param weapon
+	 *            The suggested weapon card id.
+	 * @param expectedEntropy
+	 *            The expected entropy of the solution in bits after the
+	 *            suggestion is refuted or not.
+	 * @param gain
+	 *            The expected entropy reduction in bits.
+	 */
+	public ScoredSuggestion(int character, int room, int weapon,
+			double expectedEntropy, double gain) {
+		this.character = character;
+		this.room = room;
+		this.weapon = weapon;
+		this.expectedEntropy = expectedEntropy;
+		this.gain = gain;
+	}
+
+	// get methods below to return the suggestion and its score
+
+	public int getCharacter() {
+		return character;
+	}
+
+	public int getRoom() {
+		return room;
+	}
+
+	public int getWeapon() {
+		return weapon;
+	}
+
+	/**
+	 * Returns the cards of this suggestion as a card bitmask.
+	 * 
+	 * @return The bitmask of the character, room and weapon cards.
+	 */
+	public long getMask() {
+		return (1L << character) | (1L << room) | (1L << weapon);
+	}
+
+	public double getExpectedEntropy() {
+		return expectedEntropy;
+	}
+
+	public double getGain() {
+		return gain;
+	}
+
+	@Override
+	public int compareTo(ScoredSuggestion other) {
+		// higher gain first, ties broken by card ids so the order is stable
+		int compare = Double.compare(other.gain, gain);
+		if (compare == 0) {
+			compare = Integer.compare(character, other.character);
+		}
+		if (compare == 0) {
+			compare = Integer.compare(weapon, other.weapon);
+		}
+		return compare;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d/%d %.3f bits", character, room, weapon,
+				gain);
+	}
+}
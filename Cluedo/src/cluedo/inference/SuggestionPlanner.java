@@ -0,0 +1,242 @@
+package cluedo.inference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Chooses suggestions by how much they are expected to reduce the entropy of
+ * the solution posterior. Every character and weapon pair for the room the
+ * suggester is in is played out against a set of deals drawn by the
+ * {@link Sampler}. In each deal the players are asked clockwise from the
+ * suggester, the first one holding a suggested card refutes and shows one of
+ * their matching cards at random, just like the game does. Deals are grouped by
+ * what the suggester would see (who refuted and which card) and the entropy of
+ * the solution within each group, weighted by the chance of the group, is the
+ * expected entropy after the suggestion.
+ * 
+ * The deals are drawn once per knowledge state and kept in a small cache, so
+ * planning again before anything new was learnt only replays the suggestions.
+ * Each pair is scored in its own fork join task.
+ */
+public class SuggestionPlanner {
+
+	// number of deal sets kept in the cache
+	private static final int CACHE_SIZE = 16;
+
+	// planner fields
+	private ForkJoinPool pool;
+	private int particles;
+	private long maxMillis;
+	private long seed;
+	private Map<Posterior.State, Estimate> cache;
+
+	/**
+	 * Setup a planner that runs on the common fork join pool.
+	 * 
+	 * @param particles
+	 *            The number of deals to play each suggestion out on.
+	 * @param maxMillis
+	 *            The time budget for drawing the deals in milliseconds, 0 for
+	 *            no time budget.
+	 * @param seed
+	 *            The seed deals are drawn with.
+	 */
+	public SuggestionPlanner(int particles, long maxMillis, long seed) {
+		this(particles, maxMillis, seed, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Setup a planner.
+	 * 
+	 * @param particles
+	 *            The number of deals to play each suggestion out on.
+	 * @param maxMillis
+	 *            The time budget for drawing the deals in milliseconds, 0 for
+	 *            no time budget.
+	 * @param seed
+	 *            The seed deals are drawn with.
+	 * @param pool
+	 *            The fork join pool to sample and score on.
+	 */
+	public SuggestionPlanner(int particles, long maxMillis, long seed,
+			ForkJoinPool pool) {
+		this.particles = particles;
+		this.maxMillis = maxMillis;
+		this.seed = seed;
+		this.pool = pool;
+		this.cache = new LinkedHashMap<Posterior.State, Estimate>(CACHE_SIZE,
+				0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Posterior.State, Estimate> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Score every suggestion the knowledge owner could make from a room.
+	 * 
+	 * @param knowledge
+	 *            The knowledge of the suggester.
+	 * @param room
+	 *            The card id of the room the suggester is in.
+	 * @return Every character and weapon pair for the room, best first.
+	 */
+	public List<ScoredSuggestion> plan(Knowledge knowledge, int room) {
+		Estimate deals = getDeals(knowledge);
+		int[] characters = DealCounter.cardsOf(knowledge.getTypeMask(0));
+		int[] weapons = DealCounter.cardsOf(knowledge.getTypeMask(2));
+
+		// score every pair in parallel
+		double before = expectedEntropy(deals, knowledge.getSelf(),
+				knowledge.getNumberPlayers(), 0);
+		List<Scorer> tasks = new ArrayList<Scorer>();
+		for (int character : characters) {
+			for (int weapon : weapons) {
+				tasks.add(new Scorer(knowledge, deals, before, character,
+						room, weapon));
+			}
+		}
+		for (Scorer task : tasks) {
+			pool.execute(task);
+		}
+		List<ScoredSuggestion> scores = new ArrayList<ScoredSuggestion>();
+		for (Scorer task : tasks) {
+			scores.add(task.join());
+		}
+		Collections.sort(scores);
+		return scores;
+	}
+
+	/**
+	 * Returns the deals drawn for a knowledge state, drawing them if they are
+	 * not cached yet.
+	 */
+	private Estimate getDeals(Knowledge knowledge) {
+		Knowledge propagated = new Knowledge(knowledge);
+		propagated.propagate();
+		Posterior.State state = new Posterior.State(propagated.getState());
+		synchronized (cache) {
+			Estimate deals = cache.get(state);
+			if (deals != null) {
+				return deals;
+			}
+		}
+		Estimate deals = new Sampler(propagated, pool).sample(seed, particles,
+				maxMillis, particles);
+		synchronized (cache) {
+			cache.put(state, deals);
+		}
+		return deals;
+	}
+
+	/**
+	 * Returns the expected entropy of the solution after a suggestion, played
+	 * out on a set of deals.
+	 * 
+	 * @param deals
+	 *            The deals, kept as particles.
+	 * @param suggester
+	 *            The index of the suggesting player.
+	 * @param numberPlayers
+	 *            The number of players.
+	 * @param suggestion
+	 *            The card bitmask of the suggestion, 0 for the entropy before
+	 *            any suggestion.
+	 * @return The expected entropy in bits.
+	 */
+	static double expectedEntropy(Estimate deals, int suggester,
+			int numberPlayers, long suggestion) {
+		// an outcome is which player after the suggester refuted with which of
+		// the three cards, or no refutation at all
+		int[] cards = DealCounter.cardsOf(suggestion);
+		int outcomes = (numberPlayers - 1) * cards.length + 1;
+		int envelope = numberPlayers;
+		int triples = deals.getTripleCount();
+		double[] weights = new double[outcomes * triples];
+		double[] totals = new double[outcomes];
+		for (int i = 0; i < deals.getParticleCount(); i++) {
+			int triple = deals.tripleIndex(deals.getParticle(i, envelope));
+			int outcome = outcomes - 1;
+			long matches = 0;
+			for (int k = 1; k < numberPlayers && matches == 0; k++) {
+				int player = (suggester + k) % numberPlayers;
+				matches = deals.getParticle(i, player) & suggestion;
+				if (matches != 0) {
+					outcome = (k - 1) * cards.length;
+				}
+			}
+
+			// a refuter with several matching cards shows each equally often
+			if (matches == 0) {
+				weights[outcome * triples + triple] += 1;
+				totals[outcome] += 1;
+			} else {
+				double share = 1.0 / Long.bitCount(matches);
+				for (int c = 0; c < cards.length; c++) {
+					if ((matches & (1L << cards[c])) != 0) {
+						weights[(outcome + c) * triples + triple] += share;
+						totals[outcome + c] += share;
+					}
+				}
+			}
+		}
+		int total = deals.getParticleCount();
+		if (total == 0) {
+			return 0;
+		}
+
+		// weigh the entropy of each outcome by its chance
+		double entropy = 0;
+		for (int o = 0; o < outcomes; o++) {
+			for (int t = 0; t < triples; t++) {
+				double weight = weights[o * triples + t];
+				if (weight > 0) {
+					entropy -= weight / total * Math.log(weight / totals[o]);
+				}
+			}
+		}
+		return entropy / Math.log(2);
+	}
+
+	/**
+	 * Scores one suggestion.
+	 */
+	@SuppressWarnings("serial")
+	private static class Scorer extends RecursiveTask<ScoredSuggestion> {
+		private Knowledge knowledge;
+		private Estimate deals;
+		private double before;
+		private int character;
+		private int room;
+		private int weapon;
+
+		public Scorer(Knowledge knowledge, Estimate deals, double before,
+				int character, int room, int weapon) {
+			this.knowledge = knowledge;
+			this.deals = deals;
+			this.before = before;
+			this.character = character;
+			this.room = room;
+			this.weapon = weapon;
+		}
+
+		@Override
+		protected ScoredSuggestion compute() {
+			long suggestion = (1L << character) | (1L << room)
+					| (1L << weapon);
+			double after = expectedEntropy(deals, knowledge.getSelf(),
+					knowledge.getNumberPlayers(), suggestion);
+			return new ScoredSuggestion(character, room, weapon, after,
+					Math.max(0, before - after));
+		}
+	}
+}
@@ -2,16 +2,53 @@ package cluedo.tests;
 
 import static org.junit.Assert.*;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
 
 import org.junit.*;
 
+import cluedo.ai.BotDecision;
+import cluedo.ai.IsmctsBot;
 import cluedo.game.*;
+import cluedo.tiles.DoorTile;
+import cluedo.tiles.RoomTile;
+import cluedo.tiles.Tile;
 import cluedo.tokens.CharacterToken;
+import cluedo.tokens.Token;
+import cluedo.tokens.WeaponToken;
 import cluedo.board.Board;
+import cluedo.board.BoardFile;
+import cluedo.board.CompiledMap;
+import cluedo.board.Dijkstra;
+import cluedo.board.DistanceField;
+import cluedo.board.HierarchicalPathFinder;
 import cluedo.board.Location;
+import cluedo.board.MapGenerator;
+import cluedo.board.OccupancyGrid;
+import cluedo.board.PathFinder;
+import cluedo.board.Progress;
 import cluedo.board.Room;
+import cluedo.board.RoomReach;
+import cluedo.board.RoutePlanner;
+import cluedo.board.TileGraph;
 import cluedo.cards.*;
+import cluedo.inference.DealCounter;
+import cluedo.inference.Estimate;
+import cluedo.inference.Knowledge;
+import cluedo.inference.Posterior;
+import cluedo.inference.Sampler;
+import cluedo.inference.ScoredSuggestion;
+import cluedo.inference.SuggestionPlanner;
 
 public class Tests {
 
@@ -101,6 +138,488 @@ public class Tests {
 		assertFalse(card1.equals(card2));
 	}
 	
+	@Test
+	public void testCardIdsMatchDeck() {
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS);
+		for (Card card : deck.getDeck()) {
+			assertTrue(deck.getCard(card.getId()) == card);
+		}
+		assertEquals(new RoomCard("Kitchen").getId(), Game.CHARACTERS.length);
+		assertEquals(deck.getCardsMask(), (1 << 21) - 1);
+	}
+
+	@Test
+	public void testSolutionMask() {
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS);
+		deck.generateSolution();
+		long mask = deck.getSolutionMask();
+		assertEquals(Long.bitCount(mask), 3);
+		assertEquals(Long.bitCount(mask & deck.getCharacterMask()), 1);
+		assertEquals(Long.bitCount(mask & deck.getRoomMask()), 1);
+		assertEquals(Long.bitCount(mask & deck.getWeaponMask()), 1);
+		for (Card card : deck.getSolution()) {
+			assertTrue((mask & card.getMask()) != 0);
+		}
+	}
+
+	@Test
+	public void testPickFromMask() {
+		int mask = (1 << 3) | (1 << 7) | (1 << 20);
+		assertEquals(Card.pick(mask, 0.0), 3);
+		assertEquals(Card.pick(mask, 0.5), 7);
+		assertEquals(Card.pick(mask, 0.99), 20);
+	}
+
+	@Test
+	public void testSeededDeckReproducible() {
+		Deck deck1 = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(42));
+		Deck deck2 = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(42));
+		deck1.generateSolution();
+		deck2.generateSolution();
+		assertEquals(deck1.getSolutionMask(), deck2.getSolutionMask());
+		assertEquals(deck1.getDeck(), deck2.getDeck());
+	}
+
+	@Test
+	public void testDealHandsPartitionsDeck() {
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(3));
+		long[] hands = new long[4];
+		for (int game = 0; game < 100; game++) {
+			deck.generateSolution();
+			deck.dealHands(hands, hands.length);
+			long dealt = deck.getSolutionMask();
+			for (long hand : hands) {
+				assertEquals(dealt & hand, 0);
+				dealt |= hand;
+			}
+			assertEquals(dealt, deck.getCardsMask());
+			assertTrue(Long.bitCount(hands[0]) == 5
+					&& Long.bitCount(hands[3]) == 4);
+		}
+	}
+
+	@Test
+	public void testDealCardsMatchesDealHands() {
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS,
+				new SplittableRandom(5));
+		deck.generateSolution();
+		long[] hands = new long[3];
+		deck.dealHands(hands, hands.length);
+		Player[] players = new Player[3];
+		for (int i = 0; i < players.length; i++) {
+			players[i] = new Player(null, "Player " + (i + 1), i + 1);
+		}
+		deck.dealCards(players, players.length);
+		for (int i = 0; i < players.length; i++) {
+			assertEquals(players[i].getHand(), hands[i]);
+		}
+		assertTrue(deck.getDeck().isEmpty());
+
+		// the cards are gone, so dealing again deals nothing
+		deck.dealCards(players, players.length);
+		for (int i = 0; i < players.length; i++) {
+			assertEquals(players[i].getHandCards().size(),
+					Long.bitCount(hands[i]));
+		}
+		deck.dealHands(hands, hands.length);
+		assertEquals(hands[0] | hands[1] | hands[2], 0);
+	}
+
+	@Test
+	public void testSuggestionRefutedClockwise() {
+		Game game = new Game(3, 3);
+		Player[] players = game.getPlayers();
+		Deck deck = game.getDeck();
+		long solution = deck.getSolutionMask();
+
+		// one card of the third player in place of the same kind of solution
+		int card = Long.numberOfTrailingZeros(players[2].getHand());
+		long kind = deck.getCharacterMask();
+		if ((deck.getRoomMask() & (1L << card)) != 0) {
+			kind = deck.getRoomMask();
+		} else if ((deck.getWeaponMask() & (1L << card)) != 0) {
+			kind = deck.getWeaponMask();
+		}
+		long suggestion = (solution & ~kind) | (1L << card);
+		assertEquals(card, game.resolveSuggestion(players[0], suggestion));
+		assertTrue((players[0].getKnowledge().getHas(2) & (1 << card)) != 0);
+
+		// no one can refute the solution
+		assertEquals(-1, game.resolveSuggestion(players[0], solution));
+		assertTrue(players[0].getKnowledge().isSolved());
+	}
+
+	/**
+	 * Knowledge for player 0 of a 3 player game holding the first six cards
+	 * dealt by a fixed deck.
+	 */
+	private Knowledge setupKnowledge(int hand) {
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS);
+		Knowledge knowledge = new Knowledge(3, 0, deck.getCharacterMask(),
+				deck.getRoomMask(), deck.getWeaponMask());
+		knowledge.addHas(0, hand);
+		knowledge.addHasNot(0, deck.getCardsMask() & ~hand);
+		knowledge.propagate();
+		return knowledge;
+	}
+
+	@Test
+	public void testKnowledgeShownCard() {
+		// cards 0, 1, 6, 7, 15, 16 in hand
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		knowledge.recordSuggestion(0, (1 << 2) | (1 << 8) | (1 << 17), 1, 8);
+		assertTrue((knowledge.getHas(1) & (1 << 8)) != 0);
+		assertTrue((knowledge.getHasNot(2) & (1 << 8)) != 0);
+		assertTrue((knowledge.getEnvelopePossible() & (1 << 8)) == 0);
+		assertFalse(knowledge.hasContradiction());
+	}
+
+	@Test
+	public void testKnowledgeShowedOneOf() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		int suggestion = (1 << 2) | (1 << 8) | (1 << 17);
+		// player 1 suggests, player 2 shows player 1 an unknown card
+		knowledge.recordSuggestion(1, suggestion, 2, -1);
+		assertEquals(knowledge.getShowedCount(), 1);
+		// player 2 later passes on cards 2 and 8
+		knowledge.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 0), 0, 0);
+		assertTrue((knowledge.getHas(2) & (1 << 17)) != 0);
+		assertEquals(knowledge.getShowedCount(), 0);
+	}
+
+	@Test
+	public void testKnowledgeSolvesEnvelope() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		int suggestion = (1 << 2) | (1 << 8) | (1 << 17);
+		knowledge.recordSuggestion(0, suggestion, -1, -1);
+		assertTrue(knowledge.isSolved());
+		assertEquals(knowledge.getHas(knowledge.getEnvelope()), suggestion);
+	}
+
+	@Test
+	public void testPosteriorUniformAtStart() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		Posterior posterior = Posterior.compute(knowledge);
+		// 4 characters, 7 rooms and 4 weapons are not in hand
+		assertEquals(posterior.getProbability(2, 8, 17), 1.0 / 112, 1e-12);
+		assertEquals(posterior.getProbability(0, 8, 17), 0, 0);
+		assertEquals(posterior.getCardProbability(2), 0.25, 1e-12);
+	}
+
+	@Test
+	public void testPosteriorSumsToOne() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		knowledge.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 17), 2, -1);
+		knowledge.recordSuggestion(2, (1 << 3) | (1 << 9) | (1 << 18), 0, 0);
+		Posterior posterior = Posterior.compute(knowledge);
+		double total = 0;
+		for (double p : posterior.getProbabilities()) {
+			total += p;
+		}
+		assertEquals(total, 1, 1e-9);
+		assertTrue(posterior.getEntropy() > 0);
+	}
+
+	@Test
+	public void testPosteriorSolved() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		int suggestion = (1 << 2) | (1 << 8) | (1 << 17);
+		knowledge.recordSuggestion(0, suggestion, -1, -1);
+		Posterior posterior = Posterior.compute(knowledge);
+		assertEquals(posterior.getProbability(2, 8, 17), 1, 1e-12);
+		assertEquals(posterior.getMostLikely(), suggestion);
+		assertEquals(posterior.getEntropy(), 0, 1e-12);
+	}
+
+	@Test
+	public void testDealCounterMatchesEnumeration() {
+		// 3 characters, 4 rooms and 3 weapons, cards 0, 3 and 7 in hand
+		Knowledge knowledge = new Knowledge(3, 0, 0x7, 0x78, 0x380);
+		knowledge.addHas(0, 0x89);
+		knowledge.addHasNot(0, 0x3FF & ~0x89);
+		knowledge.recordSuggestion(1, (1 << 1) | (1 << 4) | (1 << 8), 2, -1);
+		knowledge.recordSuggestion(0, (1 << 2) | (1 << 5) | (1 << 9), 1, 5);
+		knowledge.recordSuggestion(2, (1 << 1) | (1 << 6) | (1 << 9), 1, -1);
+		DealCounter counter = new DealCounter(knowledge);
+		double[][][] expected = new double[3][7][10];
+		long[] hands = new long[4];
+		enumerateDeals(knowledge, 0, hands, expected);
+		double total = 0;
+		for (int c = 0; c < 3; c++) {
+			for (int r = 3; r < 7; r++) {
+				for (int w = 7; w < 10; w++) {
+					assertEquals(counter.count(c, r, w), expected[c][r][w], 0);
+					total += expected[c][r][w];
+				}
+			}
+		}
+		assertTrue(total > 0);
+		assertEquals(Posterior.compute(knowledge).getDeals(), total, 0);
+	}
+
+	/**
+	 * Deal every card from the given one on to each owner in turn, and count
+	 * the finished deals that agree with the knowledge by envelope triple.
+	 */
+	private void enumerateDeals(Knowledge knowledge, int card, long[] hands,
+			double[][][] counts) {
+		if (card == Long.bitCount(knowledge.getCards())) {
+			for (int o = 0; o < hands.length; o++) {
+				if (Long.bitCount(hands[o]) != knowledge.getHandSize(o)
+						|| (knowledge.getHas(o) & ~hands[o]) != 0
+						|| (knowledge.getHasNot(o) & hands[o]) != 0) {
+					return;
+				}
+			}
+			for (int i = 0; i < knowledge.getShowedCount(); i++) {
+				if ((hands[knowledge.getShowedPlayer(i)]
+						& knowledge.getShowedCards(i)) == 0) {
+					return;
+				}
+			}
+			int[] envelope = new int[3];
+			for (int t = 0; t < envelope.length; t++) {
+				long mask = hands[knowledge.getEnvelope()]
+						& knowledge.getTypeMask(t);
+				if (Long.bitCount(mask) != 1) {
+					return;
+				}
+				envelope[t] = Long.numberOfTrailingZeros(mask);
+			}
+			counts[envelope[0]][envelope[1]][envelope[2]]++;
+			return;
+		}
+		for (int o = 0; o < hands.length; o++) {
+			hands[o] |= 1L << card;
+			enumerateDeals(knowledge, card + 1, hands, counts);
+			hands[o] &= ~(1L << card);
+		}
+	}
+
+	@Test
+	public void testTooManyCardsRejected() {
+		String[] rooms = new String[Long.SIZE - 11];
+		for (int i = 0; i < rooms.length; i++) {
+			rooms[i] = "Room " + (i + 1);
+		}
+		try {
+			new Deck(Game.CHARACTERS, rooms, Game.WEAPONS,
+					new SplittableRandom(1));
+			fail("deck of " + (rooms.length + 12) + " cards");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			// card 64 wraps round onto card 0
+			new Knowledge(3, 0, 0x3FL, 0x7FFFFFFFFFFFFC0L,
+					0x1L | 0xF800000000000000L);
+			fail("wrapped weapon mask");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSamplerAgreesWithPosterior() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		knowledge.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 17), 2, -1);
+		knowledge.recordSuggestion(2, (1 << 3) | (1 << 9) | (1 << 18), 0, 0);
+		Posterior posterior = Posterior.compute(knowledge);
+		Estimate estimate = new Sampler(knowledge).sample(1, 20000, 0, 10);
+		assertEquals(estimate.getSamples(), 20000);
+		assertEquals(estimate.getParticleCount(), 10);
+		for (int card = 0; card < 21; card++) {
+			// allow twice the 95% confidence interval
+			assertEquals(estimate.getCardProbability(card),
+					posterior.getCardProbability(card),
+					2 * estimate.getCardConfidence(card) + 1e-9);
+		}
+	}
+
+	@Test
+	public void testSamplerReproducible() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		knowledge.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 17), 2, -1);
+		Estimate first = new Sampler(knowledge).sample(9, 1000, 0, 0);
+		Estimate second = new Sampler(knowledge).sample(9, 1000, 0, 0);
+		for (int card = 0; card < 21; card++) {
+			assertEquals(first.getCardProbability(card),
+					second.getCardProbability(card), 0);
+		}
+	}
+
+	@Test
+	public void testSamplerHandlesLargeDeck() {
+		// 6 characters, 40 rooms and 6 weapons, past what an int mask holds
+		long weapons = 0x3FL << 46;
+		Knowledge knowledge = new Knowledge(4, 0, 0x3FL,
+				((1L << 40) - 1) << 6, weapons);
+		long cards = knowledge.getCards();
+		long hand = ((1L << 13) - 1) << 33;
+		knowledge.addHas(0, hand);
+		knowledge.addHasNot(0, cards & ~hand);
+		long suggestion = (1L << 2) | (1L << 30) | (1L << 50);
+		knowledge.recordSuggestion(1, suggestion, 2, -1);
+		Estimate estimate = new Sampler(knowledge).sample(3, 2000, 0, 50);
+		assertEquals(estimate.getSamples(), 2000);
+		for (int i = 0; i < estimate.getParticleCount(); i++) {
+			long dealt = 0;
+			for (int o = 0; o <= 4; o++) {
+				long owned = estimate.getParticle(i, o);
+				assertEquals(dealt & owned, 0);
+				assertEquals(Long.bitCount(owned), knowledge.getHandSize(o));
+				dealt |= owned;
+			}
+			assertEquals(dealt, cards);
+			assertEquals(estimate.getParticle(i, 0), hand);
+			assertTrue((estimate.getParticle(i, 2) & suggestion) != 0);
+			assertEquals(Long.bitCount(estimate.getParticle(i, 4) & weapons),
+					1);
+		}
+		double total = 0;
+		for (int card = 46; card < 52; card++) {
+			total += estimate.getCardProbability(card);
+		}
+		assertEquals(total, 1, 1e-9);
+		assertEquals(estimate.getCardProbability(45), 0, 0);
+	}
+
+	@Test
+	public void testPlannerRanksEverySuggestion() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		List<ScoredSuggestion> plan = new SuggestionPlanner(2000, 0, 1).plan(
+				knowledge, 8);
+		assertEquals(plan.size(), 36);
+		double entropy = Posterior.compute(knowledge).getEntropy();
+		for (int i = 0; i < plan.size(); i++) {
+			assertTrue(plan.get(i).getGain() >= 0);
+			assertTrue(plan.get(i).getGain() <= entropy);
+			if (i > 0) {
+				assertTrue(plan.get(i).getGain() <= plan.get(i - 1).getGain());
+			}
+		}
+		assertTrue(plan.get(0).getGain() > 0);
+	}
+
+	@Test
+	public void testPlannerNoGainFromOwnCards() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		List<ScoredSuggestion> plan = new SuggestionPlanner(500, 0, 1).plan(
+				knowledge, 6);
+		for (ScoredSuggestion suggestion : plan) {
+			if ((suggestion.getMask() & ~0x180C3) == 0) {
+				// no one can refute, which the player already knew
+				assertEquals(suggestion.getGain(), 0, 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testBotAccusesWhenSolved() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		int suggestion = (1 << 2) | (1 << 8) | (1 << 17);
+		knowledge.recordSuggestion(0, suggestion, -1, -1);
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		RoomReach reach = RoomReach.forGraph(b.getTileGraph());
+		RoutePlanner routes = RoutePlanner.forGraph(b.getTileGraph());
+		BotDecision decision = new IsmctsBot(200, 0.7, reach, routes).decide(
+				knowledge, startTile(b), new int[0], 1 << 9, 0, 2000, 1);
+		assertEquals(decision.getType(), BotDecision.ACCUSE);
+		assertEquals(decision.getCards(), suggestion);
+		assertEquals(decision.getTile(), -1);
+	}
+
+	@Test
+	public void testBotSuggestsWithinBudget() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		Dice dice = new Dice(new SplittableRandom(4));
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, dice);
+		RoomReach reach = RoomReach.forGraph(b.getTileGraph());
+		RoutePlanner routes = RoutePlanner.forGraph(b.getTileGraph());
+		// roll until some rooms can be reached from the start
+		b.setPlayer(new Player(b.getCharacters().get(0), "Bot", 1));
+		long rooms = 0;
+		while (rooms == 0) {
+			dice.roll();
+			b.setValidTiles();
+			rooms = b.getReachableRooms();
+		}
+		BotDecision decision = new IsmctsBot(500, 0.7, reach, routes).decide(
+				knowledge, startTile(b), b.getValidMoves(), rooms, 200, 0, 1);
+		assertTrue(decision.getIterations() > 0);
+		assertTrue(decision.getElapsed() < 2000 * 1000000L);
+		// guessing now is a long shot, asking in a reachable room is not
+		assertEquals(decision.getType(), BotDecision.SUGGEST);
+		assertTrue((decision.getCards() & rooms) != 0);
+		// the bot walks onto a door of the room it suggests in
+		int tile = decision.getTile();
+		Tile door = b.getTile(new Location(tile % b.getWidth(), tile
+				/ b.getWidth()));
+		assertTrue(door instanceof DoorTile);
+		assertEquals(((DoorTile) door).getRoom().getId(), decision.getRoom());
+	}
+
+	@Test
+	public void testBotPlaysTurn() {
+		Game game = new Game(6, 3);
+		Board b = game.getBoard();
+		for (Player player : game.getPlayers()) {
+			player.setBot(new IsmctsBot(200, 0.7, RoomReach.forGraph(b
+					.getTileGraph()), RoutePlanner.forGraph(b.getTileGraph())));
+		}
+		Player player = game.getPlayers()[0];
+		assertTrue(player.isComputer());
+		BotDecision decision = game.playBotTurn(player, 0, 500);
+		Room room = b.roomIn(player.getToken());
+		if (decision.getType() == BotDecision.SUGGEST) {
+			// the player made it into the room it suggested in
+			assertNotNull(room);
+			assertEquals(room.getId(), decision.getRoom());
+		} else if (decision.getType() == BotDecision.PASS && room == null) {
+			// the player walked to the tile it chose
+			assertTrue(decision.getTile() >= 0);
+			assertEquals(b.getTileIndex(player.getToken().getLocation()),
+					decision.getTile());
+		}
+	}
+
+	@Test
+	public void testBotNeedsBudget() {
+		Knowledge knowledge = setupKnowledge(0x180C3);
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		RoomReach reach = RoomReach.forGraph(b.getTileGraph());
+		RoutePlanner routes = RoutePlanner.forGraph(b.getTileGraph());
+		try {
+			new IsmctsBot(200, 0.7, reach, routes).decide(knowledge,
+					startTile(b), new int[0], 1 << 9, 0, 0, 1);
+			fail("search without a budget");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Returns the tile index of the first character on a board.
+	 */
+	private static int startTile(Board b) {
+		Location loc = b.getCharacters().get(0).getLocation();
+		return loc.getY() * b.getWidth() + loc.getX();
+	}
+
+	@Test
+	public void testSeededDiceReproducible() {
+		Dice dice1 = new Dice(new SplittableRandom(7));
+		Dice dice2 = new Dice(new SplittableRandom(7));
+		for (int i = 0; i < 20; i++) {
+			dice1.roll();
+			dice2.roll();
+			assertEquals(dice1.getResult(), dice2.getResult());
+		}
+	}
+
 	@Test
 	public void testDiceRollsValid() {
 		Dice dice = new Dice();
@@ -113,6 +632,938 @@ public class Tests {
 		}
 	}
 	
+	@Test
+	public void testGameStateMatchesBoard() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		GameState state = b.getState(new long[] { 1, 2, 4 }, 0, 0, 0);
+		CharacterToken missScarlett = b.getCharacterToken("Miss Scarlett");
+		assertEquals(state.getCharacterTile(missScarlett.getId()),
+				Board.tileIndex(missScarlett.getLocation()));
+		assertEquals(state.getCharacterRoom(missScarlett.getId()), -1);
+		for (int w = 0; w < Game.WEAPONS.length; w++) {
+			// every weapon starts in a different room
+			assertTrue(state.getWeaponRoom(w) >= 0);
+			assertEquals(Integer.bitCount(state.getWeaponsIn(state
+					.getWeaponRoom(w))), 1);
+		}
+		assertEquals(state.getNumberPlayers(), 2);
+		assertEquals(state.getSolution(), 4);
+	}
+
+	@Test
+	public void testGameStateTransitions() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		GameState state = b.getState(new long[] { 1, 2, 4 }, 0, 0, 0);
+		GameState moved = state.withCharacter(0, 5, 3).withRoll(7)
+				.withPhase(GameState.MOVED).withCard(0, 1).withEliminated(1);
+		// the original state is unchanged
+		assertEquals(state, b.getState(new long[] { 1, 2, 4 }, 0, 0, 0));
+		assertFalse(state.equals(moved));
+		assertEquals(moved.getCharacterTile(0), 5);
+		assertEquals(moved.getCharactersIn(3), 1);
+		assertTrue(moved.hasPhase(GameState.ROLLED | GameState.MOVED));
+		assertEquals(moved.getHand(0), 0);
+		assertEquals(moved.getHand(1), 3);
+		assertTrue(moved.isEliminated(1));
+		GameState next = moved.withTurn(1);
+		assertEquals(next.getPhase(), 0);
+		assertEquals(next.getRoll(), 0);
+		assertEquals(next.getCharacterTile(0), 5);
+	}
+
+	@Test
+	public void testUndoRestoresBoard() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice(),
+				new SplittableRandom(3));
+		SplittableRandom random = new SplittableRandom(11);
+		List<Room> rooms = new ArrayList<Room>(b.getRooms());
+		List<GameState> states = new ArrayList<GameState>();
+		List<Integer> marks = new ArrayList<Integer>();
+		for (int i = 0; i < 500; i++) {
+			states.add(b.getState(new long[1], 0, 0, 0));
+			marks.add(b.getUndoDepth());
+			CharacterToken c = b.getCharacters().get(
+					random.nextInt(b.getCharacters().size()));
+			switch (random.nextInt(3)) {
+			case 0:
+				b.movePlayer(c, new Location(random.nextInt(Board.WIDTH),
+						random.nextInt(Board.HEIGHT)));
+				break;
+			case 1:
+				b.warpForSuggest(c, b.getWeapons().get(
+						random.nextInt(b.getWeapons().size())),
+						rooms.get(random.nextInt(rooms.size())));
+				break;
+			default:
+				b.warpViaPassage(c);
+				break;
+			}
+			assertConsistent(b);
+		}
+		for (int i = states.size() - 1; i >= 0; i--) {
+			b.undo(marks.get(i));
+			assertConsistent(b);
+			assertEquals(b.getState(new long[1], 0, 0, 0), states.get(i));
+		}
+		assertEquals(b.getUndoDepth(), 0);
+	}
+
+	@Test
+	public void testBoardHashIncremental() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice(),
+				new SplittableRandom(5));
+		SplittableRandom random = new SplittableRandom(13);
+		long start = b.getHash();
+		assertEquals(start,
+				Zobrist.hashTokens(b.getState(new long[1], 0, 0, 0)));
+		for (int i = 0; i < 300; i++) {
+			CharacterToken c = b.getCharacters().get(
+					random.nextInt(b.getCharacters().size()));
+			if (random.nextBoolean()) {
+				b.movePlayer(c, new Location(random.nextInt(Board.WIDTH),
+						random.nextInt(Board.HEIGHT)));
+			} else {
+				Room room = c.getRoom() != null ? c.getRoom() : b.getRooms()
+						.iterator().next();
+				b.warpForSuggest(c, b.getWeapons().get(
+						random.nextInt(b.getWeapons().size())), room);
+			}
+			assertEquals(b.getHash(),
+					Zobrist.hashTokens(b.getState(new long[1], 0, 0, 0)));
+		}
+		b.undo(0);
+		assertEquals(b.getHash(), start);
+	}
+
+	@Test
+	public void testKnowledgeHashOrderIndependent() {
+		Knowledge first = setupKnowledge(0x180C3);
+		Knowledge second = setupKnowledge(0x180C3);
+		first.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 17), 2, -1);
+		first.recordSuggestion(2, (1 << 3) | (1 << 9) | (1 << 18), 1, 3);
+		second.recordSuggestion(2, (1 << 3) | (1 << 9) | (1 << 18), 1, 3);
+		second.recordSuggestion(1, (1 << 2) | (1 << 8) | (1 << 17), 2, -1);
+		assertEquals(first.getHash(), second.getHash());
+		assertFalse(first.getHash() == setupKnowledge(0x180C3).getHash());
+	}
+
+	@Test
+	public void testKnowledgeStateKeepsEveryConstraint() {
+		// two constraints that one int per constraint could not tell apart
+		int cards = (1 << 2) | (1 << 8) | (1 << 17);
+		Knowledge first = setupKnowledge(0x180C3);
+		Knowledge second = setupKnowledge(0x180C3);
+		first.addShowed(1, cards);
+		second.addShowed(2, cards ^ 0x9E3779B9 ^ (2 * 0x9E3779B9));
+		assertFalse(Arrays.equals(first.getState(), second.getState()));
+		assertTrue(Arrays.equals(first.getState(), new Knowledge(first)
+				.getState()));
+	}
+
+	@Test
+	public void testTranspositionTable() throws InterruptedException {
+		final TranspositionTable table = new TranspositionTable(8);
+		assertEquals(table.get(42, -1), -1);
+		table.putDouble(42, 0.5);
+		assertEquals(table.getDouble(42, -1), 0.5, 0);
+		// a different hash in the same entry misses
+		assertEquals(table.get(42 + table.size(), -1), -1);
+
+		// entries written concurrently never read back wrong
+		final boolean[] wrong = new boolean[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final long seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					SplittableRandom random = new SplittableRandom(seed);
+					for (int i = 0; i < 100000; i++) {
+						long hash = random.nextLong(1000) * 0x9E3779B97F4A7C15L;
+						table.put(hash, hash * 3);
+						long data = table.get(hash ^ 0x100, 0);
+						if (data != 0 && data != (hash ^ 0x100) * 3) {
+							wrong[0] = true;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(wrong[0]);
+	}
+
+	@Test
+	public void testActionGeneratorMatchesBoard() {
+		Dice dice = new Dice(new SplittableRandom(5));
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, dice,
+				new SplittableRandom(5));
+		SplittableRandom random = new SplittableRandom(13);
+		List<Room> rooms = new ArrayList<Room>(b.getRooms());
+		ActionGenerator generator = new ActionGenerator(b.getTileGraph(),
+				Game.CHARACTERS.length, Game.WEAPONS.length);
+		int[] buffer = new int[generator.getMaxActions()];
+		for (int i = 0; i < 100; i++) {
+			CharacterToken c = b.getCharacters().get(
+					random.nextInt(b.getCharacters().size()));
+			if (random.nextInt(3) == 0) {
+				b.warpForSuggest(c, b.getWeapons().get(0),
+						rooms.get(random.nextInt(rooms.size())));
+			}
+			b.setPlayer(new Player(c, c.getName(), 1));
+			dice.roll();
+			b.setValidTiles();
+			Set<Integer> expected = new HashSet<Integer>();
+			for (Tile t : b.getValidTiles()) {
+				expected.add(Board.tileIndex(t.getLocation()));
+			}
+			GameState state = b.getState(new long[1], 0, 0, GameState.ROLLED);
+			int count = generator.generate(state, c.getId(), buffer);
+			Set<Integer> moves = new HashSet<Integer>();
+			for (int a = 0; a < count; a++) {
+				if (ActionGenerator.getKind(buffer[a]) == ActionGenerator.MOVE) {
+					assertTrue(moves.add(ActionGenerator.getTile(buffer[a])));
+				}
+			}
+			assertEquals(expected, moves);
+			// walk to one of the tiles so the next turn starts elsewhere
+			if (!moves.isEmpty() && !c.inRoom()) {
+				int tile = moves.iterator().next();
+				b.movePlayer(c, new Location(tile % Board.WIDTH, tile
+						/ Board.WIDTH));
+			}
+		}
+	}
+
+	@Test
+	public void testActionGeneratorTurnStart() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		ActionGenerator generator = new ActionGenerator(b.getTileGraph(),
+				Game.CHARACTERS.length, Game.WEAPONS.length);
+		int[] buffer = new int[generator.getMaxActions()];
+		CharacterToken missScarlett = b.getCharacterToken("Miss Scarlett");
+		int count = generator.generate(b.getState(new long[1], 0, 0, 0),
+				missScarlett.getId(), buffer);
+		// roll, every accusation and end turn
+		assertEquals(count, 2 + 6 * 9 * 6);
+		assertEquals(ActionGenerator.getKind(buffer[0]), ActionGenerator.ROLL);
+		assertEquals(ActionGenerator.getKind(buffer[count - 1]),
+				ActionGenerator.END_TURN);
+		count = generator.generate(b.getState(new long[1], 0, 0,
+				GameState.SUGGESTED | GameState.MOVED), missScarlett.getId(),
+				buffer);
+		assertEquals(count, 1);
+	}
+
+	@Test
+	public void testRoutePlannerPassagesAndDoors() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		RoutePlanner planner = RoutePlanner.forGraph(b.getTileGraph());
+		// one planner per map
+		Board other = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		assertSame(planner, RoutePlanner.forGraph(other.getTileGraph()));
+		int kitchen = 0;
+		int study = 5;
+		assertEquals(planner.getExpectedTurnsFromRoom(kitchen, kitchen), 0, 0);
+		assertEquals(planner.getExpectedTurnsFromRoom(kitchen, study), 1, 0);
+		TileGraph graph = b.getTileGraph();
+		for (int t = 0; t < graph.size(); t++) {
+			if (graph.getKind(t) != TileGraph.DOOR) {
+				continue;
+			}
+			// next to a door any roll gets in
+			int end = graph.getNeighbourStart(t + 1);
+			for (int n = graph.getNeighbourStart(t); n < end; n++) {
+				int next = graph.getNeighbour(n);
+				if (graph.getKind(next) == TileGraph.PATH) {
+					assertEquals(planner.getExpectedTurns(next,
+							graph.getRoom(t)), 1, 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRoutePlannerReachesEveryRoom() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		RoutePlanner planner = RoutePlanner.forGraph(b.getTileGraph());
+		GameState state = b.getState(new long[1], 0, 0, 0);
+		for (int c = 0; c < Game.CHARACTERS.length; c++) {
+			int nearest = planner.getNearestRoom(state, c, 0x1FF);
+			double least = planner.getExpectedTurns(state, c, nearest);
+			assertEquals(planner.getNearestRoom(state.getCharacterTile(c),
+					0x1FF), nearest);
+			for (int r = 0; r < Game.ROOMS.length; r++) {
+				double turns = planner.getExpectedTurns(state, c, r);
+				assertTrue(turns >= 1 && turns < 10);
+				assertTrue(least <= turns);
+			}
+		}
+	}
+
+	@Test
+	public void testRoomReachMatchesBoard() {
+		Dice dice = new Dice(new SplittableRandom(17));
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, dice,
+				new SplittableRandom(17));
+		SplittableRandom random = new SplittableRandom(19);
+		List<Room> rooms = new ArrayList<Room>(b.getRooms());
+		RoomReach reach = RoomReach.forGraph(b.getTileGraph());
+		double[] chances = new double[Game.ROOMS.length];
+		for (int i = 0; i < 100; i++) {
+			CharacterToken c = b.getCharacters().get(
+					random.nextInt(b.getCharacters().size()));
+			if (random.nextInt(3) == 0) {
+				b.warpForSuggest(c, b.getWeapons().get(0),
+						rooms.get(random.nextInt(rooms.size())));
+			}
+			b.setPlayer(new Player(c, c.getName(), 1));
+			dice.roll();
+			b.setValidTiles();
+			GameState state = b.getState(new long[1], 0, 0, GameState.ROLLED);
+			// the board gives card bitmasks, rooms after the characters, and
+			// can be blocked by characters the table does not know about
+			int entered = (int) (b.getReachableRooms()
+					>>> Game.CHARACTERS.length);
+			assertEquals(entered, entered
+					& reach.getRooms(state, c.getId(), dice.getResult()));
+			reach.getProbabilities(state, c.getId(), chances);
+			for (int r = 0; r < chances.length; r++) {
+				assertTrue(chances[r] >= 0 && chances[r] <= 1 + 1e-9);
+			}
+			Set<Tile> valid = b.getValidTiles();
+			if (!valid.isEmpty() && !c.inRoom()) {
+				Location loc = valid.iterator().next().getLocation();
+				b.movePlayer(c, loc);
+			}
+		}
+	}
+
+	@Test
+	public void testDistanceFieldRepairsMatchSearch() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		TileGraph graph = b.getTileGraph();
+		OccupancyGrid grid = new OccupancyGrid(Board.WIDTH, Board.HEIGHT);
+		DistanceField field = new DistanceField(graph, grid);
+		grid.addListener(field);
+		List<Integer> walkable = new ArrayList<Integer>();
+		for (int t = 0; t < graph.size(); t++) {
+			if (graph.isWalkable(t)) {
+				walkable.add(t);
+			}
+		}
+		SplittableRandom random = new SplittableRandom(23);
+		int source = walkable.get(random.nextInt(walkable.size()));
+		field.reset(new int[] { source }, 1);
+		// six tokens wandering around, never onto the source
+		int[] tokens = new int[6];
+		for (int i = 0; i < 300; i++) {
+			int token = random.nextInt(tokens.length);
+			int to = walkable.get(random.nextInt(walkable.size()));
+			if (to == source || grid.isOccupied(to)) {
+				continue;
+			}
+			grid.move(tokens[token] == 0 ? null : location(tokens[token]),
+					location(to));
+			tokens[token] = to;
+			DistanceField search = new DistanceField(graph, grid);
+			search.reset(new int[] { source }, 1);
+			for (int t = 0; t < graph.size(); t++) {
+				assertEquals(search.getDistance(t), field.getDistance(t));
+			}
+		}
+		// every path found steps between free neighbours
+		int[] path = new int[graph.size()];
+		for (int t : walkable) {
+			int length = field.getPath(t, path);
+			assertEquals(field.getDistance(t) == DistanceField.UNREACHABLE ? 0
+					: field.getDistance(t) + 1, length);
+			for (int i = 1; i < length; i++) {
+				assertFalse(grid.isOccupied(path[i]) && path[i] != t);
+				assertEquals(1, Math.abs(path[i] % Board.WIDTH - path[i - 1]
+						% Board.WIDTH)
+						+ Math.abs(path[i] / Board.WIDTH - path[i - 1]
+								/ Board.WIDTH));
+			}
+		}
+	}
+
+	@Test
+	public void testCharactersBlockMoves() {
+		Dice dice = new Dice(new SplittableRandom(29));
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, dice,
+				new SplittableRandom(29));
+		CharacterToken missScarlett = b.getCharacterToken("Miss Scarlett");
+		CharacterToken mustard = b.getCharacterToken("Colonel Mustard");
+		b.setPlayer(new Player(missScarlett, missScarlett.getName(), 1));
+		do {
+			dice.roll();
+		} while (dice.getResult() < 4);
+		b.setValidTiles();
+		int start = Board.tileIndex(missScarlett.getLocation());
+		DistanceField field = b.getDistanceField(missScarlett);
+		assertEquals(0, field.getDistance(start));
+		// stand in the only way out of the starting tile
+		Location ahead = null;
+		for (Tile t : b.getValidTiles()) {
+			if (field.getDistance(Board.tileIndex(t.getLocation())) == 1) {
+				ahead = t.getLocation();
+			}
+		}
+		assertNotNull(ahead);
+		b.movePlayer(mustard, ahead);
+		b.setValidTiles();
+		assertTrue(b.getValidTiles().isEmpty());
+		assertEquals(DistanceField.UNREACHABLE,
+				field.getDistance(Board.tileIndex(ahead)));
+	}
+
+	@Test
+	public void testRoomDoorsFollowTokens() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice(),
+				new SplittableRandom(41));
+		CharacterToken missScarlett = b.getCharacterToken("Miss Scarlett");
+		CharacterToken mustard = b.getCharacterToken("Colonel Mustard");
+		Room ballroom = null;
+		for (Room room : b.getRooms()) {
+			if (room.getName().equals("Ballroom")) {
+				ballroom = room;
+			}
+		}
+		b.warpForSuggest(missScarlett, b.getWeapons().get(0), ballroom);
+		DistanceField field = b.getDistanceField(missScarlett);
+		int door = Board.tileIndex(new Location(14, 17));
+		assertEquals(0, field.getDistance(door));
+
+		// a token on a door of the room closes that way out
+		int mark = b.getUndoDepth();
+		b.movePlayer(mustard, new Location(14, 17));
+		assertEquals(DistanceField.UNREACHABLE, field.getDistance(door));
+		assertDoorField(b, field, ballroom);
+
+		// and freeing it opens it again
+		b.undo(mark);
+		assertEquals(0, field.getDistance(door));
+		assertDoorField(b, field, ballroom);
+	}
+
+	/**
+	 * Checks a field kept up to date from the doors of a room matches a
+	 * search from its free doors.
+	 */
+	private static void assertDoorField(Board b, DistanceField field,
+			Room room) {
+		TileGraph graph = b.getTileGraph();
+		OccupancyGrid grid = new OccupancyGrid(b.getWidth(), b.getHeight());
+		for (int t = 0; t < graph.size(); t++) {
+			if (b.hasTokenOn(location(t))) {
+				grid.move(null, location(t));
+			}
+		}
+		int[] doors = new int[room.getEntrances().size()];
+		int count = 0;
+		for (DoorTile door : room.getEntrances()) {
+			if (!grid.isOccupied(door.getLocation())) {
+				doors[count++] = Board.tileIndex(door.getLocation());
+			}
+		}
+		DistanceField search = new DistanceField(graph, grid);
+		search.reset(doors, count);
+		for (int t = 0; t < graph.size(); t++) {
+			assertEquals(search.getDistance(t), field.getDistance(t));
+		}
+	}
+
+	@Test
+	public void testRoomTilesFollowTokens() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice(),
+				new SplittableRandom(31));
+		SplittableRandom random = new SplittableRandom(37);
+		List<Room> rooms = new ArrayList<Room>(b.getRooms());
+		List<Token> tokens = new ArrayList<Token>();
+		tokens.addAll(b.getCharacters());
+		tokens.addAll(b.getWeapons());
+		for (int i = 0; i < 200; i++) {
+			int mark = b.getUndoDepth();
+			b.warpForSuggest(
+					b.getCharacters().get(
+							random.nextInt(b.getCharacters().size())),
+					b.getWeapons().get(random.nextInt(b.getWeapons().size())),
+					rooms.get(random.nextInt(rooms.size())));
+			if (random.nextInt(4) == 0) {
+				b.undo(mark);
+			}
+			// every token stands on the tile its room gave it
+			for (Token t : tokens) {
+				if (t.getRoom() != null) {
+					assertEquals(t.getLocation(), t.getRoom().getTile(t));
+				}
+			}
+			// and the next free tile is the first one no token is on
+			for (Room r : rooms) {
+				Location first = null;
+				for (RoomTile tile : r.getRoomTiles()) {
+					Location loc = tile.getLocation();
+					if (!b.hasTokenOn(loc)
+							&& (first == null || loc.getY() < first.getY() || loc
+									.getY() == first.getY()
+									&& loc.getX() < first.getX())) {
+						first = loc;
+					}
+				}
+				assertEquals(first, r.getFreeTile());
+			}
+		}
+	}
+
+	@Test
+	public void testRegistryIdsRoundTrip() {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		Registry registry = b.getRegistry();
+		Deck deck = new Deck(Game.CHARACTERS, Game.ROOMS, Game.WEAPONS);
+		for (int card = 0; card < deck.size(); card++) {
+			registry.register(deck.getCard(card));
+		}
+		assertEquals(deck.size(), registry.getNumberCards());
+		for (int card = 0; card < registry.getNumberCards(); card++) {
+			int kind = registry.getKind(card);
+			int id = registry.getId(card);
+			String name = registry.getName(card);
+			assertEquals(card, registry.getCardId(kind, id));
+			assertEquals(card, registry.getCardId(name));
+			assertEquals(name, registry.getCard(card).toString());
+			if (kind == Registry.CHARACTER) {
+				assertSame(registry.getCharacter(id), b.getCharacterToken(name));
+				assertEquals(id, registry.getCharacter(id).getId());
+			} else if (kind == Registry.ROOM) {
+				assertEquals(name, registry.getRoom(id).getName());
+			} else {
+				assertSame(registry.getWeapon(id), b.getWeaponToken(name));
+			}
+		}
+		assertNull(b.getCharacterToken(Game.WEAPONS[0]));
+		assertNull(b.getWeaponToken("Nobody"));
+	}
+
+	@Test
+	public void testCompiledMapMatchesBoard() {
+		CompiledMap map = CompiledMap.getDefault();
+		assertSame(map, CompiledMap.load(CompiledMap.DEFAULT));
+		assertEquals(Board.WIDTH, map.getWidth());
+		assertEquals(Board.HEIGHT, map.getHeight());
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		TileGraph graph = b.getTileGraph();
+		for (int t = 0; t < graph.size(); t++) {
+			assertEquals(graph.getKind(t), map.getKind(t));
+			Tile tile = b.getTile(location(t));
+			if (tile instanceof DoorTile) {
+				assertEquals(((DoorTile) tile).getRoom().getName(),
+						map.getRoomName(t));
+			} else if (tile instanceof RoomTile) {
+				assertEquals(((RoomTile) tile).getRoom().getName(),
+						map.getRoomName(t));
+			} else {
+				assertNull(map.getRoomName(t));
+			}
+		}
+		assertEquals(Game.CHARACTERS.length, map.getNumberStarts());
+		for (int i = 0; i < map.getNumberStarts(); i++) {
+			CharacterToken c = b.getCharacterToken(map.getStartName(i));
+			assertEquals(map.getStartTile(i), Board.tileIndex(c.getLocation()));
+		}
+	}
+
+	@Test
+	public void testBoardFileMatchesSearch() throws IOException {
+		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		TileGraph graph = b.getTileGraph();
+		long hash = CompiledMap.getDefault().getHash();
+		File file = File.createTempFile("cluedo", ".board");
+		file.deleteOnExit();
+		BoardFile built = BoardFile.open(file, hash, graph);
+		assertTrue(built.isRebuilt());
+		BoardFile read = BoardFile.open(file, hash, graph);
+		assertFalse(read.isRebuilt());
+		// another map hash builds the file again
+		assertTrue(BoardFile.open(file, hash + 1, graph).isRebuilt());
+		assertTrue(BoardFile.open(file, hash, graph).isRebuilt());
+
+		OccupancyGrid empty = new OccupancyGrid(Board.WIDTH, Board.HEIGHT);
+		DistanceField field = new DistanceField(graph, empty);
+		for (int from = 0; from < graph.size(); from++) {
+			assertEquals(graph.getKind(from), read.getKind(from));
+			assertEquals(graph.getRoom(from), read.getRoom(from));
+			assertEquals(graph.getNeighbourStart(from),
+					read.getNeighbourStart(from));
+			if (!graph.isWalkable(from)) {
+				assertEquals(DistanceField.UNREACHABLE,
+						read.getDistance(from, 0));
+				continue;
+			}
+			field.reset(new int[] { from }, 1);
+			for (int to = 0; to < graph.size(); to++) {
+				assertEquals(graph.isWalkable(to) ? field.getDistance(to)
+						: DistanceField.UNREACHABLE, read.getDistance(from, to));
+			}
+		}
+		// the walls between the corridors and rooms the map draws
+		assertEquals(3, read.getNumberBlocked());
+		for (int a = 0; a < graph.getNumberRooms(); a++) {
+			assertEquals(graph.getPassage(a), read.getPassage(a));
+			assertEquals(graph.getNumberDoors(a), read.getNumberDoors(a));
+			assertEquals(0, read.getRoomDistance(a, a));
+			for (int c = 0; c < graph.getNumberRooms(); c++) {
+				assertEquals(read.getRoomDistance(a, c),
+						read.getRoomDistance(c, a));
+				assertTrue(read.getRoomDistance(a, c) <= read.getDistance(
+						read.getDoor(a, 0), read.getDoor(c, 0)));
+			}
+		}
+	}
+
+	@Test
+	public void testBoardFileBuildsInParallel() throws IOException {
+		CompiledMap map = new MapGenerator(40, 40, 48).compile();
+		Board b = new Board(map, Game.WEAPONS, new Dice(),
+				new SplittableRandom(48));
+		TileGraph graph = b.getTileGraph();
+		File file = File.createTempFile("cluedo", ".board");
+		file.deleteOnExit();
+		Progress progress = new Progress();
+		BoardFile built = BoardFile.open(file, map.getHash(), graph, progress);
+		assertTrue(progress.isFinished());
+		assertEquals(built.getNumberWalkable(), progress.getTotal());
+		assertEquals(progress.getTotal(), progress.getDone());
+
+		// every row filled in by whichever thread took it
+		DistanceField field = new DistanceField(graph, new OccupancyGrid(40,
+				40));
+		for (int from = 0; from < graph.size(); from += 37) {
+			if (graph.isWalkable(from)) {
+				field.reset(new int[] { from }, 1);
+				for (int to = 0; to < graph.size(); to++) {
+					assertEquals(graph.isWalkable(to) ? field.getDistance(to)
+							: DistanceField.UNREACHABLE, built.getDistance(
+							from, to));
+				}
+			}
+		}
+		assertTrue(BoardFile.supports(graph));
+		assertSame(b.getBoardFile(), b.precompute(new Progress()).join());
+	}
+
+	@Test
+	public void testBoardTakesRoomsFromMap() {
+		int[] counts = { 4, 12 };
+		for (int rooms : counts) {
+			CompiledMap map = new MapGenerator(60, 60, rooms, 0.2, 0.3, 10, 3,
+					rooms).compile();
+			Board b = new Board(map, Game.WEAPONS, new Dice(),
+					new SplittableRandom(rooms));
+			assertEquals(rooms, b.getRegistry().getNumberRooms());
+			assertEquals(rooms, b.getRooms().size());
+			Set<Room> withWeapon = new HashSet<Room>();
+			for (WeaponToken w : b.getWeapons()) {
+				assertTrue(b.getRooms().contains(w.getRoom()));
+				assertTrue(b.getTile(w.getLocation()) instanceof RoomTile);
+				withWeapon.add(w.getRoom());
+			}
+			// every room gets a weapon before any gets two
+			assertEquals(Math.min(rooms, Game.WEAPONS.length),
+					withWeapon.size());
+		}
+	}
+
+	@Test
+	public void testBoardLoadsEveryRoomCount() {
+		for (int rooms = 1; rooms <= MapGenerator.getMaxRooms(); rooms++) {
+			CompiledMap map = new MapGenerator(80, 80, rooms, 0.2, 0.3, 10, 3,
+					rooms).compile();
+			Board b = new Board(map, Game.WEAPONS, new Dice(),
+					new SplittableRandom(rooms));
+			assertEquals(rooms, b.getRooms().size());
+		}
+		try {
+			new MapGenerator(80, 80, MapGenerator.getMaxRooms() + 1, 0.2, 0.3,
+					10, 3, 1);
+			fail("too many rooms");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLargeMapMovesAndFindsPaths() throws IOException {
+		CompiledMap map = new MapGenerator(500, 500, 7).compile();
+		assertEquals(500, map.getWidth());
+		assertEquals(500, map.getHeight());
+		assertEquals(Game.ROOMS.length, map.getNumberRooms());
+		Dice dice = new Dice(new SplittableRandom(11));
+		Board b = new Board(map, Game.WEAPONS, dice, new SplittableRandom(11));
+		assertEquals(500 * 500, b.getTileGraph().size());
+		// far too many tiles for a table of every pair
+		assertFalse(BoardFile.supports(b.getTileGraph()));
+		assertNull(b.getBoardFile());
+		Progress progress = new Progress();
+		assertNull(b.precompute(progress).join());
+		assertTrue(progress.isFinished());
+		try {
+			BoardFile.forMap(map, b.getTileGraph());
+			fail("board file of a map with too many walkable tiles");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		BufferedImage image = new BufferedImage(1280, 800,
+				BufferedImage.TYPE_INT_RGB);
+		for (int turn = 0; turn < 30; turn++) {
+			CharacterToken c = b.getCharacters().get(
+					turn % b.getCharacters().size());
+			b.setPlayer(new Player(c, c.getName(), 1));
+			dice.roll();
+			b.setValidTiles();
+			DistanceField field = b.getDistanceField(c);
+			Graphics2D g = image.createGraphics();
+			b.draw(g, image.getWidth(), image.getHeight());
+			g.dispose();
+			assertFalse(b.getValidTiles().isEmpty());
+			Tile next = null;
+			for (Tile t : b.getValidTiles()) {
+				int d = field.getDistance(t.getLocation().getY() * 500
+						+ t.getLocation().getX());
+				assertTrue(d > 0 && d <= dice.getResult());
+				if (!(t instanceof DoorTile)) {
+					next = t;
+				}
+			}
+			if (next != null && !c.inRoom()) {
+				b.movePlayer(c, next.getLocation());
+			}
+		}
+		// paths across the whole map, to every room door
+		CharacterToken c = b.getCharacters().get(0);
+		DistanceField field = b.getDistanceField(c);
+		int[] path = new int[map.getWidth() * map.getHeight()];
+		for (Room room : b.getRooms()) {
+			for (DoorTile door : room.getEntrances()) {
+				int tile = door.getLocation().getY() * 500
+						+ door.getLocation().getX();
+				int length = field.getPath(tile, path);
+				assertEquals(field.getDistance(tile) + 1, length);
+				assertEquals(tile, path[length - 1]);
+			}
+		}
+	}
+
+	@Test
+	public void testGeneratedMapsAreConnected() {
+		int[] sizes = { 24, 25, 60, 60, 150, 120 };
+		for (int i = 0; i < sizes.length; i += 2) {
+			MapGenerator generator = new MapGenerator(sizes[i], sizes[i + 1],
+					Game.ROOMS.length, 0.2, 0.3, 10, 3, i);
+			// the same seed gives the same map
+			assertEquals(generator.generate(), generator.generate());
+			CompiledMap map = generator.compile();
+			assertTrue(MapGenerator.isConnected(map));
+			assertEquals(Game.ROOMS.length, map.getNumberRooms());
+			assertEquals(Game.CHARACTERS.length, map.getNumberStarts());
+
+			Board b = new Board(map, Game.WEAPONS, new Dice(),
+					new SplittableRandom(i));
+			TileGraph graph = b.getTileGraph();
+			DistanceField field = new DistanceField(graph, new OccupancyGrid(
+					map.getWidth(), map.getHeight()));
+			field.reset(new int[] { map.getStartTile(0) }, 1);
+			for (int t = 0; t < graph.size(); t++) {
+				assertEquals(graph.isWalkable(t),
+						field.getDistance(t) != DistanceField.UNREACHABLE);
+			}
+			for (Room room : b.getRooms()) {
+				assertFalse(room.getEntrances().isEmpty());
+			}
+			RoomReach reach = RoomReach.forGraph(graph);
+			RoutePlanner planner = RoutePlanner.forGraph(graph);
+			for (int room = 0; room < graph.getNumberRooms(); room++) {
+				assertTrue(planner.getExpectedTurns(map.getStartTile(0), room)
+						< Double.POSITIVE_INFINITY);
+			}
+			assertTrue(reach.getRooms(map.getStartTile(0), 12) >= 0);
+		}
+
+		// the search the board used to do agrees on the smallest map
+		MapGenerator generator = new MapGenerator(24, 25, 3);
+		CompiledMap map = generator.compile();
+		Board b = new Board(map, Game.WEAPONS, new Dice(),
+				new SplittableRandom(3));
+		TileGraph graph = b.getTileGraph();
+		DistanceField field = new DistanceField(graph, new OccupancyGrid(
+				map.getWidth(), map.getHeight()));
+		CharacterToken c = b.getCharacterToken(map.getStartName(0));
+		field.reset(new int[] { map.getStartTile(0) }, 1);
+		for (int to = 0; to < graph.size(); to += 7) {
+			if (graph.isWalkable(to)) {
+				assertEquals(field.getDistance(to), b.calculatePathLength(c,
+						new Location(to % 24, to / 24)));
+			}
+		}
+	}
+
+	@Test
+	public void testHierarchicalPathsMatchSearch() {
+		CompiledMap map = new MapGenerator(200, 150, Game.ROOMS.length, 0.2,
+				0.3, 40, 2, 5).compile();
+		Board b = new Board(map, Game.WEAPONS, new Dice(),
+				new SplittableRandom(5));
+		TileGraph graph = b.getTileGraph();
+		PathFinder finder = b.getPathFinder();
+		assertTrue(finder instanceof HierarchicalPathFinder);
+		assertSame(finder, b.getPathFinder());
+		DistanceField field = new DistanceField(graph, new OccupancyGrid(
+				map.getWidth(), map.getHeight()));
+		SplittableRandom random = new SplittableRandom(5);
+		long total = 0;
+		long found = 0;
+		for (int i = 0; i < 20; i++) {
+			int from = random.nextInt(graph.size());
+			field.reset(new int[] { from }, 1);
+			for (int j = 0; j < 20; j++) {
+				int to = random.nextInt(graph.size());
+				Location start = new Location(from % 200, from / 200);
+				Location end = new Location(to % 200, to / 200);
+				int length = finder.findPath(start, end);
+				if (!graph.isWalkable(from) || !graph.isWalkable(to)) {
+					assertEquals(-1, length);
+					continue;
+				}
+				// never shorter than the shortest path
+				assertTrue(length >= field.getDistance(to));
+				total += field.getDistance(to);
+				found += length;
+				List<Tile> path = finder.getDijsktraPath(start, end);
+				assertEquals(length + 1, path.size());
+				assertEquals(start, path.get(0).getLocation());
+				assertEquals(end, path.get(length).getLocation());
+				for (int k = 1; k < path.size(); k++) {
+					int previous = graph.index(path.get(k - 1).getLocation());
+					int tile = graph.index(path.get(k).getLocation());
+					boolean step = false;
+					int last = graph.getNeighbourStart(previous + 1);
+					for (int n = graph.getNeighbourStart(previous); n < last; n++) {
+						step |= graph.getNeighbour(n) == tile;
+					}
+					assertTrue(step);
+				}
+			}
+		}
+		// within a tenth of the shortest paths overall
+		assertTrue(found + " " + total, found <= total * 11 / 10);
+
+		// the standard board keeps its search of every tile
+		Board standard = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
+		assertTrue(standard.getPathFinder() instanceof Dijkstra);
+	}
+
+	@Test
+	public void testBadMapHeader() throws IOException {
+		String[] headers = { "grid\n", "size 4\ngrid\n",
+				"size 4 4\nroom 1 1 Hall\ngrid\n",
+				"size 4 4\npassage 1 2\ngrid\n", "size 4 4\nwall\ngrid\n",
+				"size 4 4\nstart s S Miss Scarlett\ngrid\n",
+				"size 4 4\nstart s S Miss Scarlett\nstart m M Miss Scarlett\n"
+						+ "grid\nsm\n" };
+		for (String header : headers) {
+			try {
+				new CompiledMap("bad", new BufferedReader(new StringReader(
+						header)));
+				fail(header);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testMapMustStartEveryCharacter() throws IOException {
+		String[] unknown = Game.CHARACTERS.clone();
+		unknown[5] = "Doctor Orchid";
+		String[][] starts = { Arrays.copyOf(Game.CHARACTERS, 5), unknown };
+		for (String[] names : starts) {
+			try {
+				new Board(startMap(names), Game.WEAPONS, new Dice(),
+						new SplittableRandom(1));
+				fail(Arrays.toString(names));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		Board b = new Board(startMap(Game.CHARACTERS), Game.WEAPONS,
+				new Dice(), new SplittableRandom(1));
+		assertEquals(Game.CHARACTERS.length, b.getCharacters().size());
+	}
+
+	/**
+	 * Returns a map of one room with a row of starts for the given names.
+	 */
+	private static CompiledMap startMap(String[] names) throws IOException {
+		StringBuilder text = new StringBuilder("size 8 3\nroom d r Hall\n");
+		StringBuilder row = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			text.append("start ").append(i).append(' ')
+					.append((char) ('A' + i)).append(' ').append(names[i])
+					.append('\n');
+			row.append(i);
+		}
+		text.append("grid\nrrrrrrrr\nrrrdrrrr\n").append(row).append('\n');
+		return new CompiledMap("starts", new BufferedReader(new StringReader(
+				text.toString())));
+	}
+
+	private static Location location(int tile) {
+		return new Location(tile % Board.WIDTH, tile / Board.WIDTH);
+	}
+
+	/**
+	 * Checks the tokens and rooms of a board agree with each other.
+	 */
+	private void assertConsistent(Board b) {
+		List<Token> tokens = new ArrayList<Token>();
+		tokens.addAll(b.getCharacters());
+		tokens.addAll(b.getWeapons());
+		Set<Location> occupied = new HashSet<Location>();
+		for (Token t : tokens) {
+			// no two tokens share a tile
+			assertTrue(occupied.add(t.getLocation()));
+			Room room = t.getRoom();
+			Tile tile = b.getTile(t.getLocation());
+			if (room != null) {
+				// a token in a room is on one of its tiles or doors
+				assertTrue(room.getRoomTiles().contains(tile)
+						|| room.getEntrances().contains(tile));
+			} else {
+				assertFalse(tile instanceof RoomTile);
+			}
+			if (t instanceof CharacterToken) {
+				assertEquals(((CharacterToken) t).inRoom(), room != null);
+			}
+		}
+		for (Room room : b.getRooms()) {
+			for (CharacterToken c : room.getCharacterTokens()) {
+				assertTrue(c.getRoom() == room);
+			}
+			for (WeaponToken w : room.getWeaponTokens()) {
+				assertTrue(w.getRoom() == room);
+			}
+		}
+		for (Token t : tokens) {
+			if (t.getRoom() != null) {
+				assertTrue(t.getRoom().getCharacterTokens().contains(t)
+						|| t.getRoom().getWeaponTokens().contains(t));
+			}
+		}
+	}
+
 	@Test
 	public void charTestOne() {
 		Board b = new Board(Game.WEAPONS, Game.ROOMS, new Dice());
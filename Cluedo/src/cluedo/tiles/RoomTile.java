@@ -12,6 +12,10 @@ public class RoomTile extends Tile{
 		super(location);
 		this.room = room;
 	}
+	
+	public Room getRoom(){
+		return room;
+	}
 
 	@Override
 	public void draw(Graphics2D g, Color color) {
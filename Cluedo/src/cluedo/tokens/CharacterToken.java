@@ -10,8 +10,11 @@ public class CharacterToken extends Token {
 	boolean moving;
 	
 
-	public CharacterToken(String name, char characterLetter, int x, int y) {
+	public CharacterToken(String name, int id, char characterLetter, int x,
+			int y) {
 		super(name);
+		this.id = id;
+		this.key = id;
 		this.characterLetter = characterLetter;
 		this.location = new Location(x, y);
 		this.room = null;
@@ -24,14 +27,14 @@ public class CharacterToken extends Token {
 	}
 	public void setRoom(Room room) {
 		room.addToken(this);
-		this.room = room;
+		changeRoom(room);
 		inRoom = true;
 	}
 
 	public void leaveRoom() {
 		if (room != null) {
 			room.removeToken(this);
-			this.room = null;
+			changeRoom(null);
 			inRoom = false;
 		}
 	}
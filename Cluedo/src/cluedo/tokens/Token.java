@@ -4,12 +4,18 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 
 import cluedo.board.Location;
+import cluedo.board.OccupancyGrid;
 import cluedo.board.Room;
+import cluedo.game.Zobrist;
 import static cluedo.view.Canvas.loadImage;
 
 public abstract class Token {
 
 	private String name;
+	int id;
+	int key;
+	private Zobrist zobrist;
+	private OccupancyGrid occupancy;
 	private Image portrait;
 	private Image image;
 	Location location;
@@ -32,8 +38,59 @@ public abstract class Token {
 	}
 
 	public void setLocation(Location loc) {
+		if (zobrist != null) {
+			zobrist.toggle(tileKey(location) ^ tileKey(loc));
+		}
+		if (occupancy != null) {
+			occupancy.move(location, loc);
+		}
 		this.location = loc;
 	}
+
+	/**
+	 * Sets the room field, keeping the position hash up to date.
+	 * 
+	 * @param room
+	 *            The room the token is now in, null for none.
+	 */
+	void changeRoom(Room room) {
+		if (zobrist != null) {
+			zobrist.toggle(roomKey(this.room) ^ roomKey(room));
+		}
+		this.room = room;
+	}
+
+	/**
+	 * Makes this token xor its tile and room into the given running hash, now
+	 * and whenever it moves.
+	 * 
+	 * @param zobrist
+	 *            The running hash of the board.
+	 */
+	public void setZobrist(Zobrist zobrist) {
+		this.zobrist = zobrist;
+		zobrist.toggle(tileKey(location) ^ roomKey(room));
+	}
+
+	/**
+	 * Makes this token mark its tile in the given occupancy grid, now and
+	 * whenever it moves.
+	 * 
+	 * @param occupancy
+	 *            The occupancy grid of the board.
+	 */
+	public void setOccupancy(OccupancyGrid occupancy) {
+		this.occupancy = occupancy;
+		occupancy.move(null, location);
+	}
+
+	private long tileKey(Location loc) {
+		return loc == null ? 0 : Zobrist.tile(key, loc.getX(), loc.getY());
+	}
+
+	private long roomKey(Room room) {
+		return room == null ? 0 : Zobrist.room(key, room.getId());
+	}
 	
 
 	public void setX(int x) {
@@ -55,12 +112,46 @@ public abstract class Token {
 	public String getName() {
 		return name;
 	}
+
+	/**
+	 * Returns the id of this token, the index of its name in the character or
+	 * weapon names of the game, see {@link cluedo.game.Registry}.
+	 * 
+	 * @return The token id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the index of this token among all tokens, characters first and
+	 * then weapons.
+	 * 
+	 * @return The token index.
+	 */
+	public int getKey() {
+		return key;
+	}
+
 	
 
 	public Room getRoom() {
 		return room;
 	}
 
+	/**
+	 * Puts this token in a room.
+	 * 
+	 * @param room
+	 *            The room the token is now in.
+	 */
+	public abstract void setRoom(Room room);
+
+	/**
+	 * Takes this token out of the room it is in, if any.
+	 */
+	public abstract void leaveRoom();
+
 	public void draw(Graphics2D g2d) {
 		g2d.drawImage(image, 0, 0, null);
 	}
@@ -4,20 +4,22 @@ import cluedo.board.Room;
 
 public class WeaponToken extends Token {
 
-	public WeaponToken(String name, Room room) {
+	public WeaponToken(String name, int id, int key, Room room) {
 		super(name);
+		this.id = id;
+		this.key = key;
 	}
 
 	public void leaveRoom() {
 		if (room != null) {
 			room.removeToken(this);
-			this.room = null;
+			changeRoom(null);
 		}
 	}
 
 	public void setRoom(Room room) {
 		room.addToken(this);
-		this.room = room;
+		changeRoom(room);
 	}
 
 	public Room getRoom() {
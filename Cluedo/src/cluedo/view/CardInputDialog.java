@@ -82,7 +82,7 @@ public class CardInputDialog extends InputDialog {
 			button = new JRadioButton(characters.get(i).toString(), false);
 			
 			// grey out the character buttons the player knows has been refuted
-			if (!player.getNonRefutedCharacters().contains(characters.get(i))) {
+			if (!player.isNonRefuted(characters.get(i))) {
 				button.setEnabled(false);
 			} else if (!defaultSelected) {
 				// set the default selected button if it has not been chosen yet
@@ -121,7 +121,7 @@ public class CardInputDialog extends InputDialog {
 					defaultSelected = true;
 
 					// grey out the button if the player knows it to be refuted
-					if (!player.getNonRefutedRooms().contains(rooms.get(i))) {
+					if (!player.isNonRefuted(rooms.get(i))) {
 						button.setEnabled(false);
 					}
 				} else {
@@ -130,7 +130,7 @@ public class CardInputDialog extends InputDialog {
 			}
 
 			// grey out the room buttons the player knows has been refuted
-			else if (!player.getNonRefutedRooms().contains(rooms.get(i))) {
+			else if (!player.isNonRefuted(rooms.get(i))) {
 				button.setEnabled(false);
 			} else if (!defaultSelected) {
 				// set the default selected button if it has not been chosen yet
@@ -163,7 +163,7 @@ public class CardInputDialog extends InputDialog {
 			weaponRadioGroup.add(button);
 
 			// grey out the weapon buttons the player knows has been refuted
-			if (!player.getNonRefutedWeapons().contains(weapons.get(i))) {
+			if (!player.isNonRefuted(weapons.get(i))) {
 				button.setEnabled(false);
 			} else if (!defaultSelected) {
 				// set the default selected button if it has not been chosen yet
@@ -22,6 +22,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 import cluedo.board.Board;
+import cluedo.board.Progress;
 import cluedo.cards.Card;
 import cluedo.control.Controller;
 import cluedo.game.Player;
@@ -42,6 +43,12 @@ public class Frame extends JFrame implements KeyListener {
 	private int actionButtonSelected;
 	private boolean awaitingInput;
 
+	// a build shown in the title until it finishes
+	private static final String TITLE = "Cluedo Game";
+	private String task;
+	private Progress progress;
+	private String title = TITLE;
+
 	/**
 	 * Setup a new frame.
 	 * 
@@ -51,7 +58,7 @@ public class Frame extends JFrame implements KeyListener {
 	 *            The mouse controller.
 	 */
 	public Frame(Board board, Controller controller) {
-		super("Cluedo Game");
+		super(TITLE);
 
 		// setup menu bar
 		JMenuBar menuBar = new JMenuBar();
@@ -166,9 +173,44 @@ public class Frame extends JFrame implements KeyListener {
 	}
 
 	public void update() {
+		if (progress != null) {
+			updateTitle();
+		}
 		canvas.repaint();
 	}
 
+	/**
+	 * Show the progress of a build in the title of the frame until it
+	 * finishes.
+	 * 
+	 * @param task
+	 *            What is being built.
+	 * @param progress
+	 *            The progress of the build.
+	 */
+	public void showProgress(String task, Progress progress) {
+		this.task = task;
+		this.progress = progress;
+	}
+
+	/**
+	 * Puts the progress of the build in the title, or takes it out once the
+	 * build is finished.
+	 */
+	private void updateTitle() {
+		String next = TITLE;
+		if (progress.isFinished()) {
+			progress = null;
+		} else if (progress.getTotal() > 0) {
+			next = TITLE + " - " + task + " "
+					+ (100L * progress.getDone() / progress.getTotal()) + "%";
+		}
+		if (!next.equals(title)) {
+			title = next;
+			setTitle(title);
+		}
+	}
+
 	/**
 	 * Prompts the user to provide the number of players playing this game of
 	 * cluedo.
@@ -11,6 +11,7 @@ import java.util.List;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -30,6 +31,7 @@ public class PlayerInputDialog extends InputDialog {
 
 	// dialog box fields
 	private JTextField nameField;
+	private JCheckBox computerBox;
 	private ButtonGroup radioGroup;
 	private String selectedCharacter;
 	private CharacterToken currentToken;
@@ -58,12 +60,16 @@ public class PlayerInputDialog extends InputDialog {
 		nameField = new JTextField("", 10);
 		optionPanel.add(nameField);
 
+		// let the computer play for this player
+		computerBox = new JCheckBox("Computer player", false);
+		optionPanel.add(computerBox);
+
 		// player character select area setup
 		optionPanel.add(new JLabel("Available Characters:"));
 		radioGroup = new ButtonGroup();
 		boolean defaultSelected = false;
 
-		// setup a radio button for each available character
+		// setup a radio button for each available character, in id order
 		for (int i = 0; i < characters.length; i++) {
 			JRadioButton button;
 			button = new JRadioButton(characters[i], false);
@@ -75,7 +81,7 @@ public class PlayerInputDialog extends InputDialog {
 				// set the default selected button if it has not been chosen yet
 				button.setSelected(true);
 				selectedCharacter = characters[i];
-				currentToken = board.getCharacterToken(characters[i]);
+				currentToken = board.getRegistry().getCharacter(i);
 				defaultSelected = true;
 			}
 
@@ -85,7 +91,7 @@ public class PlayerInputDialog extends InputDialog {
 
 			// create a listener for the new radio button
 			button.addItemListener(new RadioButtonHandler(characters[i], board
-					.getCharacterToken(characters[i])));
+					.getRegistry().getCharacter(i)));
 		}
 		panel.add(optionPanel);
 
@@ -158,4 +164,8 @@ public class PlayerInputDialog extends InputDialog {
 	public String getSelectedCharacter() {
 		return selectedCharacter;
 	}
+
+	public boolean isComputerInput() {
+		return computerBox.isSelected();
+	}
 }